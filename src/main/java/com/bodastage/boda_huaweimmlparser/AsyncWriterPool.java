@@ -0,0 +1,220 @@
+/*
+ * Writer threads for the outputs.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Moves the encoding and writing of output lines off the parsing thread.
+ * Lines are handed over in batches. All the lines of an output go to the
+ * same writer thread so they stay in order.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class AsyncWriterPool {
+
+    /**
+     * Lines per batch.
+     */
+    static final int BATCH_SIZE = 512;
+
+    /**
+     * Batches waiting per thread before the parser blocks.
+     */
+    static final int QUEUE_SIZE = 64;
+
+    private WriterThread [] threads;
+
+    private volatile IOException error = null;
+
+    public AsyncWriterPool(int threadCount){
+        threads = new WriterThread[threadCount];
+        for(int i = 0; i < threadCount; i++){
+            threads[i] = new WriterThread(i);
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Returns a writer that hands lines to a writer thread which writes them
+     * to target.
+     *
+     * @since 1.3.1
+     * @param name Output name
+     * @param target
+     */
+    public PrintWriter wrap(String name, PrintWriter target){
+        WriterThread thread = threads[(name.hashCode() & Integer.MAX_VALUE) % threads.length];
+        return new AsyncWriter(thread, target);
+    }
+
+    /**
+     * Stop the threads once their queues are drained.
+     *
+     * @since 1.3.1
+     * @throws IOException if writing failed
+     */
+    public void shutdown() throws IOException{
+        for(int i = 0; i < threads.length; i++){
+            threads[i].submit(new Batch(null, null, 0, new CountDownLatch(1), false));
+        }
+        for(int i = 0; i < threads.length; i++){
+            try{
+                threads[i].join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if(error != null) throw error;
+    }
+
+    /**
+     * Lines for one output. A batch without a target stops the thread.
+     */
+    private static class Batch {
+        PrintWriter target;
+        String [] lines;
+        int count;
+        CountDownLatch done;
+        boolean close;
+
+        Batch(PrintWriter target, String[] lines, int count, CountDownLatch done, boolean close){
+            this.target = target;
+            this.lines = lines;
+            this.count = count;
+            this.done = done;
+            this.close = close;
+        }
+    }
+
+    private class WriterThread extends Thread {
+        private BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_SIZE);
+
+        WriterThread(int index){
+            super("output-writer-" + index);
+            setDaemon(true);
+        }
+
+        void submit(Batch batch){
+            try{
+                queue.put(batch);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run(){
+            try{
+                while(true){
+                    Batch batch = queue.take();
+                    if(batch.target == null){
+                        batch.done.countDown();
+                        return;
+                    }
+
+                    //A failed output is reported while the queue keeps 
+                    //draining so that the waiting writers return
+                    try{
+                        write(batch);
+                    }catch(RuntimeException e){
+                        if(error == null) error = new IOException("Failed to write output", e);
+                        if(batch.close) closeQuietly(batch.target);
+                    }finally{
+                        if(batch.done != null) batch.done.countDown();
+                    }
+                }
+            }catch(InterruptedException e){
+                //Stopped
+            }
+        }
+
+        private void write(Batch batch){
+            for(int i = 0; i < batch.count; i++){
+                batch.target.println(batch.lines[i]);
+            }
+
+            if(batch.done != null){
+                if(batch.close){
+                    batch.target.close();
+                }else{
+                    batch.target.flush();
+                }
+                if(batch.target.checkError() && error == null){
+                    error = new IOException("Failed to write output");
+                }
+            }
+        }
+
+        private void closeQuietly(PrintWriter target){
+            try{
+                target.close();
+            }catch(RuntimeException e){
+                //Already reported
+            }
+        }
+    }
+
+    /**
+     * Collects lines into batches for a writer thread.
+     */
+    private class AsyncWriter extends PrintWriter {
+        private WriterThread thread;
+        private PrintWriter target;
+        private String [] lines = new String[BATCH_SIZE];
+        private int count = 0;
+
+        AsyncWriter(WriterThread thread, PrintWriter target){
+            super(target);
+            this.thread = thread;
+            this.target = target;
+        }
+
+        @Override
+        public void println(String line){
+            lines[count++] = line;
+            if(count == BATCH_SIZE){
+                thread.submit(new Batch(target, lines, count, null, false));
+                lines = new String[BATCH_SIZE];
+                count = 0;
+            }
+        }
+
+        /**
+         * Wait until the lines so far are written and flushed.
+         */
+        @Override
+        public void flush(){
+            sync(false);
+        }
+
+        @Override
+        public void close(){
+            sync(true);
+        }
+
+        @Override
+        public boolean checkError(){
+            return error != null;
+        }
+
+        private void sync(boolean close){
+            CountDownLatch done = new CountDownLatch(1);
+            thread.submit(new Batch(target, lines, count, done, close));
+            lines = new String[BATCH_SIZE];
+            count = 0;
+            try{
+                done.await();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Avro object container encoder.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the rows of an output as an Avro object container file. The schema
+ * is a record with a string field per column and is generated from the
+ * header, so the file can be read with the standard Avro tools without a
+ * separate schema.
+ *
+ * Names are made valid Avro names by replacing other characters with _
+ * e.g. MBSC MODE becomes MBSC_MODE.
+ *
+ * When the column types are inferred, int, long and decimal columns are
+ * nullable int, long and double fields and enum columns are nullable enums
+ * so the values are written as numbers and enum codes. Empty values are
+ * null.
+ *
+ * Rows are encoded into a reusable block buffer which is written with its
+ * row count and the sync marker when it is full.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class AvroRecordWriter extends RecordWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Size at which a block is written.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private OutputStream stream;
+
+    private String name;
+
+    private byte [] sync = new byte[16];
+
+    private int fieldCount;
+
+    /**
+     * Type of each field as in ColumnTypes.
+     */
+    private int [] fieldTypes;
+
+    /**
+     * Enum value to code of each enum field.
+     */
+    private List<Map<String, Integer>> enumCodes = new ArrayList<Map<String, Integer>>();
+
+    private byte [] block = new byte[BLOCK_SIZE + 1024];
+    private int blockLength = 0;
+    private long blockCount = 0;
+
+    /**
+     * Encoded bytes of the field being written.
+     */
+    private byte [] field = new byte[256];
+
+    /**
+     * @param out Buffered stream of the file
+     * @param name Output name
+     */
+    public AvroRecordWriter(OutputStream out, String name){
+        super(out);
+        this.stream = out;
+        this.name = name;
+
+        //The marker only has to be unlikely to appear in the data
+        long seed = name.hashCode() * 0x9E3779B97F4A7C15L + System.nanoTime();
+        for(int i = 0; i < sync.length; i++){
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            sync[i] = (byte)(seed >>> 56);
+        }
+    }
+
+    @Override
+    protected void writeHeader(String[] names) throws IOException{
+        fieldCount = names.length;
+        fieldTypes = new int[fieldCount];
+
+        StringBuilder schema = new StringBuilder();
+        schema.append("{\"type\":\"record\",\"name\":\"").append(toAvroName(name))
+              .append("\",\"namespace\":\"com.bodastage.huawei\",\"fields\":[");
+        Set<String> used = new HashSet<String>();
+        for(int i = 0; i < names.length; i++){
+            String fieldName = toAvroName(names[i]);
+            for(int n = 2; !used.add(fieldName); n++){
+                fieldName = toAvroName(names[i]) + "_" + n;
+            }
+            if(i > 0) schema.append(',');
+            schema.append("{\"name\":\"").append(fieldName).append("\",\"type\":");
+            appendType(schema, i, names[i], fieldName);
+            schema.append('}');
+        }
+        schema.append("]}");
+
+        stream.write(new byte[]{'O', 'b', 'j', 1});
+        byte [] header = new byte[schema.length() * 3 + 128];
+        int len = 0;
+        len = putLong(header, len, 2);
+        len = putBytes(header, len, "avro.schema".getBytes(UTF8));
+        len = putBytes(header, len, schema.toString().getBytes(UTF8));
+        len = putBytes(header, len, "avro.codec".getBytes(UTF8));
+        len = putBytes(header, len, "null".getBytes(UTF8));
+        len = putLong(header, len, 0);
+        stream.write(header, 0, len);
+        stream.write(sync);
+    }
+
+    /**
+     * Append the schema type of a field and set its type.
+     */
+    private void appendType(StringBuilder schema, int i, String column, String fieldName){
+        int type = getType(column);
+        fieldTypes[i] = type;
+        enumCodes.add(null);
+
+        if(type == ColumnTypes.INT){
+            schema.append("[\"null\",\"int\"]");
+        }else if(type == ColumnTypes.LONG){
+            schema.append("[\"null\",\"long\"]");
+        }else if(type == ColumnTypes.DECIMAL){
+            schema.append("[\"null\",\"double\"]");
+        }else if(type == ColumnTypes.ENUM){
+            Map<String, Integer> codes = new HashMap<String, Integer>();
+            schema.append("[\"null\",{\"type\":\"enum\",\"name\":\"").append(fieldName)
+                  .append("_VALUES\",\"symbols\":[");
+            for(String symbol : getSymbols(column)){
+                if(!codes.isEmpty()) schema.append(',');
+                schema.append('"').append(symbol).append('"');
+                codes.put(symbol, codes.size());
+            }
+            schema.append("]}]");
+            enumCodes.set(i, codes);
+        }else{
+            schema.append("\"string\"");
+        }
+    }
+
+    @Override
+    protected void writeRow(String line) throws IOException{
+        int pos = 0, lineLength = line.length();
+        for(int f = 0; f < fieldCount; f++){
+            if(fieldTypes[f] != ColumnTypes.TEXT){
+                int end = pos <= lineLength ? fieldEnd(line, pos) : pos;
+                ensureBlock(20);
+                writeTypedField(f, line, pos, end);
+                pos = end + 1;
+                continue;
+            }
+
+            int fieldLength = 0;
+            if(pos <= lineLength){
+                int end = fieldEnd(line, pos);
+                fieldLength = encodeField(line, pos, end);
+                pos = end + 1;
+            }
+
+            ensureBlock(fieldLength + 10);
+            blockLength = putLong(block, blockLength, fieldLength);
+            System.arraycopy(field, 0, block, blockLength, fieldLength);
+            blockLength += fieldLength;
+        }
+        blockCount++;
+
+        if(blockLength >= BLOCK_SIZE) writeBlock();
+    }
+
+    /**
+     * Write the value of a typed field as a union of null and the type.
+     * Values that do not parse are written as null.
+     */
+    private void writeTypedField(int f, String line, int start, int end){
+        if(isQuoted(line, start, end)){
+            start++;
+            end--;
+        }
+
+        int type = fieldTypes[f];
+        if(end > start && (type == ColumnTypes.INT || type == ColumnTypes.LONG)){
+            if(ColumnTypes.isInteger(line, start, end)){
+                blockLength = putLong(block, blockLength, 1);
+                blockLength = putLong(block, blockLength, ColumnTypes.parseLong(line, start, end));
+                return;
+            }
+        }else if(end > start && type == ColumnTypes.DECIMAL){
+            try{
+                long bits = Double.doubleToLongBits(Double.parseDouble(line.substring(start, end)));
+                blockLength = putLong(block, blockLength, 1);
+                for(int i = 0; i < 8; i++){
+                    block[blockLength++] = (byte)(bits >>> (8 * i));
+                }
+                return;
+            }catch(NumberFormatException e){
+                //Written as null
+            }
+        }else if(end > start && type == ColumnTypes.ENUM){
+            Integer code = enumCodes.get(f).get(line.substring(start, end));
+            if(code != null){
+                blockLength = putLong(block, blockLength, 1);
+                blockLength = putLong(block, blockLength, code);
+                return;
+            }
+        }
+        blockLength = putLong(block, blockLength, 0);
+    }
+
+    /**
+     * UTF-8 encode the value of a csv field into the field buffer.
+     *
+     * @return Number of bytes
+     */
+    private int encodeField(String line, int start, int end){
+        boolean quoted = isQuoted(line, start, end);
+        if(quoted){
+            start++;
+            end--;
+        }
+
+        if(field.length < (end - start) * 3){
+            field = new byte[(end - start) * 3];
+        }
+
+        int len = 0;
+        for(int i = start; i < end; i++){
+            char c = line.charAt(i);
+            if(quoted && c == '"') i++;
+
+            if(c < 0x80){
+                field[len++] = (byte)c;
+            }else if(c < 0x800){
+                field[len++] = (byte)(0xC0 | (c >> 6));
+                field[len++] = (byte)(0x80 | (c & 0x3F));
+            }else if(Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(line.charAt(i + 1))){
+                int cp = Character.toCodePoint(c, line.charAt(++i));
+                field[len++] = (byte)(0xF0 | (cp >> 18));
+                field[len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                field[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                field[len++] = (byte)(0x80 | (cp & 0x3F));
+            }else{
+                field[len++] = (byte)(0xE0 | (c >> 12));
+                field[len++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                field[len++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+        return len;
+    }
+
+    private void ensureBlock(int extra){
+        if(blockLength + extra > block.length){
+            byte [] bigger = new byte[Math.max(block.length * 2, blockLength + extra)];
+            System.arraycopy(block, 0, bigger, 0, blockLength);
+            block = bigger;
+        }
+    }
+
+    private void writeBlock() throws IOException{
+        if(blockCount == 0) return;
+
+        byte [] counts = new byte[20];
+        int len = putLong(counts, 0, blockCount);
+        len = putLong(counts, len, blockLength);
+        stream.write(counts, 0, len);
+        stream.write(block, 0, blockLength);
+        stream.write(sync);
+
+        blockLength = 0;
+        blockCount = 0;
+    }
+
+    /**
+     * Write a zig-zag variable length long.
+     */
+    private static int putLong(byte[] buf, int pos, long value){
+        long n = (value << 1) ^ (value >> 63);
+        while((n & ~0x7FL) != 0){
+            buf[pos++] = (byte)((n & 0x7F) | 0x80);
+            n >>>= 7;
+        }
+        buf[pos++] = (byte)n;
+        return pos;
+    }
+
+    private static int putBytes(byte[] buf, int pos, byte[] bytes){
+        pos = putLong(buf, pos, bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        return pos + bytes.length;
+    }
+
+    /**
+     * Returns a name matching [A-Za-z_][A-Za-z0-9_]*.
+     *
+     * @since 1.3.1
+     */
+    static String toAvroName(String s){
+        StringBuilder sb = new StringBuilder(s.length() + 1);
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            boolean valid = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_'
+                    || (i > 0 && c >= '0' && c <= '9');
+            if(i == 0 && c >= '0' && c <= '9') sb.append('_');
+            sb.append(valid || (c >= '0' && c <= '9') ? c : '_');
+        }
+        return sb.length() == 0 ? "_" : sb.toString();
+    }
+
+    @Override
+    public void flush(){
+        try{
+            writeBlock();
+        }catch(IOException e){
+            setError();
+        }
+        super.flush();
+    }
+
+    @Override
+    public void close(){
+        flush();
+        super.close();
+    }
+}
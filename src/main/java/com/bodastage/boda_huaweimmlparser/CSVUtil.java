@@ -0,0 +1,125 @@
+/*
+ * CSV helpers.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for reading back the csv lines written by the parser.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public final class CSVUtil {
+
+    private CSVUtil(){
+    }
+
+    /**
+     * Split a csv line into its fields. Quoted fields are unquoted and
+     * doubled quotes are collapsed.
+     *
+     * @since 1.3.1
+     * @param line
+     * @return String[]
+     */
+    public static String[] split(String line){
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+
+        for(int i = 0, len = line.length(); i < len; i++){
+            char c = line.charAt(i);
+
+            if(inQuotes){
+                if(c == '"'){
+                    if(i + 1 < len && line.charAt(i + 1) == '"'){
+                        field.append('"');
+                        i++;
+                    }else{
+                        inQuotes = false;
+                    }
+                }else{
+                    field.append(c);
+                }
+                continue;
+            }
+
+            if(c == '"'){
+                inQuotes = true;
+            }else if(c == ','){
+                fields.add(field.toString());
+                field.setLength(0);
+            }else{
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Format a field for csv output.
+     *
+     * @since 1.3.1
+     * @param s
+     * @return String
+     */
+    public static String escape(String s){
+        if(s.indexOf(',') >= 0 || s.indexOf('"') >= 0){
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+        return s;
+    }
+
+    /**
+     * Process a parameter value into a format acceptable for CSV format. 
+     * Values which do not need quoting are returned as they are in the dump.
+     *
+     * @since 1.3.1
+     * @param s
+     * @return String
+     */
+    public static String toCSVFormat(String s) {
+        String csvValue = s;
+
+        //Strip start and end quotes
+        s = s.replaceAll("^\"|\"$", "");
+        
+        //Check if value contains comma
+        if (s.contains(",")) {
+            csvValue = "\"" + s + "\"";
+        }
+
+        if (s.contains("\"")) {
+            csvValue = "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+
+        return csvValue;
+    }
+
+    /**
+     * Returns the index of each name in the header or -1 when missing.
+     *
+     * @since 1.3.1
+     * @param header
+     * @param names
+     * @return int[]
+     */
+    public static int[] indexOf(String[] header, String[] names){
+        int [] indices = new int[names.length];
+        for(int i = 0; i < names.length; i++){
+            indices[i] = -1;
+            for(int j = 0; j < header.length; j++){
+                if(header[j].equals(names[i])){
+                    indices[i] = j;
+                    break;
+                }
+            }
+        }
+        return indices;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Value types of the parameters of each output.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Infers the type of each parameter of the outputs from the values seen
+ * during the parameter extraction stage: int, long, decimal, enum or text.
+ *
+ * A type only holds if every value of the parameter has it, so the writers
+ * can encode the values of typed columns as numbers or enum codes. Numbers
+ * are canonical e.g. 007 and 1.50 are text as they would change when
+ * written as numbers. Enums are parameters with up to ENUM_LIMIT distinct
+ * name like values e.g. ON, OFF. Their code is the position of the value in
+ * the order the values were first seen. Empty values are not counted.
+ *
+ * Types of files discovered in parallel are merged in file order which
+ * gives the same types and enum codes as discovering the files one after
+ * the other.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ColumnTypes {
+
+    public static final int NONE = 0;
+    public static final int INT = 1;
+    public static final int LONG = 2;
+    public static final int DECIMAL = 3;
+    public static final int ENUM = 4;
+    public static final int TEXT = 5;
+
+    private static final String [] NAMES = {"text", "int", "long", "decimal", "enum", "text"};
+
+    /**
+     * Distinct values of an enum parameter.
+     */
+    static final int ENUM_LIMIT = 64;
+
+    /**
+     * Significant digits of a decimal that are kept by a double.
+     */
+    private static final int DECIMAL_DIGITS = 15;
+
+    /**
+     * Columns written from the dump header instead of the parameters.
+     */
+    private static final Set<String> META_COLUMNS = new HashSet<String>(Arrays.asList(
+            "filename", "datetime", "bscid", "bam_version", "omu_ip", "mbsc mode"));
+
+    /**
+     * Output name to parameter name to type.
+     */
+    private Map<String, Map<String, Column>> outputs = new LinkedHashMap<String, Map<String, Column>>();
+
+    /**
+     * Add a value of a parameter as it appears in the command.
+     *
+     * @since 1.3.1
+     * @param output Output name e.g. GCELL or GCELL_ACT
+     * @param parameter Parameter name
+     * @param value Value without the ending semi-colon
+     */
+    public void add(String output, String parameter, String value){
+        if(META_COLUMNS.contains(parameter.toLowerCase())) return;
+
+        Column column = getColumn(output, parameter);
+        if(column.type == TEXT) return;
+
+        //Surrounding quotes are removed when the value is written
+        int len = value.length();
+        if(len >= 2 && value.charAt(0) == '"' && value.charAt(len - 1) == '"'){
+            value = value.substring(1, len - 1);
+        }
+        if(value.length() == 0) return;
+
+        int type = classify(value);
+        column.add(type, type == ENUM ? value : null);
+    }
+
+    private Column getColumn(String output, String parameter){
+        Map<String, Column> columns = outputs.get(output);
+        if(columns == null){
+            columns = new LinkedHashMap<String, Column>();
+            outputs.put(output, columns);
+        }
+        Column column = columns.get(parameter);
+        if(column == null){
+            column = new Column();
+            columns.put(parameter, column);
+        }
+        return column;
+    }
+
+    /**
+     * Merge the types found in a later file.
+     *
+     * @since 1.3.1
+     * @param other
+     */
+    public void merge(ColumnTypes other){
+        for(Map.Entry<String, Map<String, Column>> output : other.outputs.entrySet()){
+            for(Map.Entry<String, Column> me : output.getValue().entrySet()){
+                Column source = me.getValue();
+                Column column = getColumn(output.getKey(), me.getKey());
+                if(source.type == NONE) continue;
+                if(source.type != ENUM){
+                    column.add(source.type, null);
+                    continue;
+                }
+                for(String symbol : source.symbols) column.add(ENUM, symbol);
+            }
+        }
+    }
+
+    /**
+     * Returns the type of a column. Columns without a type are TEXT.
+     *
+     * @since 1.3.1
+     * @param output Output name
+     * @param column Column name
+     */
+    public int getType(String output, String column){
+        Map<String, Column> columns = outputs.get(output);
+        Column c = columns == null ? null : columns.get(column);
+        return c == null || c.type == NONE ? TEXT : c.type;
+    }
+
+    /**
+     * Returns the values of an enum column in code order.
+     *
+     * @since 1.3.1
+     * @param output Output name
+     * @param column Column name
+     */
+    public List<String> getSymbols(String output, String column){
+        Map<String, Column> columns = outputs.get(output);
+        Column c = columns == null ? null : columns.get(column);
+        if(c == null || c.symbols == null) return new ArrayList<String>();
+        return new ArrayList<String>(c.symbols);
+    }
+
+    /**
+     * Returns the name of a type e.g. int.
+     *
+     * @since 1.3.1
+     * @param type
+     */
+    public static String getName(int type){
+        return NAMES[type];
+    }
+
+    /**
+     * Write the types as csv lines.
+     *
+     * @since 1.3.1
+     * @param pw
+     */
+    public void write(PrintWriter pw){
+        pw.println("MO,PARAMETER,TYPE,VALUES");
+        for(Map.Entry<String, Map<String, Column>> output : outputs.entrySet()){
+            for(Map.Entry<String, Column> me : output.getValue().entrySet()){
+                int type = getType(output.getKey(), me.getKey());
+                StringBuilder symbols = new StringBuilder();
+                if(type == ENUM){
+                    for(String symbol : me.getValue().symbols){
+                        if(symbols.length() > 0) symbols.append('|');
+                        symbols.append(symbol);
+                    }
+                }
+                pw.println(CSVUtil.escape(output.getKey()) + "," + CSVUtil.escape(me.getKey())
+                        + "," + getName(type) + "," + symbols);
+            }
+        }
+    }
+
+    /**
+     * Returns the types as a schema map for checkpoints. The key is the
+     * output and the parameter separated by a tab and the stack holds the
+     * type followed by the enum values.
+     *
+     * @since 1.3.1
+     */
+    Map<String, Stack<String>> toSchemaMap(){
+        Map<String, Stack<String>> map = new LinkedHashMap<String, Stack<String>>();
+        for(Map.Entry<String, Map<String, Column>> output : outputs.entrySet()){
+            for(Map.Entry<String, Column> me : output.getValue().entrySet()){
+                Stack<String> stack = new Stack<String>();
+                stack.push(String.valueOf(me.getValue().type));
+                if(me.getValue().symbols != null) stack.addAll(me.getValue().symbols);
+                map.put(output.getKey() + "\t" + me.getKey(), stack);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Restore the types saved with toSchemaMap.
+     *
+     * @since 1.3.1
+     * @param map
+     */
+    void restore(Map<String, Stack<String>> map){
+        if(map == null) return;
+        for(Map.Entry<String, Stack<String>> me : map.entrySet()){
+            int tab = me.getKey().indexOf('\t');
+            Stack<String> stack = me.getValue();
+            if(tab < 0 || stack == null || stack.isEmpty()) continue;
+
+            Column column = getColumn(me.getKey().substring(0, tab), me.getKey().substring(tab + 1));
+            int type = Integer.parseInt(stack.get(0));
+            if(type != ENUM){
+                column.add(type, null);
+                continue;
+            }
+            for(int i = 1; i < stack.size(); i++) column.add(ENUM, stack.get(i));
+        }
+    }
+
+    /**
+     * Returns the type of a single value.
+     *
+     * @since 1.3.1
+     * @param value Non-empty value
+     */
+    static int classify(String value){
+        int len = value.length();
+        char first = value.charAt(0);
+
+        if((first >= 'A' && first <= 'Z') || (first >= 'a' && first <= 'z') || first == '_'){
+            for(int i = 1; i < len; i++){
+                char c = value.charAt(i);
+                if(!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_'
+                        || (c >= '0' && c <= '9'))) return TEXT;
+            }
+            return ENUM;
+        }
+
+        int start = first == '-' ? 1 : 0;
+        int digits = 0, point = -1;
+        for(int i = start; i < len; i++){
+            char c = value.charAt(i);
+            if(c >= '0' && c <= '9'){
+                digits++;
+            }else if(c == '.' && point < 0){
+                point = i;
+            }else{
+                return TEXT;
+            }
+        }
+
+        //Canonical numbers only: no leading zeros, -0, or trailing zeros
+        int intDigits = point < 0 ? digits : point - start;
+        if(intDigits == 0) return TEXT;
+        if(intDigits > 1 && value.charAt(start) == '0') return TEXT;
+
+        if(point >= 0){
+            if(point == len - 1 || value.charAt(len - 1) == '0') return TEXT;
+            return digits <= DECIMAL_DIGITS ? DECIMAL : TEXT;
+        }
+
+        if(start == 1 && digits == 1 && value.charAt(1) == '0') return TEXT;
+        if(digits <= 9) return INT;
+        if(digits <= 18) return LONG;
+        return TEXT;
+    }
+
+    /**
+     * Returns true if line holds an integer of up to 18 digits between start
+     * and end.
+     *
+     * @since 1.3.1
+     */
+    static boolean isInteger(String line, int start, int end){
+        if(start < end && line.charAt(start) == '-') start++;
+        if(end - start < 1 || end - start > 18) return false;
+        for(int i = start; i < end; i++){
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the integer in line between start and end checked with
+     * isInteger.
+     *
+     * @since 1.3.1
+     */
+    static long parseLong(String line, int start, int end){
+        boolean negative = line.charAt(start) == '-';
+        long n = 0;
+        for(int i = negative ? start + 1 : start; i < end; i++){
+            n = n * 10 + (line.charAt(i) - '0');
+        }
+        return negative ? -n : n;
+    }
+
+    /**
+     * Type of one parameter.
+     */
+    private static class Column {
+        int type = NONE;
+
+        /**
+         * Values of an enum in the order they were first seen.
+         */
+        LinkedHashSet<String> symbols;
+
+        void add(int valueType, String symbol){
+            if(type == TEXT) return;
+
+            if(valueType == ENUM){
+                if(type != NONE && type != ENUM){
+                    toText();
+                    return;
+                }
+                type = ENUM;
+                if(symbols == null) symbols = new LinkedHashSet<String>();
+                symbols.add(symbol);
+                if(symbols.size() > ENUM_LIMIT) toText();
+                return;
+            }
+
+            if(valueType == TEXT || type == ENUM){
+                toText();
+                return;
+            }
+
+            //int, long and decimal widen to the larger type
+            type = Math.max(type, valueType);
+        }
+
+        void toText(){
+            type = TEXT;
+            symbols = null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Counts of commands by verb and MO.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts commands by their verb and MO e.g. "ADD GCELL". Keys are looked up
+ * from the bytes of the command in an open addressing table so counting
+ * does not create a string per command.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class CommandCounter {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private byte [][] keys = new byte[256][];
+    private int [] hashes = new int[256];
+    private long [] counts = new long[256];
+
+    /**
+     * Slots in the order the keys were first seen.
+     */
+    private int [] order = new int[128];
+
+    private int size = 0;
+
+    /**
+     * Count one command.
+     *
+     * @since 1.3.1
+     * @param key Bytes of the verb, a space and the MO
+     * @param length Number of bytes of key to use
+     */
+    public void add(byte[] key, int length){
+        int hash = 1;
+        for(int i = 0; i < length; i++) hash = 31 * hash + key[i];
+
+        int mask = keys.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while(keys[slot] != null){
+            if(hashes[slot] == hash && equals(keys[slot], key, length)){
+                counts[slot]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte [] copy = new byte[length];
+        System.arraycopy(key, 0, copy, 0, length);
+        keys[slot] = copy;
+        hashes[slot] = hash;
+        counts[slot] = 1;
+
+        if(size == order.length){
+            int [] bigger = new int[order.length * 2];
+            System.arraycopy(order, 0, bigger, 0, size);
+            order = bigger;
+        }
+        order[size++] = slot;
+
+        if(size * 2 > keys.length) grow();
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int length){
+        if(a.length != length) return false;
+        for(int i = 0; i < length; i++){
+            if(a[i] != b[i]) return false;
+        }
+        return true;
+    }
+
+    private void grow(){
+        byte [][] oldKeys = keys;
+        int [] oldHashes = hashes;
+        long [] oldCounts = counts;
+        int [] oldOrder = order;
+
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[keys.length];
+        counts = new long[keys.length];
+        order = new int[oldOrder.length];
+
+        int mask = keys.length - 1;
+        for(int i = 0; i < size; i++){
+            int old = oldOrder[i];
+            int slot = (oldHashes[old] ^ (oldHashes[old] >>> 16)) & mask;
+            while(keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[old];
+            hashes[slot] = oldHashes[old];
+            counts[slot] = oldCounts[old];
+            order[i] = slot;
+        }
+    }
+
+    /**
+     * Returns the counts by key in the order the keys were first seen.
+     *
+     * @since 1.3.1
+     */
+    public Map<String, Long> getCounts(){
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for(int i = 0; i < size; i++){
+            result.put(new String(keys[order[i]], ASCII), counts[order[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of commands counted.
+     *
+     * @since 1.3.1
+     */
+    public long getTotal(){
+        long total = 0;
+        for(int i = 0; i < size; i++) total += counts[order[i]];
+        return total;
+    }
+}
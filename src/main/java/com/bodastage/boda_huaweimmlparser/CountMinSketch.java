@@ -0,0 +1,69 @@
+/*
+ * Value frequency estimate.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+/**
+ * Count-min sketch estimating how often each value was seen in a fixed
+ * table of counters. Estimates are never below the true count. Counters are
+ * updated conservatively which keeps the estimates of rare values closer to
+ * their counts.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    static final int WIDTH = 1024;
+
+    private long [] counts = new long[DEPTH * WIDTH];
+
+    /**
+     * Count a value and return its estimated count.
+     *
+     * @since 1.3.1
+     * @param hash 64 bit hash of the value
+     * @param count Number of times the value was seen
+     */
+    public long add(long hash, long count){
+        //Conservative update: only raise the counters to the new estimate
+        long estimate = estimate(hash) + count;
+        for(int row = 0; row < DEPTH; row++){
+            int slot = row * WIDTH + index(hash, row);
+            if(counts[slot] < estimate) counts[slot] = estimate;
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the estimated count of a value.
+     *
+     * @since 1.3.1
+     * @param hash 64 bit hash of the value
+     */
+    public long estimate(long hash){
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < DEPTH; row++){
+            estimate = Math.min(estimate, counts[row * WIDTH + index(hash, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Add the counts of another sketch.
+     *
+     * @since 1.3.1
+     * @param other
+     */
+    public void merge(CountMinSketch other){
+        for(int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+    }
+
+    private static int index(long hash, int row){
+        //Rows use different halves and multiples of the hash
+        int h = (int)hash + (row + 1) * (int)(hash >>> 32);
+        return (h & Integer.MAX_VALUE) % WIDTH;
+    }
+}
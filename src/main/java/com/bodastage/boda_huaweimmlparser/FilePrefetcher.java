@@ -0,0 +1,229 @@
+/*
+ * Read-ahead of the next input files.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the start of the next files on a background thread while the
+ * current file is parsed, so the parser does not wait for cold reads e.g.
+ * from a NAS.
+ *
+ * The data is read into chunks from a fixed pool. The pool bounds the
+ * memory used and chunks are returned to it as the parser reads them.
+ * At most depth files are read ahead and each one up to its share of the
+ * memory. The rest of a file is read from disk after the prefetched part.
+ *
+ * Files must be opened in the order they were given.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class FilePrefetcher {
+
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    private BlockingQueue<byte[]> freeChunks;
+
+    private BlockingQueue<Prefetched> ready;
+
+    private List<File> files;
+
+    /**
+     * Files not opened yet.
+     */
+    private List<File> pending;
+
+    /**
+     * Bytes read ahead from each file.
+     */
+    private long headSize;
+
+    private Thread thread;
+
+    private volatile boolean stopped = false;
+
+    /**
+     * @param files Files in the order they will be opened
+     * @param depth Number of files to read ahead
+     * @param memory Bytes to use for the prefetched data
+     */
+    public FilePrefetcher(List<File> files, int depth, long memory){
+        this.files = new ArrayList<File>(files);
+        this.pending = new ArrayList<File>(files);
+        int chunkCount = (int)Math.max(1, memory / CHUNK_SIZE);
+        this.headSize = (long)Math.max(1, chunkCount / depth) * CHUNK_SIZE;
+        this.freeChunks = new ArrayBlockingQueue<byte[]>(chunkCount);
+        this.ready = new ArrayBlockingQueue<Prefetched>(depth);
+
+        //Chunks are allocated when first needed
+        for(int i = 0; i < chunkCount; i++) freeChunks.offer(new byte[0]);
+
+        thread = new Thread(new Runnable() {
+            public void run() {
+                prefetch();
+            }
+        }, "input-prefetcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void prefetch(){
+        for(File f : files){
+            Prefetched p = new Prefetched(f);
+            try{
+                p.rest = new FileInputStream(f);
+                while(p.size < headSize){
+                    byte [] chunk = freeChunks.take();
+                    if(chunk.length == 0) chunk = new byte[CHUNK_SIZE];
+                    p.chunks.add(chunk);
+
+                    int len = 0, n = 0;
+                    while(len < chunk.length && (n = p.rest.read(chunk, len, chunk.length - len)) > 0){
+                        len += n;
+                    }
+                    p.lengths.add(len);
+                    p.size += len;
+
+                    if(n < 0){
+                        p.rest.close();
+                        p.rest = null;
+                        break;
+                    }
+                }
+            }catch(IOException e){
+                p.error = e;
+            }catch(InterruptedException e){
+                p.release();
+                return;
+            }
+
+            try{
+                ready.put(p);
+            }catch(InterruptedException e){
+                p.release();
+                return;
+            }
+            if(stopped){
+                p.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a stream of the file reading the prefetched data first, or null
+     * if the file is not the next one prefetched.
+     *
+     * @since 1.3.1
+     * @param filename
+     */
+    public InputStream open(String filename) throws IOException{
+        if(pending.isEmpty() || !pending.get(0).getAbsolutePath().equals(new File(filename).getAbsolutePath())){
+            return null;
+        }
+        pending.remove(0);
+
+        Prefetched p;
+        try{
+            p = ready.take();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+
+        if(p.error != null){
+            p.release();
+            throw p.error;
+        }
+        return p;
+    }
+
+    /**
+     * Stop reading ahead and release the prefetched data.
+     *
+     * @since 1.3.1
+     */
+    public void close(){
+        stopped = true;
+        thread.interrupt();
+        try{
+            thread.join();
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        for(Prefetched p; (p = ready.poll()) != null; ) p.release();
+    }
+
+    /**
+     * The prefetched chunks of a file followed by the rest of the file.
+     */
+    private class Prefetched extends InputStream {
+        File file;
+        List<byte[]> chunks = new ArrayList<byte[]>();
+        List<Integer> lengths = new ArrayList<Integer>();
+        long size = 0;
+        FileInputStream rest;
+        IOException error;
+
+        private int chunk = 0;
+        private int pos = 0;
+
+        Prefetched(File file){
+            this.file = file;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException{
+            while(chunk < chunks.size()){
+                int available = lengths.get(chunk) - pos;
+                if(available > 0){
+                    int n = Math.min(available, len);
+                    System.arraycopy(chunks.get(chunk), pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+
+                //Hand the chunk back for the next files
+                freeChunks.offer(chunks.get(chunk));
+                chunks.set(chunk++, null);
+                pos = 0;
+            }
+            return rest == null ? -1 : rest.read(b, off, len);
+        }
+
+        @Override
+        public int read() throws IOException{
+            byte [] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public void close() throws IOException{
+            release();
+        }
+
+        void release(){
+            for(; chunk < chunks.size(); chunk++){
+                freeChunks.offer(chunks.get(chunk));
+                chunks.set(chunk, null);
+            }
+            if(rest != null){
+                try{
+                    rest.close();
+                }catch(IOException e){
+                    //Nothing left to read
+                }
+                rest = null;
+            }
+        }
+    }
+}
@@ -4,23 +4,42 @@
  * @since 1.0.0
  */
 package com.bodastage.boda_huaweimmlparser;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.commons.cli.Options;
@@ -44,11 +63,66 @@ public class HuaweiMMLParser {
      */
     final static String VERSION = "1.3.1";
     
-    
-    Logger logger = LoggerFactory.getLogger(HuaweiMMLParser.class);
+    /**
+     * Fields added at the start of each row.
+     * 
+     * @since 1.3.1
+     */
+    final static String [] META_FIELDS = {"FILENAME", "DATETIME", "BSCID", 
+        "BAM_VERSION", "OMU_IP", "MBSC MODE"};
     
     public HuaweiMMLParser(){
+        merger.setKeyColumns(moKeyColumns);
+        
+        registerVerbHandler("SET", MO_LINE_HANDLER);
+        registerVerbHandler("ADD", MO_LINE_HANDLER);
+        registerVerbHandler("ACT", VERB_LINE_HANDLER);
+        registerVerbHandler("MOD", VERB_LINE_HANDLER);
+        registerVerbHandler("DEA", VERB_LINE_HANDLER);
+        registerVerbHandler("BLK", VERB_LINE_HANDLER);
+        registerVerbHandler("UBL", VERB_LINE_HANDLER);
+        registerVerbHandler("UIN", VERB_LINE_HANDLER);
+    }
+    
+    /**
+     * Applies commands to the MO store in materialise mode.
+     * 
+     * @since 1.3.1
+     */
+    public static final VerbHandler MATERIALISE_HANDLER = new VerbHandler(){
+        public void processLine(HuaweiMMLParser parser, String verb, int verbIndex, String line) 
+                throws IOException{
+            parser.materialiseLine(line, verb);
+        }
+    };
+    
+    /**
+     * Register the handler of a command verb e.g. RMV. Use VERB_LINE_HANDLER 
+     * to write the commands to MO_VERB files.
+     * 
+     * @since 1.3.1
+     * @param verb
+     * @param handler
+     */
+    public void registerVerbHandler(String verb, VerbHandler handler){
+        int index = verbRegistry.register(verb, handler);
+        if(index < verbClassNameAttrsMaps.size()) return;
         
+        if(handler == MO_LINE_HANDLER){
+            verbClassNameAttrsMaps.add(classNameAttrsMap);
+        }else{
+            verbClassNameAttrsMaps.add(new LinkedHashMap<String, Stack>());
+        }
+    }
+    
+    /**
+     * Returns the parameters of each MO for the given verb.
+     * 
+     * @since 1.3.1
+     * @param verbIndex
+     */
+    Map<String,Stack> getVerbClassNameAttrsMap(int verbIndex){
+        return verbClassNameAttrsMaps.get(verbIndex);
     }
     
     /**
@@ -93,6 +167,36 @@ public class HuaweiMMLParser {
      */
     private String outputDirectory = "/tmp";
     
+    /**
+     * Files in the output directory or tagged lines on stdout.
+     * 
+     * @since 1.3.1
+     */
+    private OutputTarget output = OutputTarget.toDirectory(outputDirectory);
+    
+    /**
+     * Output format. csv, ndjson or avro.
+     * 
+     * @since 1.3.1
+     */
+    private String outputFormat = OutputTarget.CSV;
+    
+    /**
+     * Threads encoding and writing the outputs. 0 to write on the parsing 
+     * thread.
+     * 
+     * @since 1.3.1
+     */
+    private int writerThreads = 0;
+    
+    /**
+     * Number of part files kept open in a partitioned output directory. 0 
+     * to write one file per output.
+     * 
+     * @since 1.3.1
+     */
+    private int partitionFiles = 0;
+    
     /**
      * Parser start time. 
      * 
@@ -151,64 +255,45 @@ public class HuaweiMMLParser {
             = new LinkedHashMap<String, Stack>();
     
     /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for Modification lines
-     * 
-     * @since 1.0.0
-     * @version 1.0.0
-     */
-    private Map<String,Stack> actClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
-    
-    /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for Deactivation lines
-     * 
-     * @since 1.0.0
-     * @version 1.0.0
-     */
-    private Map<String,Stack> deaClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
-    
-    /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for Blocking lines
+     * Handlers of the command verbs keyed by the first token of the line.
      * 
-     * @since 1.0.0
-     * @version 1.0.0
+     * @since 1.3.1
      */
-    private Map<String,Stack> blkClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
+    private VerbRegistry verbRegistry = new VerbRegistry();
     
     /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for Un-initialize lines
+     * The parameters of each MO per verb, indexed by the verb index in 
+     * verbRegistry. SET and ADD share classNameAttrsMap. The other verbs 
+     * e.g. ACT, MOD, BLK are written to separate MO_VERB files.
      * 
-     * @since 1.0.0
-     * @version 1.0.0
+     * @since 1.3.1
      */
-    private Map<String,Stack> uinClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
+    private List<Map<String,Stack>> verbClassNameAttrsMaps 
+            = new ArrayList<Map<String,Stack>>();
     
     /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for modification lines
+     * Handles SET and ADD lines.
      * 
-     * @since 1.0.0
-     * @version 1.0.0
+     * @since 1.3.1
      */
-    private Map<String,Stack> modClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
+    public static final VerbHandler MO_LINE_HANDLER = new VerbHandler(){
+        public void processLine(HuaweiMMLParser parser, String verb, int verbIndex, String line) 
+                throws IOException{
+            parser.processMOLine(line, verb, verbIndex);
+        }
+    };
     
     /**
-     * The holds the parameters and corresponding values for the moi tag  
-     * currently being processed for Un-block lines
+     * Handles lines written to separate MO_VERB files e.g. ACT, MOD, BLK.
      * 
-     * @since 1.0.0
-     * @version 1.0.0
+     * @since 1.3.1
      */
-    private Map<String,Stack> ublClassNameAttrsMap 
-            = new LinkedHashMap<String, Stack>();
+    public static final VerbHandler VERB_LINE_HANDLER = new VerbHandler(){
+        public void processLine(HuaweiMMLParser parser, String verb, int verbIndex, String line) 
+                throws IOException{
+            parser.extactParameterAndValues(line, verb, verbIndex);
+        }
+    };
     
     /**
      * Current className MO attribute.
@@ -280,384 +365,2404 @@ public class HuaweiMMLParser {
         extractMetaFields = bool;
     }
     
-    public static void main( String[] args )
-    {
-        
-       Options options = new Options();
-       CommandLine cmd = null;
-       String outputDirectory = null;   
-       String inputFile = null;
-       String parameterConfigFile = null;
-       Boolean onlyExtractParameters = false;
-       Boolean showHelpMessage = false;
-       Boolean showVersion = false;
-       Boolean attachMetaFields = false; //Attach mattachMetaFields FILENAME,DATETIME,NE_TECHNOLOGY,NE_VENDOR,NE_VERSION,NE_TYPE
-       
-       try{ 
-            options.addOption( "p", "extract-parameters", false, "extract only the managed objects and parameters" );
-            options.addOption( "v", "version", false, "display version" );
-//            options.addOption( "m", "meta-fields", false, "add meta fields to extracted parameters. FILENAME,DATETIME" );
-            options.addOption( Option.builder("i")
-                    .longOpt( "input-file" )
-                    .desc( "input file or directory name")
-                    .hasArg()
-                    .argName( "INPUT_FILE" ).build());
-            options.addOption(Option.builder("o")
-                    .longOpt( "output-directory" )
-                    .desc( "output directory name")
-                    .hasArg()
-                    .argName( "OUTPUT_DIRECTORY" ).build());
-            options.addOption(Option.builder("c")
-                    .longOpt( "parameter-config" )
-                    .desc( "parameter configuration file")
-                    .hasArg()
-                    .argName( "PARAMETER_CONFIG" ).build() );
-            options.addOption( "h", "help", false, "show help" );
-            
-            //Parse command line arguments
-            CommandLineParser parser = new DefaultParser();
-            cmd = parser.parse( options, args);
-
-            if( cmd.hasOption("h")){
-                showHelpMessage = true;
-            }
-
-            if( cmd.hasOption("v")){
-                showVersion = true;
-            }
-            
-            if(cmd.hasOption('o')){
-                outputDirectory = cmd.getOptionValue("o"); 
-            }
-            
-            if(cmd.hasOption('i')){
-                inputFile = cmd.getOptionValue("i"); 
-            }
-            
-            if(cmd.hasOption('c')){
-                parameterConfigFile = cmd.getOptionValue("c"); 
-            }
-            
-            if(cmd.hasOption('p')){
-                onlyExtractParameters  = true;
-            }
-            
-            if(cmd.hasOption('m')){
-                attachMetaFields  = true;
-            }
-            
-       }catch(IllegalArgumentException e){
-           
-       } catch (ParseException ex) {
-//            java.util.logging.Logger.getLogger(HuaweiCMObjectParser.class.getName()).log(Level.SEVERE, null, ex);
-        }
-       
-       
-        try{
-            
-            if(showVersion == true ){
-                System.out.println(VERSION);
-                System.out.println("Copyright (c) 2019 Bodastage Solutions(http://www.bodastage.com)");
-                System.exit(0);
-            }
-            
-            //show help
-            if( showHelpMessage == true || 
-                inputFile == null || 
-                ( outputDirectory == null && onlyExtractParameters == false) ){
-                     HelpFormatter formatter = new HelpFormatter();
-                     String header = "Parses Huawei CFGMML files to csv\n\n";
-                     String footer = "\n";
-                     footer += "Examples: \n";
-                     footer += "java -jar boda-huaweimmlparser.jar -i cfgmml_dump.txt -o out_folder\n";
-                     footer += "java -jar boda-huaweimmlparser.jar -i input_folder -o out_folder\n";
-                     footer += "\nCopyright (c) 2019 Bodastage Solutions(http://www.bodastage.com)";
-                     formatter.printHelp( "java -jar boda-huaweimmlparser.jar", header, options, footer );
-                     System.exit(0);
-            }
-        
-            //Confirm that the output directory is a directory and has write 
-            //privileges
-            if(outputDirectory != null ){
-                File fOutputDir = new File(outputDirectory);
-                if (!fOutputDir.isDirectory()) {
-                    System.err.println("ERROR: The specified output directory is not a directory!.");
-                    System.exit(1);
-                }
-
-                if (!fOutputDir.canWrite()) {
-                    System.err.println("ERROR: Cannot write to output directory!");
-                    System.exit(1);
-                }
-            }
-            
-            //Confirm that the output directory is a directory and has write 
-            //privileges
-            if(outputDirectory != null ){
-                File fOutputDir = new File(outputDirectory);
-                if (!fOutputDir.isDirectory()) {
-                    System.err.println("ERROR: The specified output directory is not a directory!.");
-                    System.exit(1);
-                }
-
-                if (!fOutputDir.canWrite()) {
-                    System.err.println("ERROR: Cannot write to output directory!");
-                    System.exit(1);
-                }
-            }
-            
-
-            //Get parser instance
-            HuaweiMMLParser cmParser = new HuaweiMMLParser();
-
-
-            if(onlyExtractParameters == true ){
-                cmParser.setExtractParametersOnly(true);
-            }
-            
-            if( attachMetaFields == true ){
-                cmParser.setExtractMetaFields(true);
-            }
-            
-            if(  parameterConfigFile != null ){
-                File f = new File(parameterConfigFile);
-                if(f.isFile()){
-                    cmParser.setParameterFile(parameterConfigFile);
-                    cmParser.getParametersToExtract(parameterConfigFile);
-                    cmParser.parserState = ParserStates.EXTRACTING_VALUES;
-                }
-            }
-            
-            
-            cmParser.setDataSource(inputFile);
-            if(outputDirectory != null ) cmParser.setOutputDirectory(outputDirectory);
-
-            cmParser.setOutputDirectory(outputDirectory);
-            cmParser.parse();
-            cmParser.printExecutionTime();
-            
-        }catch(Exception e){
-            System.out.println(e.getMessage());
-            System.exit(1);
-        }
-
-
-    }
-    
-    
     /**
-     * The file/directory to be parsed.
-     *
-     * @since 1.1.0
+     * Resume from the last checkpoint in the output directory.
+     * 
+     * @since 1.3.1
      */
-    private String dataSource;
+    private Boolean resume = false;
     
     /**
-     * Parser states. Currently there are only 2: extraction and parsing
+     * Number of lines between checkpoints taken while parsing a file. 
+     * A checkpoint is always taken after each file. 0 disables the periodic 
+     * checkpoints.
      * 
-     * @since 1.1.0
-     * @version 1.0.0
+     * @since 1.3.1
      */
-    private int parserState = ParserStates.EXTRACTING_PARAMETERS;
-    
-    private LinkedHashMap<String,String> attrValueMap = new LinkedHashMap<String,String>();
-    
+    private long checkpointInterval = 1000000;
     
     /**
-     * File with a list of managed objects and parameters to extract.
+     * Input files completely processed in the current parser state.
      * 
+     * @since 1.3.1
      */
-    private String parameterFile = null;
+    private Set<String> completedFiles = new LinkedHashSet<String>();
+    
+    /**
+     * File and byte offset to continue from when resuming.
+     * 
+     * @since 1.3.1
+     */
+    private String resumeFile = null;
+    private long resumeFileOffset = 0;
+    
+    public void setResume(Boolean bool){
+        resume = bool;
+    }
+    
+    public void setCheckpointInterval(long lines){
+        checkpointInterval = lines;
+    }
+    
+    /**
+     * Charset of the input files. The JVM default charset is used when not set.
+     * 
+     * @since 1.3.1
+     */
+    private Charset inputCharset = null;
+    
+    /**
+     * Detect the charset of each input file.
+     * 
+     * @since 1.3.1
+     */
+    private Boolean detectInputCharset = false;
+    
+    /**
+     * Keep only the latest row for each MO instance across dumps of the same
+     * NE.
+     * 
+     * @since 1.3.1
+     */
+    private Boolean mergeRows = false;
+    
+    private MOMerger merger = new MOMerger();
+    
+    /**
+     * Identifying parameters of MOs used to match rows across dumps.
+     * 
+     * @since 1.3.1
+     */
+    private MOKeyColumns moKeyColumns = new MOKeyColumns();
+    
+    /**
+     * Memory in bytes for merging and comparing outputs.
+     * 
+     * @since 1.3.1
+     */
+    private long mergeMemoryLimit = 256L * 1024 * 1024;
+    
+    public void setMergeRows(Boolean bool){
+        mergeRows = bool;
+    }
+    
+    /**
+     * Set the file with the identifying parameters of each MO. 
+     * 
+     * @since 1.3.1
+     * @param filename File with lines in the format MO:PARAM1,PARAM2
+     */
+    public void setMergeKeyFile(String filename) throws IOException{
+        moKeyColumns.load(filename);
+    }
+    
+    public void setMergeMemoryLimit(long bytes){
+        mergeMemoryLimit = bytes;
+        merger.setMemoryLimit(bytes);
+    }
+    
+    /**
+     * Output with the statistics of the parameter values.
+     * 
+     * @since 1.3.1
+     */
+    public static final String PROFILE_OUTPUT = "PARAMETER_PROFILE";
+    
+    /**
+     * Statistics of the parameter values written or null when not 
+     * collected.
+     * 
+     * @since 1.3.1
+     */
+    private ParameterStats stats = null;
+    
+    /**
+     * Collect the number of empty, missing and distinct values and the most 
+     * frequent values of each parameter and write them to PARAMETER_PROFILE.
+     * 
+     * @since 1.3.1
+     */
+    public void setCollectStats(boolean collect){
+        stats = collect ? new ParameterStats() : null;
+    }
+    
+    /**
+     * Add a ROW_HASH column with a hash of the parameter values of each row.
+     * 
+     * @since 1.3.1
+     */
+    private boolean rowHash = false;
+    
+    /**
+     * Add a ROW_HASH column with a 64 bit hash of the parameter values of 
+     * each row so loaders can skip the rows that did not change.
+     * 
+     * @since 1.3.1
+     * @see RowHash
+     */
+    public void setRowHash(boolean rowHash){
+        this.rowHash = rowHash;
+    }
+    
+    /**
+     * Output with the inferred type of each parameter.
+     * 
+     * @since 1.3.1
+     */
+    public static final String TYPES_OUTPUT = "COLUMN_TYPES";
+    
+    /**
+     * Types of the parameter values or null when not inferred.
+     * 
+     * @since 1.3.1
+     */
+    private ColumnTypes columnTypes = null;
+    
+    /**
+     * Infer the type of each parameter during the parameter extraction 
+     * stage. The types are written to COLUMN_TYPES and the ndjson and avro 
+     * outputs write numbers and enum values instead of strings.
+     * 
+     * @since 1.3.1
+     */
+    public void setInferTypes(boolean infer){
+        columnTypes = infer ? new ColumnTypes() : null;
+    }
+    
+    /**
+     * Columns indexed in the .idx file of each output or null to not index 
+     * the outputs.
+     * 
+     * @since 1.3.1
+     */
+    private List<String> indexColumns = null;
+    
+    /**
+     * Write an index of the rows by BSCID, FILENAME and the given key 
+     * parameters next to each output.
+     * 
+     * @since 1.3.1
+     * @param keys Parameters to index e.g. CELLID
+     */
+    public void setIndexKeys(String[] keys){
+        indexColumns = new ArrayList<String>();
+        indexColumns.add("BSCID");
+        indexColumns.add("FILENAME");
+        for(String key : keys){
+            if(key.trim().length() > 0) indexColumns.add(key.trim());
+        }
+    }
+    
+    /**
+     * Number of threads used to extract parameters from a directory.
+     * 
+     * @since 1.3.1
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Store of the final state of the MO instances in materialise mode. 
+     * Null when not materialising.
+     * 
+     * @since 1.3.1
+     */
+    private MOStore moStore = null;
+    
+    /**
+     * Apply ADD, SET, MOD, RMV/DEL, ACT/DEA and BLK/UBL commands in order and
+     * write one row per MO instance in its final state. 
+     * 
+     * @since 1.3.1
+     */
+    public void setMaterialise(Boolean bool){
+        if(bool == false){
+            moStore = null;
+            return;
+        }
+        
+        moStore = new MOStore(moKeyColumns);
+        String [] verbs = {"SET", "ADD", "MOD", "RMV", "DEL", "ACT", "DEA", "BLK", "UBL"};
+        for(int i = 0; i < verbs.length; i++){
+            registerVerbHandler(verbs[i], MATERIALISE_HANDLER);
+        }
+    }
+    
+    /**
+     * Parse the input once. Rows are spooled with their layouts while the 
+     * parameters are collected and written with the final headers at the end.
+     * 
+     * @since 1.3.1
+     */
+    private Boolean singlePass = false;
+    
+    /**
+     * Spooled rows in single pass mode. Only set during the pass.
+     * 
+     * @since 1.3.1
+     */
+    private RowSpool rowSpool = null;
+    
+    public void setSinglePass(Boolean bool){
+        singlePass = bool;
+    }
+    
+    /**
+     * Output with the lines that could not be parsed in resilient mode.
+     * 
+     * @since 1.3.1
+     */
+    public static final String REJECTS_OUTPUT = "REJECTED_LINES";
+    
+    /**
+     * Reject malformed lines and continue with the next command instead of 
+     * skipping the rest of the file.
+     * 
+     * @since 1.3.1
+     */
+    private boolean resilient = false;
+    
+    /**
+     * Skipping the rest of a rejected command.
+     * 
+     * @since 1.3.1
+     */
+    private boolean resyncing = false;
+    
+    /**
+     * Lines that failed to parse.
+     * 
+     * @since 1.3.1
+     */
+    private long rejectedLines = 0;
+    
+    /**
+     * Lines skipped after a rejected line until the next command.
+     * 
+     * @since 1.3.1
+     */
+    private long skippedLines = 0;
+    
+    /**
+     * Files with rejected lines or skipped after an error.
+     * 
+     * @since 1.3.1
+     */
+    private Set<String> filesWithErrors = new LinkedHashSet<String>();
+    
+    /**
+     * Rejected lines of a worker written by the main parser in input order.
+     * 
+     * @since 1.3.1
+     */
+    private List<String> rejectBuffer = null;
+    
+    /**
+     * Error that ended the task of a worker.
+     * 
+     * @since 1.3.1
+     */
+    private Exception taskError = null;
+    
+    /**
+     * Worker writing its MO rows to csv part files. Only the verb rows are 
+     * spooled.
+     * 
+     * @since 1.3.1
+     */
+    private boolean partOutput = false;
+    
+    /**
+     * Outputs appended from the part files of the workers.
+     * 
+     * @since 1.3.1
+     */
+    private Set<String> partOutputs = new LinkedHashSet<String>();
+    
+    /**
+     * Files larger than this are split into byte ranges parsed by several 
+     * threads.
+     * 
+     * @since 1.3.1
+     */
+    private long splitSize = 64L * 1024 * 1024;
+    
+    public void setSplitSize(long splitSize){
+        this.splitSize = splitSize;
+    }
+    
+    /**
+     * Number of files read ahead while parsing a directory on one thread.
+     * 
+     * @since 1.3.1
+     */
+    private int prefetchDepth = 2;
+    
+    /**
+     * Memory for the files read ahead.
+     * 
+     * @since 1.3.1
+     */
+    private long prefetchMemory = 64L * 1024 * 1024;
+    
+    private FilePrefetcher prefetcher = null;
+    
+    public void setPrefetch(int depth, long memory){
+        this.prefetchDepth = depth;
+        this.prefetchMemory = memory;
+    }
+    
+    public void setResilient(Boolean bool){
+        resilient = bool;
+    }
+    
+    /**
+     * Commands counted by verb and MO in inventory mode.
+     * 
+     * @since 1.3.1
+     */
+    private CommandCounter commandCounter = null;
+    
+    /**
+     * Multi-valued parameters are written with one column per child.
+     * 
+     * @since 1.3.1
+     */
+    public static final int MV_WIDE = 0;
+    
+    /**
+     * Multi-valued parameters are written to a MO_MV side table with a row 
+     * per child value, linked to the MO row by ROW_ID.
+     * 
+     * @since 1.3.1
+     */
+    public static final int MV_LONG = 1;
+    
+    /**
+     * Multi-valued parameters whose children are all 0 or 1 are written as 
+     * one integer column where bit N is the Nth child. Other multi-valued 
+     * parameters are written wide.
+     * 
+     * @since 1.3.1
+     */
+    public static final int MV_BITMASK = 2;
+    
+    /**
+     * Output of multi-valued parameters of SET and ADD lines.
+     * 
+     * @since 1.3.1
+     */
+    private int mvMode = MV_WIDE;
+    
+    /**
+     * Multi-valued parameters with a child value other than 0 or 1.
+     * 
+     * @since 1.3.1
+     */
+    private Set<String> nonBinaryMVParameters = new LinkedHashSet<String>();
+    
+    /**
+     * Last ROW_ID written to each output in long mode.
+     * 
+     * @since 1.3.1
+     */
+    private Map<String, long[]> rowIds = new LinkedHashMap<String, long[]>();
+    
+    /**
+     * Whether the rows of each MO have a ROW_ID in long mode.
+     * 
+     * @since 1.3.1
+     */
+    private Map<String, Boolean> mvMOs = new LinkedHashMap<String, Boolean>();
+    
+    /**
+     * Set the output of multi-valued parameters to wide, long or bitmask.
+     * 
+     * @since 1.3.1
+     */
+    public void setMVMode(String mode){
+        if(mode.equalsIgnoreCase("wide")){
+            mvMode = MV_WIDE;
+        }else if(mode.equalsIgnoreCase("long")){
+            mvMode = MV_LONG;
+        }else if(mode.equalsIgnoreCase("bitmask")){
+            mvMode = MV_BITMASK;
+        }else{
+            throw new IllegalArgumentException("Unknown multi-valued parameter mode: " + mode);
+        }
+    }
+    
+    public void setThreads(int threads){
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Set the output format to csv, ndjson or avro.
+     * 
+     * @since 1.3.1
+     */
+    public void setOutputFormat(String format){
+        output.setFormat(format);
+        outputFormat = output.getFormat();
+    }
+    
+    public void setWriterThreads(int writerThreads){
+        this.writerThreads = Math.max(0, writerThreads);
+        output.setWriterThreads(this.writerThreads);
+    }
+    
+    /**
+     * Write the rows of each MO to part files partitioned by export date and
+     * BSCID e.g. GCELL/date=20190501/bscid=100/part-00000.csv.
+     * 
+     * @since 1.3.1
+     * @param maxOpenFiles Number of part files kept open
+     */
+    public void setPartitioned(int maxOpenFiles){
+        partitionFiles = Math.max(1, maxOpenFiles);
+        output.setPartitioned(partitionFiles);
+    }
+    
+    /**
+     * Set the input charset. "auto" detects the charset of each file.
+     * 
+     * @since 1.3.1
+     * @param encoding Charset name or auto
+     */
+    public void setInputEncoding(String encoding){
+        if(encoding.equalsIgnoreCase("auto")){
+            detectInputCharset = true;
+            inputCharset = null;
+            return;
+        }
+        
+        inputCharset = Charset.forName(encoding);
+        if(!MMLFileReader.isAsciiCompatible(inputCharset)){
+            throw new IllegalArgumentException("Unsupported input encoding: " + encoding);
+        }
+        detectInputCharset = false;
+    }
+    
+    public static void main( String[] args )
+    {
+        
+       Options options = new Options();
+       CommandLine cmd = null;
+       String outputDirectory = null;   
+       String inputFile = null;
+       String parameterConfigFile = null;
+       Boolean onlyExtractParameters = false;
+       Boolean showHelpMessage = false;
+       Boolean showVersion = false;
+       Boolean attachMetaFields = false; //Attach mattachMetaFields FILENAME,DATETIME,NE_TECHNOLOGY,NE_VENDOR,NE_VERSION,NE_TYPE
+       Boolean resumeRun = false;
+       String checkpointInterval = null;
+       String inputEncoding = null;
+       Boolean mergeRows = false;
+       String mergeKeyFile = null;
+       String mergeMemory = null;
+       String diffBaseline = null;
+       String threadCount = null;
+       String extraVerbs = null;
+       Boolean materialise = false;
+       Boolean singlePass = false;
+       String mvMode = null;
+       String outputFormat = null;
+       String writerThreads = null;
+       Boolean resilient = false;
+       Boolean inventory = false;
+       String splitSize = null;
+       String prefetchDepth = null;
+       String prefetchMemory = null;
+       Boolean index = false;
+       String indexKeys = null;
+       Boolean partition = false;
+       Boolean collectStats = false;
+       Boolean inferTypes = false;
+       String partitionFiles = null;
+       String servePort = null;
+       Boolean rowHash = false;
+       String serveQueue = null;
+       String serveRoot = null;
+       
+       try{ 
+            options.addOption( "p", "extract-parameters", false, "extract only the managed objects and parameters" );
+            options.addOption( "v", "version", false, "display version" );
+//            options.addOption( "m", "meta-fields", false, "add meta fields to extracted parameters. FILENAME,DATETIME" );
+            options.addOption( Option.builder("i")
+                    .longOpt( "input-file" )
+                    .desc( "input file or directory name. - to read from stdin")
+                    .hasArg()
+                    .argName( "INPUT_FILE" ).build());
+            options.addOption(Option.builder("o")
+                    .longOpt( "output-directory" )
+                    .desc( "output directory name. - to write each line to stdout prefixed with the output name and a tab")
+                    .hasArg()
+                    .argName( "OUTPUT_DIRECTORY" ).build());
+            options.addOption(Option.builder("c")
+                    .longOpt( "parameter-config" )
+                    .desc( "parameter configuration file. MO and parameter names may use * and ? wildcards and ! to exclude")
+                    .hasArg()
+                    .argName( "PARAMETER_CONFIG" ).build() );
+            options.addOption(Option.builder()
+                    .longOpt( "resume" )
+                    .desc( "resume from the last checkpoint in the output directory")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "checkpoint-interval" )
+                    .desc( "number of lines between checkpoints. 0 to checkpoint only after each file")
+                    .hasArg()
+                    .argName( "LINES" ).build());
+            options.addOption(Option.builder("e")
+                    .longOpt( "encoding" )
+                    .desc( "input file encoding e.g. UTF-8, GBK. auto to detect it from each file. Default is the system encoding")
+                    .hasArg()
+                    .argName( "ENCODING" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "merge" )
+                    .desc( "keep only the row from the latest export for each MO instance of an NE")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "merge-keys" )
+                    .desc( "file with the identifying parameters of MOs used by --merge and --diff in the format MO:PARAM1,PARAM2")
+                    .hasArg()
+                    .argName( "MERGE_KEYS" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "merge-memory" )
+                    .desc( "memory in MB to use when merging or comparing. Larger files are partitioned on disk. Default is 256")
+                    .hasArg()
+                    .argName( "MB" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "diff" )
+                    .desc( "compare the input with this baseline file or directory and write the changes to CHANGES.csv")
+                    .hasArg()
+                    .argName( "BASELINE" ).build());
+            options.addOption(Option.builder("t")
+                    .longOpt( "threads" )
+                    .desc( "number of threads. Default is the number of processors")
+                    .hasArg()
+                    .argName( "THREADS" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "extra-verbs" )
+                    .desc( "comma separated list of other command verbs to extract to MO_VERB files e.g. RMV")
+                    .hasArg()
+                    .argName( "VERBS" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "materialise" )
+                    .desc( "apply ADD, SET, MOD, RMV, ACT, DEA, BLK and UBL commands in order and output the final state of each MO instance")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "single-pass" )
+                    .desc( "read the input once and write the rows with the final headers at the end")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "mv-mode" )
+                    .desc( "output of multi-valued parameters. wide for a column per child, long for a MO_MV table with a row per child or bitmask to pack 0/1 switches into one column. Default is wide")
+                    .hasArg()
+                    .argName( "MODE" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "format" )
+                    .desc( "output format. csv, ndjson for a JSON object per row or avro for Avro container files. Default is csv")
+                    .hasArg()
+                    .argName( "FORMAT" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "writer-threads" )
+                    .desc( "number of threads encoding and writing the outputs. Default is 0 to write on the parsing thread")
+                    .hasArg()
+                    .argName( "THREADS" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "resilient" )
+                    .desc( "write lines that fail to parse to " + REJECTS_OUTPUT + " and continue with the next command")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "inventory" )
+                    .desc( "write the header details and the number of commands per verb and MO of each file to INVENTORY without parsing the files")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "split-size" )
+                    .desc( "files larger than this many MB are split into ranges parsed by several threads. Default is 64")
+                    .hasArg()
+                    .argName( "MB" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "prefetch" )
+                    .desc( "number of files to read ahead while parsing a directory on one thread. 0 to disable. Default is 2")
+                    .hasArg()
+                    .argName( "FILES" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "prefetch-memory" )
+                    .desc( "memory in MB for the files read ahead. Default is 64")
+                    .hasArg()
+                    .argName( "MB" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "index" )
+                    .desc( "write an index of the row offsets by BSCID and FILENAME next to each csv output e.g. GCELL.csv.idx")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "index-keys" )
+                    .desc( "comma separated list of other parameters to index e.g. CELLID. Implies --index")
+                    .hasArg()
+                    .argName( "PARAMS" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "partition" )
+                    .desc( "write the rows of each MO to part files by export date and BSCID e.g. GCELL/date=20190501/bscid=100/part-00000.csv")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "partition-files" )
+                    .desc( "number of part files kept open with --partition. Default is 64")
+                    .hasArg()
+                    .argName( "FILES" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "stats" )
+                    .desc( "write the number of missing, empty and distinct values and the most frequent values of each parameter to " + PROFILE_OUTPUT)
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "typed" )
+                    .desc( "infer the type of each parameter, list the types in " + TYPES_OUTPUT + " and write numbers and enum values in ndjson and avro outputs")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "row-hash" )
+                    .desc( "add a " + RowHash.COLUMN + " column with a 64 bit hash of the parameter values of each row to find the rows that changed")
+                    .build());
+            options.addOption(Option.builder()
+                    .longOpt( "serve" )
+                    .desc( "parse the CFGMML files posted to http://127.0.0.1:PORT/parse and stream back the outputs as ndjson, or as a zip of csv files with ?format=zip. -t sets the number of requests parsed at a time")
+                    .hasArg()
+                    .argName( "PORT" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "serve-root" )
+                    .desc( "allow --serve requests to parse the files and directories under DIR with ?path=")
+                    .hasArg()
+                    .argName( "DIR" ).build());
+            options.addOption(Option.builder()
+                    .longOpt( "serve-queue" )
+                    .desc( "number of requests waiting to be parsed with --serve. Default is 16")
+                    .hasArg()
+                    .argName( "REQUESTS" ).build());
+            options.addOption( "h", "help", false, "show help" );
+            
+            //Parse command line arguments
+            CommandLineParser parser = new DefaultParser();
+            cmd = parser.parse( options, args);
+
+            if( cmd.hasOption("h")){
+                showHelpMessage = true;
+            }
+
+            if( cmd.hasOption("v")){
+                showVersion = true;
+            }
+            
+            if(cmd.hasOption('o')){
+                outputDirectory = cmd.getOptionValue("o"); 
+            }
+            
+            if(cmd.hasOption('i')){
+                inputFile = cmd.getOptionValue("i"); 
+            }
+            
+            if(cmd.hasOption('c')){
+                parameterConfigFile = cmd.getOptionValue("c"); 
+            }
+            
+            if(cmd.hasOption('p')){
+                onlyExtractParameters  = true;
+            }
+            
+            if(cmd.hasOption('m')){
+                attachMetaFields  = true;
+            }
+            
+            if(cmd.hasOption("resume")){
+                resumeRun  = true;
+            }
+            
+            if(cmd.hasOption("checkpoint-interval")){
+                checkpointInterval = cmd.getOptionValue("checkpoint-interval"); 
+            }
+            
+            if(cmd.hasOption('e')){
+                inputEncoding = cmd.getOptionValue("e"); 
+            }
+            
+            if(cmd.hasOption("merge")){
+                mergeRows = true; 
+            }
+            
+            if(cmd.hasOption("merge-keys")){
+                mergeKeyFile = cmd.getOptionValue("merge-keys"); 
+            }
+            
+            if(cmd.hasOption("merge-memory")){
+                mergeMemory = cmd.getOptionValue("merge-memory"); 
+            }
+            
+            if(cmd.hasOption("diff")){
+                diffBaseline = cmd.getOptionValue("diff"); 
+            }
+            
+            if(cmd.hasOption('t')){
+                threadCount = cmd.getOptionValue("t"); 
+            }
+            
+            if(cmd.hasOption("extra-verbs")){
+                extraVerbs = cmd.getOptionValue("extra-verbs"); 
+            }
+            
+            if(cmd.hasOption("materialise")){
+                materialise = true; 
+            }
+            
+            if(cmd.hasOption("single-pass")){
+                singlePass = true; 
+            }
+            
+            if(cmd.hasOption("mv-mode")){
+                mvMode = cmd.getOptionValue("mv-mode"); 
+            }
+            
+            if(cmd.hasOption("format")){
+                outputFormat = cmd.getOptionValue("format"); 
+            }
+            
+            if(cmd.hasOption("writer-threads")){
+                writerThreads = cmd.getOptionValue("writer-threads"); 
+            }
+            
+            if(cmd.hasOption("resilient")){
+                resilient = true; 
+            }
+            
+            if(cmd.hasOption("inventory")){
+                inventory = true; 
+            }
+            
+            if(cmd.hasOption("split-size")){
+                splitSize = cmd.getOptionValue("split-size"); 
+            }
+            
+            if(cmd.hasOption("prefetch")){
+                prefetchDepth = cmd.getOptionValue("prefetch"); 
+            }
+            
+            if(cmd.hasOption("prefetch-memory")){
+                prefetchMemory = cmd.getOptionValue("prefetch-memory"); 
+            }
+            
+            if(cmd.hasOption("index")){
+                index = true; 
+            }
+            
+            if(cmd.hasOption("index-keys")){
+                indexKeys = cmd.getOptionValue("index-keys"); 
+            }
+            
+            if(cmd.hasOption("partition")){
+                partition = true; 
+            }
+            
+            if(cmd.hasOption("stats")){
+                collectStats = true; 
+            }
+            
+            if(cmd.hasOption("typed")){
+                inferTypes = true; 
+            }
+            
+            if(cmd.hasOption("row-hash")){
+                rowHash = true; 
+            }
+            
+            if(cmd.hasOption("serve")){
+                servePort = cmd.getOptionValue("serve"); 
+            }
+            
+            if(cmd.hasOption("serve-queue")){
+                serveQueue = cmd.getOptionValue("serve-queue"); 
+            }
+            
+            if(cmd.hasOption("serve-root")){
+                serveRoot = cmd.getOptionValue("serve-root"); 
+            }
+            
+            if(cmd.hasOption("partition-files")){
+                partitionFiles = cmd.getOptionValue("partition-files"); 
+            }
+            
+       }catch(IllegalArgumentException e){
+           
+       } catch (ParseException ex) {
+//            java.util.logging.Logger.getLogger(HuaweiCMObjectParser.class.getName()).log(Level.SEVERE, null, ex);
+        }
+       
+       
+        try{
+            
+            if(showVersion == true ){
+                System.out.println(VERSION);
+                System.out.println("Copyright (c) 2019 Bodastage Solutions(http://www.bodastage.com)");
+                System.exit(0);
+            }
+            
+            //show help
+            if( showHelpMessage == true || ( servePort == null && (
+                inputFile == null || 
+                ( outputDirectory == null && onlyExtractParameters == false) ) ) ){
+                     HelpFormatter formatter = new HelpFormatter();
+                     String header = "Parses Huawei CFGMML files to csv\n\n";
+                     String footer = "\n";
+                     footer += "Examples: \n";
+                     footer += "java -jar boda-huaweimmlparser.jar -i cfgmml_dump.txt -o out_folder\n";
+                     footer += "java -jar boda-huaweimmlparser.jar -i input_folder -o out_folder\n";
+                     footer += "ssh bsc cat cfgmml_dump.txt | java -jar boda-huaweimmlparser.jar -i - -o - | loader\n";
+                     footer += "java -jar boda-huaweimmlparser.jar --serve 8080 -t 4\n";
+                     footer += "\nCopyright (c) 2019 Bodastage Solutions(http://www.bodastage.com)";
+                     formatter.printHelp( "java -jar boda-huaweimmlparser.jar", header, options, footer );
+                     System.exit(0);
+            }
+        
+            //Confirm that the output directory is a directory and has write 
+            //privileges
+            if(outputDirectory != null && !outputDirectory.equals("-") ){
+                File fOutputDir = new File(outputDirectory);
+                if (!fOutputDir.isDirectory()) {
+                    System.err.println("ERROR: The specified output directory is not a directory!.");
+                    System.exit(1);
+                }
+
+                if (!fOutputDir.canWrite()) {
+                    System.err.println("ERROR: Cannot write to output directory!");
+                    System.exit(1);
+                }
+            }
+            
+            //Confirm that the output directory is a directory and has write 
+            //privileges
+            if(outputDirectory != null && !outputDirectory.equals("-") ){
+                File fOutputDir = new File(outputDirectory);
+                if (!fOutputDir.isDirectory()) {
+                    System.err.println("ERROR: The specified output directory is not a directory!.");
+                    System.exit(1);
+                }
+
+                if (!fOutputDir.canWrite()) {
+                    System.err.println("ERROR: Cannot write to output directory!");
+                    System.exit(1);
+                }
+            }
+            
+
+            //Get parser instance
+            HuaweiMMLParser cmParser = new HuaweiMMLParser();
+
+
+            if(onlyExtractParameters == true ){
+                cmParser.setExtractParametersOnly(true);
+            }
+            
+            if( attachMetaFields == true ){
+                cmParser.setExtractMetaFields(true);
+            }
+            
+            if( resumeRun == true ){
+                cmParser.setResume(true);
+            }
+            
+            if( checkpointInterval != null ){
+                cmParser.setCheckpointInterval(Long.parseLong(checkpointInterval));
+            }
+            
+            if( inputEncoding != null ){
+                cmParser.setInputEncoding(inputEncoding);
+            }
+            
+            if( mergeRows == true ){
+                cmParser.setMergeRows(true);
+            }
+            
+            if( mergeKeyFile != null ){
+                cmParser.setMergeKeyFile(mergeKeyFile);
+            }
+            
+            if( mergeMemory != null ){
+                cmParser.setMergeMemoryLimit(Long.parseLong(mergeMemory) * 1024 * 1024);
+            }
+            
+            if( threadCount != null ){
+                cmParser.setThreads(Integer.parseInt(threadCount));
+            }
+            
+            if( materialise == true ){
+                cmParser.setMaterialise(true);
+            }
+            
+            if( singlePass == true ){
+                cmParser.setSinglePass(true);
+            }
+            
+            if( mvMode != null ){
+                cmParser.setMVMode(mvMode);
+            }
+            
+            if( writerThreads != null ){
+                cmParser.setWriterThreads(Integer.parseInt(writerThreads));
+            }
+            
+            if( resilient == true ){
+                cmParser.setResilient(true);
+            }
+            
+            if( splitSize != null ){
+                cmParser.setSplitSize((long)(Double.parseDouble(splitSize) * 1024 * 1024));
+            }
+            
+            if( prefetchDepth != null || prefetchMemory != null ){
+                cmParser.setPrefetch(prefetchDepth == null ? 2 : Integer.parseInt(prefetchDepth), 
+                        (prefetchMemory == null ? 64 : Long.parseLong(prefetchMemory)) * 1024 * 1024);
+            }
+            
+            if( collectStats == true ){
+                cmParser.setCollectStats(true);
+            }
+            
+            if( inferTypes == true ){
+                cmParser.setInferTypes(true);
+            }
+            
+            if( rowHash == true ){
+                cmParser.setRowHash(true);
+            }
+            
+            if( index == true || indexKeys != null ){
+                cmParser.setIndexKeys(indexKeys == null ? new String[0] : indexKeys.split(","));
+            }
+            
+            if( extraVerbs != null ){
+                String [] verbs = extraVerbs.split(",");
+                for(int i = 0; i < verbs.length; i++){
+                    cmParser.registerVerbHandler(verbs[i].trim(), VERB_LINE_HANDLER);
+                }
+            }
+            
+            if(  parameterConfigFile != null ){
+                File f = new File(parameterConfigFile);
+                if(f.isFile()){
+                    cmParser.setParameterFile(parameterConfigFile);
+                    cmParser.getParametersToExtract(parameterConfigFile);
+                }
+            }
+            
+            
+            //The settings above are used for each request
+            if( servePort != null ){
+                ParserServer server = new ParserServer(cmParser, Integer.parseInt(servePort),
+                        threadCount == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threadCount),
+                        serveQueue == null ? 16 : Integer.parseInt(serveQueue));
+                if(serveRoot != null) server.setRoot(new File(serveRoot));
+                server.start();
+                System.out.println("Parsing requests on http://127.0.0.1:" + server.getPort() + "/parse");
+                return;
+            }
+            
+            cmParser.setDataSource(inputFile);
+            if(outputDirectory != null ) cmParser.setOutputDirectory(outputDirectory);
+
+            cmParser.setOutputDirectory(outputDirectory);
+            
+            //Keep stdout for the data and print the progress to stderr
+            if( "-".equals(outputDirectory) ){
+                PrintStream data = System.out;
+                System.setOut(System.err);
+                cmParser.setOutputStream(data);
+            }
+            
+            if( outputFormat != null ){
+                cmParser.setOutputFormat(outputFormat);
+            }
+            
+            if( partition == true ){
+                cmParser.setPartitioned(partitionFiles == null ? 64 : Integer.parseInt(partitionFiles));
+            }
+            
+            if( inventory == true ){
+                cmParser.inventory();
+            }else if( diffBaseline != null ){
+                cmParser.diff(diffBaseline);
+            }else{
+                cmParser.parse();
+            }
+            cmParser.printErrorSummary();
+            cmParser.printExecutionTime();
+            
+        }catch(Exception e){
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+
+    }
+    
+    
+    /**
+     * The file/directory to be parsed.
+     *
+     * @since 1.1.0
+     */
+    private String dataSource;
+    
+    /**
+     * Parser states. Currently there are only 2: extraction and parsing
+     * 
+     * @since 1.1.0
+     * @version 1.0.0
+     */
+    private int parserState = ParserStates.EXTRACTING_PARAMETERS;
+    
+    private LinkedHashMap<String,String> attrValueMap = new LinkedHashMap<String,String>();
+    
+    
+    /**
+     * File with a list of managed objects and parameters to extract.
+     * 
+     */
+    private String parameterFile = null;
+    
+    /**
+     * Parameter configuration with wildcards or exclusions. The matching 
+     * parameters are collected in the first pass. 
+     * 
+     * @since 1.3.1
+     */
+    private ParameterSelector parameterSelector = null;
     
     /**
      * The parser's entry point.
      * 
-     * @param filename 
+     * @param filename 
+     */
+    public void parseFile( String inputFilename ) throws FileNotFoundException, IOException{
+
+            MMLFileReader br = openReader(this.dataFile);
+            
+            //Continue from the checkpointed offset
+            if(resumeFile != null && resumeFile.equals(this.dataFile)){
+                br.seek(resumeFileOffset);
+                resumeFile = null;
+            }
+            
+            resyncing = false;
+            
+            try{
+                long linesSinceCheckpoint = 0;
+                for(String line; (line = br.readCommand()) != null; ) {
+                    if(resilient == true){
+                        processLineOrReject(line, br.getCommandOffset());
+                    }else{
+                        processLine(line);
+                    }
+                    
+                    if(checkpointInterval > 0 && ++linesSinceCheckpoint >= checkpointInterval){
+                        writeCheckpoint(this.dataFile, br.getPosition());
+                        linesSinceCheckpoint = 0;
+                    }
+                }
+            }finally{
+                br.close();
+            }
+    }
+       
+    /**
+     * Open a file or stdin for - with the input charset.
+     * 
+     * @since 1.3.1
+     * @param filename
+     */
+    private MMLFileReader openReader(String filename) throws IOException{
+        Charset charset = inputCharset != null ? inputCharset : Charset.defaultCharset();
+        
+        //Files read ahead continue from the prefetched data
+        InputStream in = prefetcher == null ? null : prefetcher.open(filename);
+        if(filename.equals("-")){
+            in = new BufferedInputStream(System.in, MMLFileReader.BUFFER_SIZE);
+        }
+        
+        if(in != null){
+            if(detectInputCharset == true){
+                if(!in.markSupported()) in = new BufferedInputStream(in, MMLFileReader.BUFFER_SIZE);
+                charset = MMLFileReader.detectCharset(in, charset);
+            }
+            return new MMLFileReader(in, charset);
+        }
+        
+        if(detectInputCharset == true){
+            charset = MMLFileReader.detectCharset(filename, charset);
+        }
+        return new MMLFileReader(filename, charset);
+    }
+    
+    /**
+     * Write an inventory of the input to INVENTORY without parsing it. For 
+     * each file the header block is read and the commands are counted by 
+     * verb and MO with a byte scan. Files are scanned in parallel.
+     * 
+     * @since 1.3.1
+     */
+    public void inventory() throws IOException{
+        List<String> files = new ArrayList<String>();
+        if(dataSource.equals("-") || new File(dataSource).isFile()){
+            files.add(dataSource);
+        }else{
+            File[] fList = new File(dataSource).listFiles();
+            if(fList == null) throw new IOException("Can not read " + dataSource);
+            Arrays.sort(fList);
+            for(File f : fList){
+                if(f.isFile()) files.add(f.getPath());
+            }
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<HuaweiMMLParser>> scans = new ArrayList<Future<HuaweiMMLParser>>();
+        PrintWriter pw = output.open("INVENTORY", false);
+        try{
+            for(final String filename : files){
+                scans.add(executor.submit(new Callable<HuaweiMMLParser>() {
+                    public HuaweiMMLParser call() throws Exception {
+                        HuaweiMMLParser parser = newWorkerParser();
+                        parser.baseFileName = filename.equals("-") ? "stdin" : getFileBasename(filename);
+                        parser.commandCounter = new CommandCounter();
+                        
+                        List<String> headerLines = new ArrayList<String>();
+                        MMLFileReader reader = parser.openReader(filename);
+                        try{
+                            reader.countCommands(parser.commandCounter, headerLines);
+                        }finally{
+                            reader.close();
+                        }
+                        for(String line : headerLines) parser.processHeaderLine(line);
+                        return parser;
+                    }
+                }));
+            }
+            
+            pw.println(getMetaHeader() + ",VERB,MO,COUNT");
+            long total = 0;
+            for(int i = 0; i < files.size(); i++){
+                HuaweiMMLParser scan;
+                try{
+                    scan = scans.get(i).get();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }catch(ExecutionException e){
+                    System.out.println("Skipping file: " + files.get(i) + ". " + e.getCause().getMessage());
+                    continue;
+                }
+                
+                String meta = scan.getMetaValues();
+                Iterator<Map.Entry<String, Long>> iter = scan.commandCounter.getCounts().entrySet().iterator();
+                while(iter.hasNext()){
+                    Map.Entry<String, Long> me = iter.next();
+                    String [] verbAndMO = me.getKey().split(" ");
+                    pw.println(meta + "," + verbAndMO[0] + "," + verbAndMO[1] + "," + me.getValue());
+                }
+                
+                long count = scan.commandCounter.getTotal();
+                total += count;
+                System.out.println(scan.baseFileName + ": BSCID " + scan.bscId + ", BAM version " 
+                        + scan.version + ", exported " + scan.dateTime + ", " + count + " command(s)");
+            }
+            System.out.println(files.size() + " file(s), " + total + " command(s).");
+        }finally{
+            executor.shutdownNow();
+            pw.close();
+            output.close();
+        }
+    }
+    
+    /**
+     * Set parameter file 
+     * 
+     * @param filename 
+     */
+    public void setParameterFile(String filename){
+        parameterFile = filename;
+    }
+    
+    
+ /**
+     * Extract parameter list from  parameter file
+     * 
+     * @param filename 
+     */
+    public  void getParametersToExtract(String filename) throws FileNotFoundException, IOException{
+        ParameterSelector selector = new ParameterSelector();
+        selector.load(filename);
+        if(selector.hasPatterns()){
+            //The parameters matching the patterns are collected in the first pass
+            parameterSelector = selector;
+            parameterFile = null;
+            return;
+        }
+        
+        BufferedReader br = new BufferedReader(new FileReader(filename));
+        for(String line; (line = br.readLine()) != null; ) {
+           String [] moAndParameters =  line.split(":");
+           String mo = moAndParameters[0];
+           String [] parameters = moAndParameters[1].split(",");
+           
+           Stack parameterStack = new Stack();
+           for(int i =0; i < parameters.length; i++){
+               parameterStack.push(parameters[i]);
+           }
+           
+           classNameAttrsMap.put(mo, parameterStack);
+           
+           //MO_VERB entries e.g. GCELL_ACT
+           int sep = mo.lastIndexOf('_');
+           if(sep > 0){
+               String verb = mo.substring(sep + 1);
+               int verbIndex = verbRegistry.indexOf(verb, verb.length());
+               if(verbIndex >= 0 && verbRegistry.getHandler(verbIndex) != MO_LINE_HANDLER){
+                   verbClassNameAttrsMaps.get(verbIndex).put(mo.substring(0, sep), parameterStack);
+               }
+           }
+
+        }
+        
+        //Move to the parameter value extraction stage
+        parserState = ParserStates.EXTRACTING_VALUES;
+    }
+    
+    
+    /**
+     * Parser entry point 
+     * 
+     * @throws XMLStreamException
+     * @throws FileNotFoundException
+     * @throws UnsupportedEncodingException 
+     * 
+     * @since 1.1.1
+     */
+    public void parse() throws IOException {
+        if(mergeRows == true && output.isStream()){
+            throw new IllegalArgumentException("--merge needs an output directory");
+        }
+        
+        if(mergeRows == true && !outputFormat.equals(OutputTarget.CSV)){
+            throw new IllegalArgumentException("--merge needs csv output");
+        }
+        
+        if(indexColumns != null && (output.isStream() || !outputFormat.equals(OutputTarget.CSV))){
+            throw new IllegalArgumentException("--index needs csv output files");
+        }
+        
+        if(output.isPartitioned() && (mergeRows == true || indexColumns != null)){
+            throw new IllegalArgumentException("--merge and --index can not be used with --partition");
+        }
+        
+        if(stats != null && moStore != null){
+            throw new IllegalArgumentException("--stats can not be used with --materialise");
+        }
+        
+        //The statistics of the files parsed before a checkpoint are not saved
+        if(stats != null && resume == true){
+            throw new IllegalArgumentException("--stats can not be used with --resume");
+        }
+        
+        if(columnTypes != null && moStore != null){
+            throw new IllegalArgumentException("--typed can not be used with --materialise");
+        }
+        
+        if(rowHash == true && moStore != null){
+            throw new IllegalArgumentException("--row-hash can not be used with --materialise");
+        }
+        output.setColumnTypes(columnTypes);
+        
+        //The commands are applied in a single pass
+        if(moStore != null){
+            parserState = ParserStates.EXTRACTING_VALUES;
+            processFileOrDirectory();
+            parserState = ParserStates.EXTRACTING_DONE;
+            
+            if(moStore.getUnmatchedCount() > 0){
+                System.out.println("Skipped " + moStore.getUnmatchedCount() 
+                        + " commands matching no MO instance.");
+            }
+            System.out.print("Writing " + moStore.getInstanceCount() + " MO instances...");
+            moStore.write(output, getMetaHeader());
+            closeMOPWMap();
+            output.close();
+            System.out.println("Done.");
+            return;
+        }
+        
+        if(singlePass == true){
+            parseSinglePass();
+        }
+        
+        if(resume == true && singlePass == false){
+            restoreCheckpoint();
+        }
+        
+        //Extract parameters
+        if (parserState == ParserStates.EXTRACTING_PARAMETERS) {
+            processFileOrDirectory();
+
+            parserState = ParserStates.EXTRACTING_VALUES;
+            
+            //Reset line count
+            lineNumber = 0;
+            completedFiles.clear();
+            writeCheckpoint(null, 0);
+        }
+                
+        //Extracting values
+        if (parserState == ParserStates.EXTRACTING_VALUES) {
+            processFileOrDirectory();
+            parserState = ParserStates.EXTRACTING_DONE;
+        }
+        
+        List<String> outputs = new ArrayList<String>(moiPrintWriters.keySet());
+        for(String name : partOutputs){
+            if(!outputs.contains(name)) outputs.add(name);
+        }
+        closeMOPWMap();
+        
+        if(mvMode == MV_BITMASK){
+            writeBitmaskLegend(outputs);
+        }
+        if(stats != null){
+            PrintWriter pw = output.open(PROFILE_OUTPUT, false);
+            try{
+                stats.write(pw);
+            }finally{
+                pw.close();
+            }
+        }
+        if(columnTypes != null){
+            PrintWriter pw = output.open(TYPES_OUTPUT, false);
+            try{
+                columnTypes.write(pw);
+            }finally{
+                pw.close();
+            }
+        }
+        output.close();
+        
+        if(mergeRows == true){
+            mergeOutputs(outputs);
+        }
+        
+        if(indexColumns != null){
+            indexOutputs(outputs);
+        }
+        
+        //The run completed so there is nothing to resume
+        File checkpoint = getCheckpointFile();
+        if(checkpoint != null ) checkpoint.delete();
+    }
+    
+    /**
+     * Collect the parameters and spool the rows in one pass over the input, 
+     * then write the spooled rows with the final headers. 
+     * 
+     * @since 1.3.1
+     */
+    private void parseSinglePass() throws IOException{
+        rowSpool = new RowSpool(outputDirectory == null 
+                ? File.createTempFile("boda-huaweimmlparser", ".spool")
+                : new File(outputDirectory, ".spool"));
+        parserState = ParserStates.EXTRACTING_PARAMETERS;
+        try{
+            processFileOrDirectory();
+        }catch(IOException e){
+            rowSpool.close();
+            rowSpool = null;
+            throw e;
+        }
+        
+        RowSpool spool = rowSpool;
+        rowSpool = null;
+        parserState = ParserStates.EXTRACTING_VALUES;
+        
+        System.out.print("Writing " + spool.getRowCount() + " rows...");
+        replaySpool(spool);
+        System.out.println("Done.");
+        
+        parserState = ParserStates.EXTRACTING_DONE;
+    }
+    
+    /**
+     * Write the spooled rows with the current schema.
+     * 
+     * @since 1.3.1
+     */
+    private void replaySpool(RowSpool spool) throws IOException{
+        spool.replay(new RowSpool.RowVisitor(){
+            public void visit(RowSpool.Layout layout, String meta, String[] values) throws IOException{
+                attrValueMap.clear();
+                for(int i = 0; i < values.length; i++){
+                    attrValueMap.put(layout.names[i], values[i]);
+                }
+                
+                if(verbRegistry.getHandler(layout.verbIndex) == MO_LINE_HANDLER){
+                    writeMORow(layout.moName, meta);
+                }else{
+                    writeVerbRow(layout.moName, layout.verb, layout.verbIndex, meta);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Compare the data source with a baseline and write the added, removed 
+     * and changed MO instances and parameter values to CHANGES.csv in the 
+     * output directory. 
+     * 
+     * Both inputs are parsed to temporary directories in the output 
+     * directory which are removed afterwards.
+     * 
+     * @since 1.3.1
+     * @param baselineSource Baseline file or directory
+     */
+    public void diff(String baselineSource) throws IOException{
+        File workDirectory = outputDirectory == null 
+                ? Files.createTempDirectory("boda-huaweimmlparser").toFile()
+                : new File(outputDirectory);
+        File oldDirectory = new File(workDirectory, ".diff-baseline");
+        File newDirectory = new File(workDirectory, ".diff-current");
+        
+        try{
+            System.out.println("Parsing baseline " + baselineSource);
+            newDiffParser(baselineSource, oldDirectory).parse();
+
+            System.out.println("Parsing " + this.dataSource);
+            newDiffParser(this.dataSource, newDirectory).parse();
+
+            System.out.print("Comparing...");
+            MODiff moDiff = new MODiff();
+            moDiff.setKeyColumns(moKeyColumns);
+            moDiff.setMemoryLimit(mergeMemoryLimit);
+            PrintWriter pw = output.open("CHANGES", false);
+            try{
+                moDiff.diff(oldDirectory, newDirectory, pw);
+            }finally{
+                pw.close();
+                output.close();
+            }
+            System.out.println("Done. " + moDiff.getAddedCount() + " added, " 
+                    + moDiff.getRemovedCount() + " removed, " 
+                    + moDiff.getChangedCount() + " changed parameter value(s).");
+        }finally{
+            deleteDirectory(oldDirectory);
+            deleteDirectory(newDirectory);
+            if(outputDirectory == null) workDirectory.delete();
+        }
+    }
+    
+    /**
+     * Returns a parser with the same settings as this one for one side of a 
+     * diff.
+     */
+    private HuaweiMMLParser newDiffParser(String source, File directory) throws IOException{
+        directory.mkdirs();
+        
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(source);
+        parser.setOutputDirectory(directory.getPath());
+        parser.inputCharset = inputCharset;
+        parser.detectInputCharset = detectInputCharset;
+        parser.checkpointInterval = 0;
+        parser.threads = threads;
+        parser.singlePass = singlePass;
+        
+        if(parameterSelector != null){
+            parser.parameterSelector = parameterSelector.copy();
+        }
+        
+        if(parameterFile != null){
+            parser.setParameterFile(parameterFile);
+            parser.getParametersToExtract(parameterFile);
+        }
+        
+        return parser;
+    }
+    
+    /**
+     * Returns a parser with the same settings as this one for a request of
+     * the parsing service. Requests are parsed in parallel so each one uses
+     * a single thread.
+     * 
+     * @since 1.3.1
+     */
+    HuaweiMMLParser newServiceParser() throws IOException{
+        HuaweiMMLParser parser = newWorkerParser();
+        parser.threads = 1;
+        parser.singlePass = singlePass;
+        parser.mvMode = mvMode;
+        parser.rowHash = rowHash;
+        if(stats != null) parser.stats = new ParameterStats();
+        
+        if(parameterFile != null){
+            parser.setParameterFile(parameterFile);
+            parser.getParametersToExtract(parameterFile);
+        }
+        
+        return parser;
+    }
+    
+    private void deleteDirectory(File directory){
+        File [] files = directory.listFiles();
+        if(files == null) return;
+        for(File f : files){
+            if(f.isDirectory()) deleteDirectory(f);
+            f.delete();
+        }
+        directory.delete();
+    }
+    
+    /**
+     * Deduplicate the rows of each MO output across the parsed dumps.
+     * 
+     * @since 1.3.1
+     * @param outputs Output names
+     */
+    private void mergeOutputs(List<String> outputs) throws IOException{
+        for(String name : outputs){
+            //Side tables of multi-valued parameters have no MO identifiers
+            if(mvMode == MV_LONG && name.endsWith("_MV")) continue;
+            if(name.equals(REJECTS_OUTPUT)) continue;
+            
+            File moiFile = new File(outputDirectory, name + ".csv");
+            System.out.print("Merging " + moiFile.getName() + "...");
+            long removed = merger.merge(name, moiFile);
+            System.out.println("Done. " + removed + " duplicate row(s) removed.");
+        }
+    }
+    
+    /**
+     * Write the row index of each output. 
+     * 
+     * @since 1.3.1
+     * @param outputs Output names
      */
-    public void parseFile( String inputFilename ) throws FileNotFoundException, IOException{
+    private void indexOutputs(List<String> outputs) throws IOException{
+        String [] columns = indexColumns.toArray(new String[indexColumns.size()]);
+        System.out.print("Indexing " + outputs.size() + " output(s)...");
+        for(String name : outputs){
+            if(name.equals(REJECTS_OUTPUT)) continue;
+            
+            File moiFile = new File(outputDirectory, name + ".csv");
+            MOIndex index = MOIndex.build(moiFile, columns);
+            
+            //Side tables have none of the columns
+            if(index.getColumns().isEmpty()) continue;
+            index.save(MOIndex.getIndexFile(moiFile));
+        }
+        System.out.println("Done.");
+    }
+    
+    /**
+     * Returns the checkpoint file or null when there is no output directory.
+     * Only csv outputs in single files can be resumed.
+     * 
+     * @since 1.3.1
+     */
+    private File getCheckpointFile(){
+        if(outputDirectory == null || !outputFormat.equals(OutputTarget.CSV) 
+                || output.isPartitioned() ) return null;
+        return new File(outputDirectory, ParserCheckpoint.FILE_NAME);
+    }
+    
+    /**
+     * Save the parser progress. The csv print writers are flushed first so 
+     * that the recorded output sizes only cover complete rows.
+     * 
+     * @since 1.3.1
+     * @param currentFile File being parsed or null between files
+     * @param currentFileOffset Byte offset of the next line in currentFile
+     */
+    private void writeCheckpoint(String currentFile, long currentFileOffset) throws IOException{
+        File checkpointFile = getCheckpointFile();
+        
+        //The MO store and the row spool are not saved in checkpoints
+        if(checkpointFile == null || moStore != null || singlePass == true ) return;
+        
+        ParserCheckpoint cp = new ParserCheckpoint();
+        cp.parserState = parserState;
+        cp.lineNumber = lineNumber;
+        cp.completedFiles.addAll(completedFiles);
+        cp.currentFile = currentFile;
+        cp.currentFileOffset = currentFileOffset;
+        
+        cp.headerValues.put("dateTime", dateTime);
+        cp.headerValues.put("bscId", bscId);
+        cp.headerValues.put("MbscMode", MbscMode);
+        cp.headerValues.put("version", version);
+        cp.headerValues.put("IP", IP);
+        
+        Iterator<Map.Entry<String, PrintWriter>> iter
+                = moiPrintWriters.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, PrintWriter> me = iter.next();
+            me.getValue().flush();
+            File moiFile = new File(outputDirectory, me.getKey() + ".csv");
+            cp.outputOffsets.put(me.getKey(), moiFile.length());
+        }
+        for(String name : partOutputs){
+            cp.outputOffsets.put(name, new File(outputDirectory, name + ".csv").length());
+        }
+        
+        cp.putSchemaMap("classNameAttrsMap", classNameAttrsMap);
+        cp.putSchemaMap("parameterChildMap", parameterChildMap);
+        
+        Map<String, Stack<String>> nonBinary = new LinkedHashMap<String, Stack<String>>();
+        for(String mvParameter : nonBinaryMVParameters) nonBinary.put(mvParameter, null);
+        cp.schema.put("nonBinaryMVParameters", nonBinary);
+        if(columnTypes != null) cp.schema.put("columnTypes", columnTypes.toSchemaMap());
+        for(int i = 0; i < verbRegistry.size(); i++){
+            if(verbClassNameAttrsMaps.get(i) == classNameAttrsMap) continue;
+            cp.putSchemaMap("verb" + verbRegistry.getVerb(i), verbClassNameAttrsMaps.get(i));
+        }
+        
+        cp.save(checkpointFile);
+    }
+    
+    /**
+     * Restore the parser progress from the checkpoint in the output directory.
+     * Outputs are truncated to their checkpointed sizes and re-opened for 
+     * appending so rows written after the checkpoint are not duplicated.
+     * 
+     * @since 1.3.1
+     */
+    private void restoreCheckpoint() throws IOException{
+        File checkpointFile = getCheckpointFile();
+        if(checkpointFile == null || !checkpointFile.isFile()){
+            System.out.println("No checkpoint found. Starting from the beginning.");
+            return;
+        }
+        
+        ParserCheckpoint cp = ParserCheckpoint.load(checkpointFile);
+        
+        parserState = cp.parserState;
+        lineNumber = cp.lineNumber;
+        completedFiles.addAll(cp.completedFiles);
+        resumeFile = cp.currentFile;
+        resumeFileOffset = cp.currentFileOffset;
+        
+        dateTime = cp.headerValues.get("dateTime");
+        bscId = cp.headerValues.get("bscId");
+        MbscMode = cp.headerValues.get("MbscMode");
+        version = cp.headerValues.get("version");
+        IP = cp.headerValues.get("IP");
+        
+        restoreSchemaMap(classNameAttrsMap, cp.getSchemaMap("classNameAttrsMap"));
+        restoreSchemaMap(parameterChildMap, cp.getSchemaMap("parameterChildMap"));
+        if(cp.schema.containsKey("nonBinaryMVParameters")){
+            nonBinaryMVParameters.addAll(cp.schema.get("nonBinaryMVParameters").keySet());
+        }
+        if(columnTypes != null) columnTypes.restore(cp.schema.get("columnTypes"));
+        for(int i = 0; i < verbRegistry.size(); i++){
+            if(verbClassNameAttrsMaps.get(i) == classNameAttrsMap) continue;
+            restoreSchemaMap(verbClassNameAttrsMaps.get(i), 
+                    cp.getSchemaMap("verb" + verbRegistry.getVerb(i)));
+        }
+        
+        Iterator<Map.Entry<String, Long>> iter 
+                = cp.outputOffsets.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, Long> me = iter.next();
+            File moiFile = new File(outputDirectory, me.getKey() + ".csv");
+            
+            RandomAccessFile raf = new RandomAccessFile(moiFile, "rw");
+            try{
+                raf.setLength(me.getValue());
+            }finally{
+                raf.close();
+            }
+            
+            moiPrintWriters.put(me.getKey(), output.open(me.getKey(), true));
+            
+            //Continue the ROW_IDs after the restored rows
+            if(mvMode == MV_LONG){
+                rowIds.put(me.getKey(), new long[]{ countLines(moiFile) - 1 });
+            }
+        }
+        
+        System.out.println("Resuming from checkpoint. " + completedFiles.size() 
+                + " file(s) already processed.");
+    }
+    
+    private static long countLines(File file) throws IOException{
+        long lines = 0;
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try{
+            for(int b; (b = in.read()) != -1; ){
+                if(b == '\n') lines++;
+            }
+        }finally{
+            in.close();
+        }
+        return lines;
+    }
+    
+    private void restoreSchemaMap(Map<String, Stack> map, Map<String, Stack> saved){
+        if(saved == null) return;
+        map.clear();
+        map.putAll(saved);
+    }
+    
+    /**
+     * Determines if the source data file is a regular file or a directory and 
+     * parses it accordingly
+     * 
+     * @since 1.1.0
+     * @version 1.0.0
+     * @throws XMLStreamException
+     * @throws FileNotFoundException
+     * @throws UnsupportedEncodingException
+     */
+    public void processFileOrDirectory() throws IOException {
+        //logger.info("processFileOrDirectory");
+        //this.dataFILe;
+        
+        //Read from stdin
+        if(this.dataSource.equals("-")){
+            this.setFileName("-");
+            baseFileName = "stdin";
+            System.out.print("Parsing stdin...");
+            this.parseFile(this.dataSource);
+            System.out.println("Done.");
+            return;
+        }
+        
+        Path file = Paths.get(this.dataSource);
+        boolean isRegularExecutableFile = Files.isRegularFile(file)
+                & Files.isReadable(file);
+
+        boolean isReadableDirectory = Files.isDirectory(file)
+                & Files.isReadable(file);
+
+        if (isRegularExecutableFile) {
+            this.setFileName(this.dataSource);
+            baseFileName =  getFileBasename(this.dataFile);
+            
+            if(completedFiles.contains(this.dataFile)) return;
+            
+            //Large files are split into ranges parsed in parallel
+            if(threads > 1 && rowSpool == null && moStore == null 
+                    && new File(this.dataSource).length() > splitSize + splitSize / 2){
+                File [] fList = new File[]{ new File(this.dataSource).getAbsoluteFile() };
+                if(parserState == ParserStates.EXTRACTING_PARAMETERS){
+                    extractParametersInParallel(fList);
+                }else{
+                    parseInParallel(fList);
+                }
+                return;
+            }
+            
+            if( parserState == ParserStates.EXTRACTING_PARAMETERS){
+                System.out.print("Extracting parameters from " + this.baseFileName + "...");
+            }else{
+                System.out.print("Parsing " + this.baseFileName + "...");
+            }
+                    
+            this.parseFile(this.dataSource);
+            
+            if( parserState == ParserStates.EXTRACTING_PARAMETERS){
+                 System.out.println("Done.");
+            }else{
+                System.out.println("Done.");
+                //System.out.println(this.baseFileName + " successfully parsed.\n");
+            }
+            
+            completedFiles.add(this.dataFile);
+            writeCheckpoint(null, 0);
+        }
+
+        if (isReadableDirectory) {
+
+            File directory = new File(this.dataSource);
+
+            //get all the files from a directory. Sort them so that the column
+            //order is the same between runs
+            File[] fList = directory.listFiles();
+            Arrays.sort(fList);
+            
+            if(threads > 1 && rowSpool == null && moStore == null){
+                if(parserState == ParserStates.EXTRACTING_PARAMETERS){
+                    extractParametersInParallel(fList);
+                    return;
+                }
+                parseInParallel(fList);
+                return;
+            }
+
+            startPrefetcher(fList);
+            try{
+                for (File f : fList) {
+                    this.setFileName(f.getAbsolutePath());
+                
+                    //Already processed before the checkpoint
+                    if(completedFiles.contains(this.dataFile)) continue;
+                
+                    try {
+                        baseFileName =  getFileBasename(this.dataFile);
+                        if( parserState == ParserStates.EXTRACTING_PARAMETERS){
+                            System.out.print("Extracting parameters from " + this.baseFileName + "...");
+                        }else{
+                            System.out.print("Parsing " + this.baseFileName + "...");
+                        }
+                    
+                        //Parse
+                        this.parseFile(f.getAbsolutePath());
+                        if( parserState == ParserStates.EXTRACTING_PARAMETERS){
+                             System.out.println("Done.");
+                        }else{
+                            System.out.println("Done.");
+                            //System.out.println(this.baseFileName + " successfully parsed.\n");
+                        }
+                    
+                        completedFiles.add(this.dataFile);
+                        writeCheckpoint(null, 0);
+                   
+                    } catch (Exception e) {
+                        System.out.println(e.getMessage());
+                        System.out.println("Error at line:" + lineNumber + " className:" + className);
+                        System.out.println("Skipping file: " + this.baseFileName + "\n");
+                        filesWithErrors.add(this.dataFile);
+                    }
+                }
+            }finally{
+                if(prefetcher != null) prefetcher.close();
+                prefetcher = null;
+            }
+        }
 
-            BufferedReader br = new BufferedReader(new FileReader(this.dataFile));
-            for(String line; (line = br.readLine()) != null; ) {
-                processLine(line);
+    }
+    
+    /**
+     * Start reading ahead the files that are parsed next. The file resumed 
+     * from a checkpoint is opened directly as it is read from its offset.
+     * 
+     * @since 1.3.1
+     */
+    private void startPrefetcher(File[] fList){
+        if(prefetchDepth <= 0) return;
+        
+        List<File> files = new ArrayList<File>();
+        for(File f : fList){
+            String filename = f.getAbsolutePath();
+            if(!f.isFile() || completedFiles.contains(filename) || filename.equals(resumeFile)) continue;
+            files.add(f);
+        }
+        if(files.size() > 1) prefetcher = new FilePrefetcher(files, prefetchDepth, prefetchMemory);
+    }
+
+    /**
+     * Returns a parser with the same input settings, verbs and parameter 
+     * patterns for processing a file on another thread.
+     * 
+     * @since 1.3.1
+     */
+    private HuaweiMMLParser newWorkerParser(){
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.inputCharset = inputCharset;
+        parser.detectInputCharset = detectInputCharset;
+        parser.checkpointInterval = 0;
+        parser.resilient = resilient;
+        if(columnTypes != null) parser.columnTypes = new ColumnTypes();
+        
+        for(int i = 0; i < verbRegistry.size(); i++){
+            String verb = verbRegistry.getVerb(i);
+            if(parser.verbRegistry.indexOf(verb, verb.length()) < 0){
+                parser.registerVerbHandler(verb, verbRegistry.getHandler(i));
+            }
+        }
+        
+        if(parameterSelector != null){
+            parser.parameterSelector = parameterSelector.copy();
+        }
+        
+        return parser;
+    }
+    
+    /**
+     * Extract the parameters from the files in parallel. Each file is 
+     * processed by its own parser and the schema fragments are merged in 
+     * file order so the result does not depend on which file finishes first.
+     * 
+     * @since 1.3.1
+     * @param fList Files to process
+     */
+    private void extractParametersInParallel(File[] fList) throws IOException {
+        List<ParseTask> tasks = planTasks(fList);
+        List<Future<SchemaFragment>> fragments = new ArrayList<Future<SchemaFragment>>();
+        for(int i = 0; i < tasks.size(); i++) fragments.add(null);
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try{
+            for (final ParseTask task : ParseTask.largestFirst(tasks)) {
+                fragments.set(task.index, executor.submit(new Callable<SchemaFragment>() {
+                    public SchemaFragment call() throws Exception {
+                        HuaweiMMLParser parser = newWorkerParser();
+                        parser.parseTask(task);
+                        return parser.getSchemaFragment();
+                    }
+                }));
+            }
+            
+            String skippedFile = null;
+            for(int i = 0; i < tasks.size(); i++){
+                ParseTask task = tasks.get(i);
+                if(task.filename.equals(skippedFile)) continue;
+                
+                this.setFileName(new File(task.filename).getAbsolutePath());
+                baseFileName = getFileBasename(task.filename);
+                if(i == 0 || !tasks.get(i - 1).filename.equals(task.filename)){
+                    System.out.print("Extracting parameters from " + this.baseFileName + "...");
+                }
+                
+                try{
+                    mergeSchemaFragment(fragments.get(i).get());
+                    fragments.set(i, null);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }catch(ExecutionException e){
+                    //A single input file fails as when parsed in sequence
+                    if(new File(this.dataSource).isFile()) throwTaskError(e.getCause());
+                    
+                    System.out.println(e.getCause().getMessage());
+                    System.out.println("Skipping file: " + this.baseFileName + "\n");
+                    skippedFile = task.filename;
+                    continue;
+                }
+                
+                if(task.last){
+                    System.out.println("Done.");
+                    completedFiles.add(this.dataFile);
+                    writeCheckpoint(null, 0);
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Parse the files on the worker threads and write their rows in input 
+     * order. Each task spools its rows which are then written with the final
+     * schema as in single pass mode, so the outputs are the same as when the
+     * files are parsed one after the other. Rows of a task are written while
+     * the workers parse the next tasks.
+     * 
+     * When writing csv files the workers write the MO rows to csv part 
+     * files instead, which are appended to the outputs without decoding 
+     * them. Only the verb rows, whose headers come from the first row 
+     * written, are spooled. ROW_IDs in long mode are numbered across the 
+     * files so those rows are always spooled.
+     * 
+     * @since 1.3.1
+     * @param fList Files to parse
+     */
+    private void parseInParallel(File[] fList) throws IOException {
+        final List<ParseTask> tasks = planTasks(fList);
+        List<Future<HuaweiMMLParser>> results = new ArrayList<Future<HuaweiMMLParser>>();
+        final boolean writeParts = outputDirectory != null && !output.isPartitioned()
+                && outputFormat.equals(OutputTarget.CSV) && mvMode != MV_LONG;
+        
+        //Spools and parts left by a run that was killed
+        File [] stale = outputDirectory == null ? null : new File(outputDirectory).listFiles();
+        for(int i = 0; stale != null && i < stale.length; i++){
+            if(stale[i].getName().startsWith(".spool-")) stale[i].delete();
+            if(stale[i].getName().startsWith(".part-")) deleteDirectory(stale[i]);
+        }
+        
+        for(int i = 0; i < tasks.size(); i++) results.add(null);
+        
+        final SchemaFragment partSchema = new SchemaFragment();
+        if(writeParts){
+            partSchema.classNameAttrsMap.putAll(classNameAttrsMap);
+            partSchema.parameterChildMap.putAll(parameterChildMap);
+            partSchema.nonBinaryMVParameters.addAll(nonBinaryMVParameters);
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        PartMerger partMerger = writeParts ? new PartMerger(threads) : null;
+        try{
+            for (final ParseTask task : ParseTask.largestFirst(tasks)) {
+                final File spoolFile = outputDirectory == null 
+                        ? File.createTempFile("boda-huaweimmlparser", ".spool")
+                        : new File(outputDirectory, ".spool-" + task.index);
+                final File partDirectory = writeParts 
+                        ? new File(outputDirectory, ".part-" + task.index) : null;
+                results.set(task.index, executor.submit(new Callable<HuaweiMMLParser>() {
+                    public HuaweiMMLParser call() throws Exception {
+                        HuaweiMMLParser parser = newWorkerParser();
+                        parser.parserState = ParserStates.EXTRACTING_VALUES;
+                        parser.rowSpool = new RowSpool(spoolFile);
+                        if(resilient == true) parser.rejectBuffer = new ArrayList<String>();
+                        if(partDirectory != null) parser.writePartsTo(partDirectory, HuaweiMMLParser.this, partSchema);
+                        if(stats != null) parser.stats = new ParameterStats();
+                        try{
+                            parser.parseTask(task);
+                        }catch(Exception e){
+                            parser.taskError = e;
+                        }finally{
+                            parser.rowSpool.finish();
+                            parser.closeMOPWMap();
+                        }
+                        return parser;
+                    }
+                }));
+            }
+            
+            String skippedFile = null;
+            for(int i = 0; i < tasks.size(); i++){
+                ParseTask task = tasks.get(i);
+                HuaweiMMLParser worker;
+                try{
+                    worker = results.get(i).get();
+                    results.set(i, null);
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }catch(ExecutionException e){
+                    throw new IOException(e.getCause());
+                }
+                
+                if(task.filename.equals(skippedFile)){
+                    worker.rowSpool.close();
+                    if(writeParts) deleteDirectory(new File(outputDirectory, ".part-" + task.index));
+                    continue;
+                }
+                
+                this.setFileName(new File(task.filename).getAbsolutePath());
+                baseFileName = getFileBasename(task.filename);
+                if(i == 0 || !tasks.get(i - 1).filename.equals(task.filename)){
+                    System.out.print("Parsing " + this.baseFileName + "...");
+                }
+                
+                //The rows before an error are kept as when parsing in sequence
+                replaySpool(worker.rowSpool);
+                if(writeParts) appendParts(partMerger, new File(outputDirectory, ".part-" + task.index));
+                if(stats != null) stats.merge(worker.stats);
+                
+                if(worker.rejectBuffer != null){
+                    for(String reject : worker.rejectBuffer) writeReject(reject);
+                    rejectedLines += worker.rejectedLines;
+                    skippedLines += worker.skippedLines;
+                    filesWithErrors.addAll(worker.filesWithErrors);
+                }
+                
+                if(worker.taskError != null){
+                    if(new File(this.dataSource).isFile()) throwTaskError(worker.taskError);
+                    
+                    System.out.println(worker.taskError.getMessage());
+                    System.out.println("Error in className:" + worker.className);
+                    System.out.println("Skipping file: " + this.baseFileName + "\n");
+                    filesWithErrors.add(this.dataFile);
+                    skippedFile = task.filename;
+                    continue;
+                }
+                
+                if(task.last){
+                    System.out.println("Done.");
+                    completedFiles.add(this.dataFile);
+                    writeCheckpoint(null, 0);
+                }
+            }
+        }finally{
+            executor.shutdownNow();
+            try{
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            
+            //Spools and parts of tasks that were not written
+            for(int i = 0; i < results.size(); i++){
+                if(results.get(i) == null || !results.get(i).isDone()) continue;
+                try{
+                    results.get(i).get().rowSpool.close();
+                }catch(Exception e){
+                    //Nothing to clean up
+                }
+                if(writeParts) deleteDirectory(new File(outputDirectory, ".part-" + tasks.get(i).index));
+            }
+            if(partMerger != null) partMerger.close();
+        }
+    }
+    
+    /**
+     * Make this worker write its MO rows to csv files in partDirectory with 
+     * the schema of the main parser. The main parser adds the children of
+     * multi-valued verb row parameters while replaying the spools, so the
+     * workers use a copy of the schema taken before they start.
+     * 
+     * @since 1.3.1
+     * @param partDirectory
+     * @param main Parser with the extracted parameters
+     * @param schema Copy of the schema of the main parser
+     */
+    private void writePartsTo(File partDirectory, HuaweiMMLParser main, SchemaFragment schema){
+        partDirectory.mkdirs();
+        output = OutputTarget.toDirectory(partDirectory.getPath());
+        partOutput = true;
+        classNameAttrsMap = schema.classNameAttrsMap;
+        parameterChildMap = schema.parameterChildMap;
+        nonBinaryMVParameters = schema.nonBinaryMVParameters;
+        parameterFile = main.parameterFile;
+        mvMode = main.mvMode;
+        rowHash = main.rowHash;
+    }
+    
+    /**
+     * Append the part files of a task to the outputs.
+     * 
+     * @since 1.3.1
+     * @param partMerger
+     * @param partDirectory
+     */
+    private void appendParts(PartMerger partMerger, File partDirectory) throws IOException{
+        //Outputs restored from a checkpoint already have their headers
+        Set<String> started = new HashSet<String>(partOutputs);
+        started.addAll(moiPrintWriters.keySet());
+        
+        partOutputs.addAll(partMerger.append(partDirectory, new File(outputDirectory), started));
+    }
+    
+    private static void throwTaskError(Throwable e) throws IOException{
+        if(e instanceof IOException) throw (IOException)e;
+        if(e instanceof RuntimeException) throw (RuntimeException)e;
+        throw new IOException(e);
+    }
+    
+    /**
+     * Returns the tasks for the regular files in fList that are not done. 
+     * The file being parsed at the checkpoint continues from its offset.
+     * 
+     * @since 1.3.1
+     */
+    private List<ParseTask> planTasks(File[] fList) throws IOException{
+        List<File> files = new ArrayList<File>();
+        List<Long> startOffsets = new ArrayList<Long>();
+        for(File f : fList){
+            if(!f.isFile() || completedFiles.contains(f.getAbsolutePath())) continue;
+            
+            long start = 0;
+            if(resumeFile != null && resumeFile.equals(f.getAbsolutePath())){
+                start = resumeFileOffset;
+                resumeFile = null;
+            }
+            files.add(f);
+            startOffsets.add(start);
+        }
+        return ParseTask.plan(files, startOffsets, splitSize);
+    }
+    
+    /**
+     * Parse the commands of a task. Ranges after the start of a file first 
+     * read the header block of the file for the meta fields.
+     * 
+     * @since 1.3.1
+     */
+    void parseTask(ParseTask task) throws IOException{
+        setFileName(new File(task.filename).getAbsolutePath());
+        baseFileName = getFileBasename(task.filename);
+        
+        MMLFileReader br = openReader(task.filename);
+        try{
+            if(task.start > 0){
+                for(String line; (line = br.readLine()) != null; ){
+                    if(line.startsWith("//")){
+                        processHeaderLine(line);
+                    }else if(line.trim().length() > 0){
+                        break;
+                    }
+                }
+                br.seek(task.start);
+            }
+            
+            resyncing = false;
+            for(String line; (line = br.readCommand()) != null && br.getCommandOffset() < task.end; ){
+                if(Thread.currentThread().isInterrupted()){
+                    throw new InterruptedIOException("Parsing of " + baseFileName + " was stopped");
+                }
+                
+                if(resilient == true){
+                    processLineOrReject(line, br.getCommandOffset());
+                }else{
+                    processLine(line);
+                }
             }
+        }finally{
+            br.close();
+        }
     }
-       
+    
     /**
-     * Set parameter file 
+     * Returns the schema discovered by this parser.
      * 
-     * @param filename 
+     * @since 1.3.1
      */
-    public void setParameterFile(String filename){
-        parameterFile = filename;
+    SchemaFragment getSchemaFragment(){
+        SchemaFragment fragment = new SchemaFragment();
+        fragment.classNameAttrsMap = classNameAttrsMap;
+        fragment.parameterChildMap = parameterChildMap;
+        fragment.nonBinaryMVParameters = nonBinaryMVParameters;
+        fragment.columnTypes = columnTypes;
+        for(int i = 0; i < verbRegistry.size(); i++){
+            if(verbClassNameAttrsMaps.get(i) == classNameAttrsMap) continue;
+            fragment.verbClassNameAttrsMaps.put(verbRegistry.getVerb(i), verbClassNameAttrsMaps.get(i));
+        }
+        return fragment;
     }
     
+    /**
+     * Merge the schema discovered from another file.
+     * 
+     * @since 1.3.1
+     */
+    void mergeSchemaFragment(SchemaFragment fragment){
+        SchemaFragment.appendUnseen(classNameAttrsMap, fragment.classNameAttrsMap);
+        SchemaFragment.appendUnseen(parameterChildMap, fragment.parameterChildMap);
+        nonBinaryMVParameters.addAll(fragment.nonBinaryMVParameters);
+        if(columnTypes != null && fragment.columnTypes != null){
+            columnTypes.merge(fragment.columnTypes);
+        }
+        
+        SchemaFragment target = getSchemaFragment();
+        Iterator<Map.Entry<String, Map<String, Stack>>> iter 
+                = fragment.verbClassNameAttrsMaps.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, Map<String, Stack>> me = iter.next();
+            Map<String, Stack> targetMap = target.verbClassNameAttrsMaps.get(me.getKey());
+            if(targetMap != null) SchemaFragment.replace(targetMap, me.getValue());
+        }
+    }
     
- /**
-     * Extract parameter list from  parameter file
+    /**
+     * Process a line in resilient mode. A line that fails to parse is written
+     * to the rejects output with its byte offset. When it does not end the 
+     * command, the following lines are skipped up to the end of the command
+     * or the start of the next one.
      * 
-     * @param filename 
+     * @since 1.3.1
+     * @param line
+     * @param offset Byte offset of the line in the file
      */
-    public  void getParametersToExtract(String filename) throws FileNotFoundException, IOException{
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        for(String line; (line = br.readLine()) != null; ) {
-           String [] moAndParameters =  line.split(":");
-           String mo = moAndParameters[0];
-           String [] parameters = moAndParameters[1].split(",");
-           
-           Stack parameterStack = new Stack();
-           for(int i =0; i < parameters.length; i++){
-               parameterStack.push(parameters[i]);
-           }
-           
-           classNameAttrsMap.put(mo, parameterStack);
-           
-           if(mo.endsWith("_ACT")){ 
-               actClassNameAttrsMap.put(mo.replace("_ACT", ""), parameterStack);
-               continue;
-           }
-           
-           if(mo.endsWith("_BLK")){ 
-               blkClassNameAttrsMap.put(mo.replace("_BLK", ""), parameterStack);
-               continue;
-           }
-           
-           if(mo.endsWith("_MOD")){ 
-               modClassNameAttrsMap.put(mo.replace("_MOD", ""), parameterStack);
-               continue;
-           }
-           
-           if(mo.endsWith("_DEA")){ 
-               deaClassNameAttrsMap.put(mo.replace("_DEA", ""), parameterStack);
-               continue;
-           }
-           
-           if(mo.endsWith("_UBL")){ 
-               ublClassNameAttrsMap.put(mo.replace("_UBL", ""), parameterStack);
-               continue;
-           }
-           
-           if(mo.endsWith("_UIN")){ 
-               uinClassNameAttrsMap.put(mo.replace("_UIN", ""), parameterStack);
-               continue;
-           }
-
+    private void processLineOrReject(String line, long offset) throws IOException{
+        if(resyncing == true){
+            if(!isCommandStart(line)){
+                ++lineNumber;
+                reject(line, offset, null);
+                resyncing = !line.trim().endsWith(";");
+                return;
+            }
+            resyncing = false;
         }
         
-        //Move to the parameter value extraction stage
-        parserState = ParserStates.EXTRACTING_VALUES;
+        try{
+            processLine(line);
+        }catch(RuntimeException e){
+            attrValueMap.clear();
+            reject(line, offset, e.toString());
+            resyncing = !line.trim().endsWith(";");
+        }
     }
     
+    /**
+     * Returns true for header lines and lines starting with a registered verb.
+     */
+    private boolean isCommandStart(String line){
+        if(line.startsWith("//")) return true;
+        int verbEnd = line.indexOf(' ');
+        return verbEnd > 0 && verbRegistry.indexOf(line, verbEnd) >= 0;
+    }
     
     /**
-     * Parser entry point 
-     * 
-     * @throws XMLStreamException
-     * @throws FileNotFoundException
-     * @throws UnsupportedEncodingException 
+     * Write a line to the rejects output. Lines are only written and counted
+     * in the pass that writes the outputs so they are not repeated by the 
+     * parameter extraction pass.
      * 
-     * @since 1.1.1
+     * @param error Parse error or null for a skipped line
      */
-    public void parse() throws IOException {
-        //Extract parameters
-        if (parserState == ParserStates.EXTRACTING_PARAMETERS) {
-            processFileOrDirectory();
-
-            parserState = ParserStates.EXTRACTING_VALUES;
-        }
+    private void reject(String line, long offset, String error) throws IOException{
+        if(parserState != ParserStates.EXTRACTING_VALUES && rowSpool == null) return;
         
-        //Reset line count
-        lineNumber = 0;
-                
-        //Extracting values
-        if (parserState == ParserStates.EXTRACTING_VALUES) {
-            processFileOrDirectory();
-            parserState = ParserStates.EXTRACTING_DONE;
+        if(error == null){
+            ++skippedLines;
+            error = "Skipped rest of rejected command";
+        }else{
+            ++rejectedLines;
         }
+        filesWithErrors.add(this.dataFile);
         
-        closeMOPWMap();
+        String reject = toCSVFormat(baseFileName) + "," + offset + "," 
+                + toCSVFormat(error) + "," + toCSVFormat(line);
+        if(rejectBuffer != null){
+            rejectBuffer.add(reject);
+        }else{
+            writeReject(reject);
+        }
+    }
+    
+    private void writeReject(String reject) throws IOException{
+        PrintWriter pw = moiPrintWriters.get(REJECTS_OUTPUT);
+        if(pw == null){
+            pw = output.open(REJECTS_OUTPUT, false);
+            pw.println("FILENAME,OFFSET,ERROR,LINE");
+            moiPrintWriters.put(REJECTS_OUTPUT, pw);
+        }
+        pw.println(reject);
     }
     
     /**
-     * Determines if the source data file is a regular file or a directory and 
-     * parses it accordingly
+     * Print the number of rejected lines and of files with errors.
      * 
-     * @since 1.1.0
-     * @version 1.0.0
-     * @throws XMLStreamException
-     * @throws FileNotFoundException
-     * @throws UnsupportedEncodingException
+     * @since 1.3.1
      */
-    public void processFileOrDirectory() throws IOException {
-        //logger.info("processFileOrDirectory");
-        //this.dataFILe;
-        Path file = Paths.get(this.dataSource);
-        boolean isRegularExecutableFile = Files.isRegularFile(file)
-                & Files.isReadable(file);
-
-        boolean isReadableDirectory = Files.isDirectory(file)
-                & Files.isReadable(file);
-
-        if (isRegularExecutableFile) {
-            this.setFileName(this.dataSource);
-            baseFileName =  getFileBasename(this.dataFile);
-            
-            if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                System.out.print("Extracting parameters from " + this.baseFileName + "...");
-            }else{
-                System.out.print("Parsing " + this.baseFileName + "...");
-            }
-                    
-            this.parseFile(this.dataSource);
-            
-            if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                 System.out.println("Done.");
-            }else{
-                System.out.println("Done.");
-                //System.out.println(this.baseFileName + " successfully parsed.\n");
-            }
-        }
-
-        if (isReadableDirectory) {
-
-            File directory = new File(this.dataSource);
-
-            //get all the files from a directory
-            File[] fList = directory.listFiles();
-
-            for (File f : fList) {
-                this.setFileName(f.getAbsolutePath());
-                try {
-                    baseFileName =  getFileBasename(this.dataFile);
-                    if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                        System.out.print("Extracting parameters from " + this.baseFileName + "...");
-                    }else{
-                        System.out.print("Parsing " + this.baseFileName + "...");
-                    }
-                    
-                    //Parse
-                    this.parseFile(f.getAbsolutePath());
-                    if( parserState == ParserStates.EXTRACTING_PARAMETERS){
-                         System.out.println("Done.");
-                    }else{
-                        System.out.println("Done.");
-                        //System.out.println(this.baseFileName + " successfully parsed.\n");
-                    }
-                   
-                } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                    System.out.println("Error at line:" + lineNumber + " className:" + className);
-                    System.out.println("Skipping file: " + this.baseFileName + "\n");
-                }
-            }
+    public void printErrorSummary(){
+        if(filesWithErrors.isEmpty()) return;
+        
+        if(resilient == true){
+            System.out.println("Rejected " + rejectedLines + " line(s) and skipped " 
+                    + skippedLines + " line(s) in " + filesWithErrors.size() 
+                    + " file(s). See " + REJECTS_OUTPUT + ".");
+        }else{
+            System.out.println("Skipped the rest of " + filesWithErrors.size() 
+                    + " file(s) after an error. Use --resilient to continue after bad lines.");
         }
-
     }
-
-    public void processLine(String line) throws FileNotFoundException{
+    
+    public void processLine(String line) throws IOException{
         ++lineNumber;
         //logger.debug("processLine");
-        //Handle first line
         
+        //Dispatch commands on the first token
+        int verbEnd = line.indexOf(' ');
+        if(verbEnd > 0){
+            int verbIndex = verbRegistry.indexOf(line, verbEnd);
+            if(verbIndex >= 0){
+                verbRegistry.getHandler(verbIndex).processLine(this, 
+                        verbRegistry.getVerb(verbIndex), verbIndex, line);
+                return;
+            }
+        }
+        
+        if(line.startsWith("//")){
+            processHeaderLine(line);
+        }
+    }
+    
+    /**
+     * Extract the dump details from the comment lines at the top of the file.
+     * 
+     * @since 1.3.1
+     * @param line
+     */
+    private void processHeaderLine(String line){
+        //Handle first line
         if(line.startsWith("//Export start time:")){
             String [] sArray = line.split("time:");
             this.dateTime = sArray[1].trim();
@@ -691,166 +2796,179 @@ public class HuaweiMMLParser {
             this.MbscMode = sArray[1].trim();
             return;
         }
+    }
+    
+    /**
+     * Process SET and ADD lines.
+     * 
+     * @since 1.3.1
+     * @param line
+     * @param verb SET or ADD
+     * @param verbIndex Index of the verb in the verb registry
+     */
+    void processMOLine(String line, String verb, int verbIndex) throws IOException{
+        String [] lineArray = line.split(":");
+        String moPart = lineArray[0];
+        String paramPart = lineArray[1];
         
-        //System.out.println(line);
-        //Handle lines tarting with SET
-        if(line.startsWith("SET ") || line.startsWith("ADD ") ){
-
-            String [] lineArray = line.split(":");
-            String moPart = lineArray[0];
-            String paramPart = lineArray[1];
-            
-            //Get the MO
-            String [] moPartArray = moPart.split(" ");
-            String moName = moPartArray[1].trim();
+        //Get the MO
+        String [] moPartArray = moPart.split(" ");
+        String moName = moPartArray[1].trim();
 
-            this.className = moName;
+        this.className = moName;
+        
+        //Skip MOs excluded by the parameter patterns
+        if( parameterSelector != null && !parameterSelector.selectsMO(moName) ) return;
+        
+        //Parameter Extraction Stage
+        if(ParserStates.EXTRACTING_PARAMETERS == parserState){
             
-            //Parameter Extraction Stage
-            if(ParserStates.EXTRACTING_PARAMETERS == parserState){
-                
-                if( parameterFile != null && !classNameAttrsMap.containsKey(className) ){
-                    attrValueMap.clear();
-                    return;
-                }
-                
-                Stack attrStack = new Stack();
-                
-                if(classNameAttrsMap.containsKey(moName)){ //this.className
-                      attrStack = classNameAttrsMap.get(moName);
-                }
-
-                //Get the parameters
-                //(?<=[^=]+=[^=]+),\s(?=[^=^"]+=[^=]+) --
-                //(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)
-                String [] paramPartArray = paramPart.split("(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
-                
-                for(int i = 0, len = paramPartArray.length; i < len; i++){
-                    String [] sArray = paramPartArray[i].split("=");
-                    String paramName = sArray[0].trim();
-                    
-                    //Skip if the parameter is not in the pFile
-                    if( !attrStack.contains(paramName) && parameterFile != null ){
-                        continue;
-                    }
-                    
-                    if( !attrStack.contains(paramName) ){
-                        attrStack.push(paramName);
-                    }
-                    
-                    //Collect multivalue parameters 
-                    //Skip/ignore parameters that end with NAME such GSMCELLNAME. The reason for this is 
-                    //when there is hypen the parser was mistakenly treating the parameter has multivalued
-                    String tempValue  = sArray[1].trim();
-                    if(tempValue.matches("([^-]+-[^-]+&).*") && !paramName.endsWith("NAME")){
-                         String mvParameter = className + "_" + paramName;
-                        //logger.debug("mvParameter: " + mvParameter);
-                        //System.out.println("mvParameter:" + mvParameter);
-                        
-                         Stack children = new Stack();
-                         if(parameterChildMap.containsKey(mvParameter)){ 
-                             children = parameterChildMap.get(mvParameter);
-                         }else{
-                             parameterChildMap.put(mvParameter, null);
-                         }
-
-                         String[] valueArray = tempValue.split("&");
-
-                         for(int j = 0; j < valueArray.length; j++){
-                             String v = valueArray[j];
-                             String[] vArray = v.split("-");
-                             String childParameter = vArray[0];
-                             if( !children.contains(childParameter)){
-                                 children.push(childParameter);
-                             }   
-                         }
-                         
-                         parameterChildMap.put(mvParameter, children);
-                     }
-                     //EOF: MV Parameters
-
-                }
-                
-                classNameAttrsMap.put(moName,attrStack);
+            if( parameterFile != null && !classNameAttrsMap.containsKey(className) ){
                 attrValueMap.clear();
-                return; //Stop here if we on the parameter extraction stage
+                return;
             }
             
-            if(ParserStates.EXTRACTING_VALUES == parserState){
-                //Get the parameters
-                //String [] paramPartArray = paramPart.split("(?<=[^=]+=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
-                String [] paramPartArray = paramPart.split("(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
-                for(int i = 0, len = paramPartArray.length; i < len; i++){
-                    String [] sArray = paramPartArray[i].split("=");
-                    String paramName = sArray[0].trim();
-                    String paramValue = sArray[1].replaceAll(";$", "");
-
-                    attrValueMap.put(paramName, paramValue);
-                }   
-            }
+            Stack attrStack = new Stack();
             
-            //Continue to value extraction stage
-            if(parameterFile != null && !classNameAttrsMap.containsKey(className) ){
-                 attrValueMap.clear();
-                return;
+            if(classNameAttrsMap.containsKey(moName)){ //this.className
+                  attrStack = classNameAttrsMap.get(moName);
             }
 
-            //Add headers
-            //If there is no parameterFile or if the parameter file exists and the mo is in the classNameAttrsMap
-            if( !moiPrintWriters.containsKey(className) ) {
-                String moiFile = outputDirectory + File.separatorChar + className +  ".csv";
-                moiPrintWriters.put(className, new PrintWriter(moiFile));
-                
-                String pNameStr = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
-                
-                //This list of parameters are added by default. Ignore to prevent duplicates
-                //String ignoreList = "FileName,varDateTime,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
-                Stack attrStack =classNameAttrsMap.get(className);
+            //Get the parameters
+            //(?<=[^=]+=[^=]+),\s(?=[^=^"]+=[^=]+) --
+            //(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)
+            String [] paramPartArray = paramPart.split("(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
+            
+            for(int i = 0, len = paramPartArray.length; i < len; i++){
+                String [] sArray = paramPartArray[i].split("=");
+                String paramName = sArray[0].trim();
                 
-                for(int y =0; y < attrStack.size(); y++){
-                    String pName = (String)attrStack.get(y);
-                    
-                    //@TODO: Skip parameter that are added by default
-                    if( pName.toLowerCase().equals("filename") || 
-                        pName.toLowerCase().equals("datetime") || 
-                        pName.toLowerCase().equals("bscid") || 
-                        pName.toLowerCase().equals("bam_version") ||
-                        pName.toLowerCase().equals("omu_ip") || 
-                        pName.toLowerCase().equals("mbsc mode") ) continue;
-                    //if(ignoreList.contains(pName)) continue;
-                    
-                    String mvParameter = moName + "_" + pName;
-                    
-                    //Handle multivalued parameter (parameters with children)
-                    if( parameterChildMap.containsKey(mvParameter)){
-                        //Get the child parameters 
-                        Stack childParameters = parameterChildMap.get(mvParameter);
-                        for(int idx =0; idx < childParameters.size(); idx++){
-                            String childParam = (String)childParameters.get(idx);
-                            pNameStr = pNameStr +","+ pName + "_" + childParam;
-                        }
-                        continue;
-                    }
-
-                    pNameStr = pNameStr +","+ pName;
+                //In single pass mode the values are spooled as well
+                if(rowSpool != null){
+                    attrValueMap.put(paramName, sArray[1].replaceAll(";$", ""));
+                }
+                
+                if( parameterSelector != null && !parameterSelector.selects(moName, paramName) ){
+                    continue;
+                }
+                
+                //Skip if the parameter is not in the pFile
+                if( !attrStack.contains(paramName) && parameterFile != null ){
+                    continue;
+                }
+                
+                if( !attrStack.contains(paramName) ){
+                    attrStack.push(paramName);
+                }
+                
+                if(columnTypes != null){
+                    columnTypes.add(moName, paramName, sArray[1].replaceAll(";$", ""));
                 }
                 
-                //Initialize the MO parameter map hash map
-                //classNameAttrsMap.put(moName,attrStack);
-                moiPrintWriters.get(className).println(pNameStr);
+                //Collect multivalue parameters 
+                //Skip/ignore parameters that end with NAME such GSMCELLNAME. The reason for this is 
+                //when there is hypen the parser was mistakenly treating the parameter has multivalued
+                String tempValue  = sArray[1].trim();
+                if(tempValue.matches("([^-]+-[^-]+&).*") && !paramName.endsWith("NAME")){
+                     String mvParameter = className + "_" + paramName;
+                    //logger.debug("mvParameter: " + mvParameter);
+                    //System.out.println("mvParameter:" + mvParameter);
+                    
+                     Stack children = new Stack();
+                     if(parameterChildMap.containsKey(mvParameter)){ 
+                         children = parameterChildMap.get(mvParameter);
+                     }else{
+                         parameterChildMap.put(mvParameter, null);
+                     }
+
+                     String[] valueArray = tempValue.split("&");
+
+                     for(int j = 0; j < valueArray.length; j++){
+                         String v = valueArray[j];
+                         String[] vArray = v.split("-");
+                         String childParameter = vArray[0];
+                         if( !children.contains(childParameter)){
+                             children.push(childParameter);
+                         }
+                         
+                         //Track switches that can not be packed into a bitmask
+                         if( vArray.length < 2 || !isBinaryValue(vArray[1]) ){
+                             nonBinaryMVParameters.add(mvParameter);
+                         }
+                     }
+                     
+                     parameterChildMap.put(mvParameter, children);
+                 }
+                 //EOF: MV Parameters
+
             }
             
-            String pValueStr = baseFileName + "," + dateTime +","+bscId+ "," + version + "," + IP + 
-                    ","+MbscMode;
+            classNameAttrsMap.put(moName,attrStack);
             
-            //Add the parameter values 
-            Stack attrStack;
-            attrStack = classNameAttrsMap.get(moName);
-
+            if(rowSpool == null){
+                attrValueMap.clear();
+                return; //Stop here if we on the parameter extraction stage
+            }
+        }
+        
+        if(ParserStates.EXTRACTING_VALUES == parserState){
+            //Get the parameters
+            //String [] paramPartArray = paramPart.split("(?<=[^=]+=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
+            String [] paramPartArray = paramPart.split("(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
+            for(int i = 0, len = paramPartArray.length; i < len; i++){
+                String [] sArray = paramPartArray[i].split("=");
+                String paramName = sArray[0].trim();
+                String paramValue = sArray[1].replaceAll(";$", "");
+
+                attrValueMap.put(paramName, paramValue);
+            }   
+        }
+        
+        if(rowSpool != null && partOutput == false){
+            rowSpool.write(verb, verbIndex, moName, getMetaValues(), attrValueMap);
+            attrValueMap.clear();
+            return;
+        }
+        
+        writeMORow(moName, getMetaValues());
+    }
+    
+    /**
+     * Write the values in attrValueMap as a row of the MO's csv file.
+     * 
+     * @since 1.3.1
+     * @param moName
+     * @param meta Meta fields csv string
+     */
+    private void writeMORow(String moName, String meta) throws IOException{
+        this.className = moName;
+        
+        //Continue to value extraction stage
+        if(parameterFile != null && !classNameAttrsMap.containsKey(className) ){
+             attrValueMap.clear();
+            return;
+        }
 
-            Iterator <String> sIter = attrStack.iterator();
-            while(sIter.hasNext()){
-                String pName = sIter.next();
+        //Add headers
+        //If there is no parameterFile or if the parameter file exists and the mo is in the classNameAttrsMap
+        if( !moiPrintWriters.containsKey(className) ) {
+            moiPrintWriters.put(className, output.open(className, false));
+            
+            String pNameStr = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
+            
+            //This list of parameters are added by default. Ignore to prevent duplicates
+            //String ignoreList = "FileName,varDateTime,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
+            Stack attrStack =classNameAttrsMap.get(className);
+            
+            //The children are written to the side table
+            if( mvMode == MV_LONG && hasMVParameters(moName) ){
+                pNameStr += ",ROW_ID";
+                moiPrintWriters.put(className + "_MV", output.open(className + "_MV", false));
+                moiPrintWriters.get(className + "_MV").println("ROW_ID,PARAMETER,CHILD,VALUE");
+            }
+            
+            for(int y =0; y < attrStack.size(); y++){
+                String pName = (String)attrStack.get(y);
                 
                 //@TODO: Skip parameter that are added by default
                 if( pName.toLowerCase().equals("filename") || 
@@ -859,113 +2977,335 @@ public class HuaweiMMLParser {
                     pName.toLowerCase().equals("bam_version") ||
                     pName.toLowerCase().equals("omu_ip") || 
                     pName.toLowerCase().equals("mbsc mode") ) continue;
-
+                //if(ignoreList.contains(pName)) continue;
+                
                 String mvParameter = moName + "_" + pName;
                 
-                String pValue = "";
-            
+                //Handle multivalued parameter (parameters with children)
                 if( parameterChildMap.containsKey(mvParameter)){
+                    if( mvMode == MV_LONG ) continue;
                     
-                    //Fix for bug where parser can't tell if parametr is multivalued or not
-                    //ADD CLKSRC:SRCGRD=1, SRCT=LINE1_8KHZ;
-                    //ADD CLKSRC:SRCGRD=2, SRCT=BITS1-2MHZ;
-                    
-                    ///if(!attrValueMap.containsKey(pName)){
-                    //    pValueStr += ",";
-                    //    continue;
-                    //}
-                    
-                    String tempValue = "";
-                    String[] valueArray = {};
-                    if(attrValueMap.containsKey(pName)){
-                        tempValue = attrValueMap.get(pName);
-                         valueArray = tempValue.split("&");
-                    }
-
-                    Map<String, String> paramValueMap = new LinkedHashMap<String, String>();
-
-                    //Iterate over the values in parameterChildMap
-                    for(int j = 0; j < valueArray.length; j++){
-                       String v = valueArray[j];
-                        String[] vArray = v.split("-");
-                        paramValueMap.put(vArray[0], vArray[1]);
+                    if( mvMode == MV_BITMASK && isBitmaskParameter(mvParameter) ){
+                        pNameStr = pNameStr +","+ pName;
+                        continue;
                     }
-
+                    
                     //Get the child parameters 
                     Stack childParameters = parameterChildMap.get(mvParameter);
                     for(int idx =0; idx < childParameters.size(); idx++){
                         String childParam = (String)childParameters.get(idx);
+                        pNameStr = pNameStr +","+ pName + "_" + childParam;
+                    }
+                    continue;
+                }
 
-                        if(paramValueMap.containsKey(childParam)){
-                            String mvValue = (String)paramValueMap.get(childParam);
-                            pValueStr += "," + toCSVFormat(mvValue);
-                        }else{
-                            pValueStr += ",";
-                        }
+                pNameStr = pNameStr +","+ pName;
+            }
+            
+            if(rowHash == true) pNameStr += "," + RowHash.COLUMN;
+            
+            //Initialize the MO parameter map hash map
+            //classNameAttrsMap.put(moName,attrStack);
+            moiPrintWriters.get(className).println(pNameStr);
+        }
+        
+        if(stats != null) stats.addRow(className, classNameAttrsMap.get(moName), attrValueMap);
+        
+        String pValueStr = meta;
+        
+        long rowId = 0;
+        if( mvMode == MV_LONG && hasMVParameters(moName) ){
+            rowId = nextRowId(className);
+            pValueStr += "," + rowId;
+        }
+        
+        //Add the parameter values 
+        Stack attrStack;
+        attrStack = classNameAttrsMap.get(moName);
+        long hash = 0;
 
-                    }
 
+        Iterator <String> sIter = attrStack.iterator();
+        while(sIter.hasNext()){
+            String pName = sIter.next();
+            
+            //@TODO: Skip parameter that are added by default
+            if( pName.toLowerCase().equals("filename") || 
+                pName.toLowerCase().equals("datetime") || 
+                pName.toLowerCase().equals("bscid") || 
+                pName.toLowerCase().equals("bam_version") ||
+                pName.toLowerCase().equals("omu_ip") || 
+                pName.toLowerCase().equals("mbsc mode") ) continue;
+
+            if(rowHash == true) hash += RowHash.hash(pName, attrValueMap.get(pName));
+            
+            String mvParameter = moName + "_" + pName;
+            
+            String pValue = "";
+        
+            if( parameterChildMap.containsKey(mvParameter)){
+                
+                if( mvMode == MV_LONG ){
+                    writeMVRows(className + "_MV", rowId, pName, attrValueMap.get(pName));
                     continue;
                 }
                 
-                if(attrValueMap.containsKey(pName)) { 
-                    pValue = attrValueMap.get(pName);
+                if( mvMode == MV_BITMASK && isBitmaskParameter(mvParameter) ){
+                    pValueStr += "," + toBitmask(mvParameter, attrValueMap.get(pName));
+                    continue;
                 }
-                pValueStr += ","+ toCSVFormat(pValue);
+                
+                //Fix for bug where parser can't tell if parametr is multivalued or not
+                //ADD CLKSRC:SRCGRD=1, SRCT=LINE1_8KHZ;
+                //ADD CLKSRC:SRCGRD=2, SRCT=BITS1-2MHZ;
+                
+                ///if(!attrValueMap.containsKey(pName)){
+                //    pValueStr += ",";
+                //    continue;
+                //}
+                
+                String tempValue = "";
+                String[] valueArray = {};
+                if(attrValueMap.containsKey(pName)){
+                    tempValue = attrValueMap.get(pName);
+                     valueArray = tempValue.split("&");
+                }
+
+                Map<String, String> paramValueMap = new LinkedHashMap<String, String>();
+
+                //Iterate over the values in parameterChildMap
+                for(int j = 0; j < valueArray.length; j++){
+                   String v = valueArray[j];
+                    String[] vArray = v.split("-");
+                    paramValueMap.put(vArray[0], vArray[1]);
+                }
+
+                //Get the child parameters 
+                Stack childParameters = parameterChildMap.get(mvParameter);
+                for(int idx =0; idx < childParameters.size(); idx++){
+                    String childParam = (String)childParameters.get(idx);
+
+                    if(paramValueMap.containsKey(childParam)){
+                        String mvValue = paramValueMap.get(childParam);
+                        pValueStr += "," + toCSVFormat(mvValue);
+                    }else{
+                        pValueStr += ",";
+                    }
+
+                }
+
+                continue;
             }
             
-            moiPrintWriters.get(className).println(pValueStr);
-            
-            attrValueMap.clear();
-        }//eof:SET
+            if(attrValueMap.containsKey(pName)) { 
+                pValue = attrValueMap.get(pName);
+            }
+            pValueStr += ","+ toCSVFormat(pValue);
+        }
         
+        if(rowHash == true) pValueStr += "," + hash;
         
-        //ACT
-        if(line.startsWith("ACT ") ){
-            extactParameterAndValues(line, "ACT");
-            return;
+        moiPrintWriters.get(className).println(pValueStr);
+        
+        attrValueMap.clear();
+    }
+    
+    /**
+     * Write the child of each bit of the bitmask columns to MV_BITMASK.csv.
+     * 
+     * @since 1.3.1
+     * @param outputs Names of the csv files written
+     */
+    private void writeBitmaskLegend(List<String> outputs) throws IOException{
+        PrintWriter pw = output.open("MV_BITMASK", false);
+        try{
+            pw.println("MO,PARAMETER,BIT,CHILD");
+            Iterator<Map.Entry<String, Stack>> iter = classNameAttrsMap.entrySet().iterator();
+            while(iter.hasNext()){
+                Map.Entry<String, Stack> me = iter.next();
+                String moName = me.getKey();
+                if(!outputs.contains(moName)) continue;
+                
+                Stack attrStack = me.getValue();
+                for(int i = 0; i < attrStack.size(); i++){
+                    String pName = (String)attrStack.get(i);
+                    String mvParameter = moName + "_" + pName;
+                    if(!parameterChildMap.containsKey(mvParameter) || !isBitmaskParameter(mvParameter)) continue;
+                    
+                    Stack childParameters = parameterChildMap.get(mvParameter);
+                    for(int idx = 0; idx < childParameters.size(); idx++){
+                        pw.println(moName + "," + pName + "," + idx + "," + toCSVFormat((String)childParameters.get(idx)));
+                    }
+                }
+            }
+        }finally{
+            pw.close();
         }
-        //ACT
-        if(line.startsWith("MOD ") ){
-            extactParameterAndValues(line, "MOD");
-            return;
+    }
+    
+    /**
+     * Returns true if the value of a switch is 0 or 1.
+     * 
+     * @since 1.3.1
+     */
+    private static boolean isBinaryValue(String value){
+        if(value.endsWith(";")) value = value.substring(0, value.length() - 1);
+        return value.equals("0") || value.equals("1");
+    }
+    
+    /**
+     * Returns true if a multi-valued parameter fits in a bitmask column.
+     * 
+     * @since 1.3.1
+     * @param mvParameter MO_PARAMETER
+     */
+    private boolean isBitmaskParameter(String mvParameter){
+        return !nonBinaryMVParameters.contains(mvParameter) 
+                && parameterChildMap.get(mvParameter).size() < 64;
+    }
+    
+    /**
+     * Returns true if the MO has multi-valued parameters.
+     * 
+     * @since 1.3.1
+     */
+    private boolean hasMVParameters(String moName){
+        Boolean hasMV = mvMOs.get(moName);
+        if(hasMV == null){
+            hasMV = false;
+            Stack attrStack = classNameAttrsMap.get(moName);
+            for(int i = 0; attrStack != null && i < attrStack.size(); i++){
+                if(parameterChildMap.containsKey(moName + "_" + attrStack.get(i))){
+                    hasMV = true;
+                    break;
+                }
+            }
+            mvMOs.put(moName, hasMV);
         }
-        //ACT
-        if(line.startsWith("DEA ") ){
-            extactParameterAndValues(line, "DEA");
-            return;
+        return hasMV;
+    }
+    
+    private long nextRowId(String output){
+        long [] rowId = rowIds.get(output);
+        if(rowId == null){
+            rowId = new long[1];
+            rowIds.put(output, rowId);
         }
-        //ACT
-        if(line.startsWith("BLK ") ){
-            extactParameterAndValues(line, "BLK");
-            return;
+        return ++rowId[0];
+    }
+    
+    /**
+     * Write the children of a multi-valued parameter value to the side table.
+     * 
+     * @since 1.3.1
+     * @param output Side table name
+     * @param rowId ROW_ID of the MO row
+     * @param pName Parameter name
+     * @param value Value e.g. SW1-1&SW2-0
+     */
+    private void writeMVRows(String output, long rowId, String pName, String value){
+        if(value == null) return;
+        
+        PrintWriter pw = moiPrintWriters.get(output);
+        String [] valueArray = value.split("&");
+        for(int j = 0; j < valueArray.length; j++){
+            String [] vArray = valueArray[j].split("-");
+            if(vArray.length < 2) continue;
+            pw.println(rowId + "," + pName + "," + toCSVFormat(vArray[0]) + "," + toCSVFormat(vArray[1]));
         }
-        //ACT
-        if(line.startsWith("UBL ") ){
-            extactParameterAndValues(line, "UBL");
-            return;
+    }
+    
+    /**
+     * Pack the values of a switch parameter into an integer. Bit N is set 
+     * when the Nth child is 1.
+     * 
+     * @since 1.3.1
+     * @param mvParameter MO_PARAMETER
+     * @param value Value e.g. SW1-1&SW2-0
+     */
+    private String toBitmask(String mvParameter, String value){
+        if(value == null) return "";
+        
+        Stack childParameters = parameterChildMap.get(mvParameter);
+        long bits = 0;
+        String [] valueArray = value.split("&");
+        for(int j = 0; j < valueArray.length; j++){
+            String [] vArray = valueArray[j].split("-");
+            if(vArray.length < 2 || !vArray[1].equals("1")) continue;
+            
+            int idx = childParameters.indexOf(vArray[0]);
+            if(idx >= 0) bits |= 1L << idx;
         }
-        //ACT
-        if(line.startsWith("UIN ") ){
-            extactParameterAndValues(line, "UIN");
-            return;
+        return Long.toString(bits);
+    }
+    
+    /**
+     * Apply a command to the MO store.
+     * 
+     * @since 1.3.1
+     * @param line
+     * @param verb
+     */
+    void materialiseLine(String line, String verb){
+        int sep = line.indexOf(':');
+        String moName = (sep < 0 ? line.substring(verb.length()) 
+                : line.substring(verb.length(), sep)).trim();
+        if(moName.endsWith(";")) moName = moName.substring(0, moName.length() - 1);
+        this.className = moName;
+        
+        if( parameterFile != null && !classNameAttrsMap.containsKey(moName) ) return;
+        if( parameterSelector != null && !parameterSelector.selectsMO(moName) ) return;
+        Stack attrStack = classNameAttrsMap.get(moName);
+        
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        if(sep >= 0){
+            String [] paramPartArray = line.substring(sep + 1).split("(?<=[^=]+),\\s(?=[^=^\"]+=[^=]+)");
+            for(int i = 0, len = paramPartArray.length; i < len; i++){
+                String [] sArray = paramPartArray[i].split("=");
+                if(sArray.length < 2) continue;
+                
+                String paramName = sArray[0].trim();
+                if( parameterFile != null && !attrStack.contains(paramName) ) continue;
+                if( parameterSelector != null && !parameterSelector.selects(moName, paramName) ) continue;
+                
+                names.add(paramName);
+                values.add(sArray[1].replaceAll(";$", ""));
+            }
         }
         
-        //
+        moStore.apply(verb, moName, names.toArray(new String[names.size()]), 
+                values.toArray(new String[values.size()]), String.valueOf(bscId), getMetaValues());
+    }
+    
+    /**
+     * Returns the header of the meta fields added to each row.
+     * 
+     * @since 1.3.1
+     */
+    String getMetaHeader(){
+        return "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
+    }
+    
+    /**
+     * Returns the meta field values of the file being parsed.
+     * 
+     * @since 1.3.1
+     */
+    String getMetaValues(){
+        return baseFileName + "," + dateTime +","+bscId+ "," + version + "," + IP + 
+                    ","+MbscMode;
     }
     
     /**
      * 
      * @param line
      * @param keyWord ACT,BLK,UBK,DEA,UIN
+     * @param verbIndex Index of the keyWord's schema
      */
-    private void extactParameterAndValues(String line, String keyWord) throws FileNotFoundException{
-            if( !keyWord.equals("ACT") && !keyWord.equals("BLK") &&
-                    !keyWord.equals("MOD") && !keyWord.equals("DEA") &&
-                    !keyWord.equals("UBL") &&  !keyWord.equals("UIN")
-                    ){
-                return;
-            }
+    void extactParameterAndValues(String line, String keyWord, int verbIndex) throws IOException{
+            Map<String,Stack> verbAttrsMap = verbClassNameAttrsMaps.get(verbIndex);
+            
             String [] lineArray = line.split(":");
             String moPart = lineArray[0];
             String paramPart = lineArray[1];
@@ -979,6 +3319,9 @@ public class HuaweiMMLParser {
             
             String printWriterClassName = className + "_" + keyWord ;
             
+            //Skip MOs excluded by the parameter patterns
+            if( parameterSelector != null && !parameterSelector.selectsMO(printWriterClassName) ) return;
+            
             //Parameter Extraction Stage
             if(ParserStates.EXTRACTING_PARAMETERS == parserState){
                 
@@ -1001,10 +3344,18 @@ public class HuaweiMMLParser {
                         continue;
                     }
                     
+                    if( parameterSelector != null && !parameterSelector.selects(printWriterClassName, paramName) ){
+                        continue;
+                    }
+                    
                     if( !attrStack.contains(paramName)){
                         attrStack.push(paramName);
                     }
                     
+                    if(columnTypes != null){
+                        columnTypes.add(printWriterClassName, paramName, sArray[1].replaceAll(";$", ""));
+                    }
+                    
                     //Collect multivalue parameters 
                     //Skip/ignore parameters that end with NAME such GSMCELLNAME. The reason for this is 
                     //when there is hypen the parser was mistakenly treating the parameter has multivalued
@@ -1034,32 +3385,14 @@ public class HuaweiMMLParser {
                 }
             
                 if(parameterFile == null ){
-                    if(keyWord.equals("ACT")){
-                        actClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("BLK")){
-                        blkClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("MOD")){
-                        modClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("DEA")){
-                        deaClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("UBL")){
-                        ublClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("UIN")){
-                        uinClassNameAttrsMap.put(moName,attrStack);
-                    }
+                    verbAttrsMap.put(moName,attrStack);
                 }
                 
-
-                
-                return; //Stop here if we on the parameter extraction stage
+                //In single pass mode the values are spooled as well
+                if(rowSpool == null) return; //Stop here if we on the parameter extraction stage
             }
             
-            if(ParserStates.EXTRACTING_VALUES == parserState){
+            if(ParserStates.EXTRACTING_VALUES == parserState || rowSpool != null){
                 //Get the parameters
                 String [] paramPartArray = paramPart.split(", ");
                 for(int i = 0, len = paramPartArray.length; i < len; i++){
@@ -1072,6 +3405,29 @@ public class HuaweiMMLParser {
                 
             }
             
+            if(rowSpool != null){
+                rowSpool.write(keyWord, verbIndex, moName, getMetaValues(), attrValueMap);
+                attrValueMap.clear();
+                return;
+            }
+            
+            writeVerbRow(moName, keyWord, verbIndex, getMetaValues());
+    }
+    
+    /**
+     * Write the values in attrValueMap as a row of the MO_VERB csv file.
+     * 
+     * @since 1.3.1
+     * @param moName
+     * @param keyWord ACT,BLK,UBK,DEA,UIN
+     * @param verbIndex Index of the keyWord's schema
+     * @param meta Meta fields csv string
+     */
+    private void writeVerbRow(String moName, String keyWord, int verbIndex, String meta) throws IOException{
+            Map<String,Stack> verbAttrsMap = verbClassNameAttrsMaps.get(verbIndex);
+            this.className = moName;
+            String printWriterClassName = className + "_" + keyWord ;
+            
             //Continue to value extraction stage
             //printWriterClassName=className_<MOD}|BLK|...>
             if(parameterFile != null && !classNameAttrsMap.containsKey(printWriterClassName) ){
@@ -1081,8 +3437,7 @@ public class HuaweiMMLParser {
             
             //Add headers
             if(!moiPrintWriters.containsKey(printWriterClassName)){
-                String moiFile = outputDirectory + File.separatorChar + printWriterClassName +  ".csv";
-                moiPrintWriters.put(printWriterClassName, new PrintWriter(moiFile));
+                moiPrintWriters.put(printWriterClassName, output.open(printWriterClassName, false));
                 
                 String pNameStr = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
                 
@@ -1095,6 +3450,10 @@ public class HuaweiMMLParser {
                     while(iter.hasNext()){
                         Map.Entry<String, String> me = iter.next();
                         String pName = me.getKey();
+                        
+                        if( parameterSelector != null && !parameterSelector.selects(printWriterClassName, pName) ){
+                            continue;
+                        }
                         attrStack.push(pName);
 
                         //Handle multivalued parameter or parameters with children
@@ -1162,55 +3521,22 @@ public class HuaweiMMLParser {
                 
                 if( parameterFile == null ){
                     //Initialize the MO parameter map hash map
-                   if(keyWord.equals("ACT")){
-                        actClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("BLK")){
-                        blkClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("MOD")){
-                        modClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("DEA")){
-                        deaClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("UBL")){
-                        ublClassNameAttrsMap.put(moName,attrStack);
-                    }
-                    if(keyWord.equals("UIN")){
-                        uinClassNameAttrsMap.put(moName,attrStack);
-                    }
+                    verbAttrsMap.put(moName,attrStack);
                 }
 
                 
+                if(rowHash == true) pNameStr += "," + RowHash.COLUMN;
+                
                 moiPrintWriters.get(printWriterClassName).println(pNameStr);
             }
             
-            String pValueStr = baseFileName + "," + dateTime +","+bscId+ "," + version + "," + IP + 
-                    ","+MbscMode;
+            if(stats != null) stats.addRow(printWriterClassName, verbAttrsMap.get(moName), attrValueMap);
+            
+            String pValueStr = meta;
             
             //Add the parameter values 
-            Stack attrStack = new Stack();
-
-               if(keyWord.equals("ACT")){
-                    attrStack = actClassNameAttrsMap.get(moName);
-                }
-                if(keyWord.equals("BLK")){
-                    attrStack = blkClassNameAttrsMap.get(moName);
-                }
-                if(keyWord.equals("MOD")){
-                    attrStack = modClassNameAttrsMap.get(moName);
-                }
-                if(keyWord.equals("DEA")){
-                    attrStack = deaClassNameAttrsMap.get(moName);
-                }
-                if(keyWord.equals("UBL")){
-                    attrStack = ublClassNameAttrsMap.get(moName);
-                }
-                if(keyWord.equals("UIN")){
-                    attrStack = uinClassNameAttrsMap.get(moName);
-                }
-                
+            Stack attrStack = verbAttrsMap.get(moName);
+            long hash = 0;
                
             Iterator <String> sIter = attrStack.iterator();
             while(sIter.hasNext()){
@@ -1223,6 +3549,8 @@ public class HuaweiMMLParser {
                     pName.toLowerCase().equals("omu_ip") || 
                     pName.toLowerCase().equals("mbsc mode") ) continue;
 
+                if(rowHash == true) hash += RowHash.hash(pName, attrValueMap.get(pName));
+                
                 String mvParameter = moName + "_" + pName;
                 
                 String pValue = "";
@@ -1248,7 +3576,7 @@ public class HuaweiMMLParser {
                             String childParam = (String)childParameters.get(idx);
                             
                             if(paramValueMap.containsKey(childParam)){
-                                String mvValue = (String)paramValueMap.get(childParam);
+                                String mvValue = paramValueMap.get(childParam);
                                 pValueStr += "," + toCSVFormat(mvValue);
                             }else{
                                 pValueStr += ",";
@@ -1271,6 +3599,8 @@ public class HuaweiMMLParser {
                 pValueStr += ","+ toCSVFormat(pValue);
             }
             
+            if(rowHash == true) pValueStr += "," + hash;
+            
             moiPrintWriters.get(printWriterClassName).println(pValueStr);
             
             
@@ -1358,22 +3688,7 @@ public class HuaweiMMLParser {
      * @return String Formated version of input string
      */
     public String toCSVFormat(String s) {
-        String csvValue = s;
-
-        //Strip start and end quotes
-        s = s.replaceAll("^\"|\"$", "");
-        
-        //Check if value contains comma
-        if (s.contains(",")) {
-            csvValue = "\"" + s + "\"";
-        }
-
-        
-        if (s.contains("\"")) {
-            csvValue = "\"" + s.replace("\"", "\"\"") + "\"";
-        }
-
-        return csvValue;
+        return CSVUtil.toCSVFormat(s);
     }
     
     /**
@@ -1385,6 +3700,25 @@ public class HuaweiMMLParser {
      */
     public void setOutputDirectory(String directoryName ){
         this.outputDirectory = directoryName;
+        this.output = OutputTarget.toDirectory(directoryName);
+        output.setFormat(outputFormat);
+        output.setWriterThreads(writerThreads);
+        if(partitionFiles > 0) output.setPartitioned(partitionFiles);
+    }
+    
+    /**
+     * Write all the outputs to a stream as tagged csv lines instead of 
+     * files. There is no output directory so checkpoints are not written.
+     * 
+     * @since 1.3.1
+     * @param out
+     */
+    public void setOutputStream(OutputStream out){
+        this.outputDirectory = null;
+        this.output = OutputTarget.toStream(out);
+        output.setFormat(outputFormat);
+        output.setWriterThreads(writerThreads);
+        if(partitionFiles > 0) output.setPartitioned(partitionFiles);
     }
      
     /**
@@ -1408,5 +3742,8 @@ public class HuaweiMMLParser {
      */
     public void setDataSource(String dataSource ){
         this.dataSource = dataSource;
+        
+        //stdin can only be read once
+        if(dataSource.equals("-")) singlePass = true;
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Distinct value count estimate.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values seen in a
+ * fixed 4 KB of registers. The standard error is about 1.6%.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class HyperLogLog {
+
+    /**
+     * Bits of the hash used to pick a register.
+     */
+    private static final int P = 12;
+
+    private static final int M = 1 << P;
+
+    /**
+     * Start value of an FNV-1a hash.
+     */
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private byte [] registers = new byte[M];
+
+    /**
+     * Add the 64 bit hash of a value.
+     *
+     * @since 1.3.1
+     * @param hash
+     */
+    public void add(long hash){
+        int index = (int)(hash >>> (64 - P));
+        int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+        if(rank > registers[index]) registers[index] = (byte)rank;
+    }
+
+    /**
+     * Add the values seen by another sketch.
+     *
+     * @since 1.3.1
+     * @param other
+     */
+    public void merge(HyperLogLog other){
+        for(int i = 0; i < M; i++){
+            if(other.registers[i] > registers[i]) registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values.
+     *
+     * @since 1.3.1
+     */
+    public long estimate(){
+        double sum = 0;
+        int zeros = 0;
+        for(int i = 0; i < M; i++){
+            sum += 1.0 / (1L << registers[i]);
+            if(registers[i] == 0) zeros++;
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / M);
+        double estimate = alpha * M * M / sum;
+
+        //Linear counting is more accurate for small sets
+        if(estimate <= 2.5 * M && zeros > 0){
+            estimate = M * Math.log((double)M / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Returns a 64 bit hash of a string for the sketches.
+     *
+     * @since 1.3.1
+     * @param value
+     */
+    public static long hash(String value){
+        return mix(fnv(FNV_OFFSET, value));
+    }
+
+    /**
+     * Continue an FNV-1a hash over the characters of a string.
+     *
+     * @since 1.3.1
+     * @param h Hash so far e.g. FNV_OFFSET
+     * @param value
+     */
+    static long fnv(long h, String value){
+        for(int i = 0, len = value.length(); i < len; i++){
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Spread the bits of an FNV-1a hash with the murmur3 finaliser.
+     *
+     * @since 1.3.1
+     * @param h
+     */
+    static long mix(long h){
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
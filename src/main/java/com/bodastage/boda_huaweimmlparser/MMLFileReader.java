@@ -0,0 +1,629 @@
+/*
+ * Byte oriented line reader for CFGMML dumps.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Reads lines from a CFGMML file while keeping track of the byte offset of
+ * the next unread line. The offset is used to checkpoint and resume parsing
+ * of large files.
+ * 
+ * Lines made up of only ASCII bytes are converted to strings directly. The
+ * charset decoder is only used for lines with non-ASCII characters such as
+ * Chinese cell names. The charset must therefore be ASCII compatible e.g. 
+ * UTF-8, GBK or ISO-8859-1.
+ * 
+ * readCommand() frames whole MML commands on the ; terminator instead of
+ * lines so that commands wrapped over several lines and lines with several
+ * commands are parsed like one command per line.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MMLFileReader {
+
+    /**
+     * Default read buffer size.
+     *
+     * @since 1.3.1
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Number of bytes sampled from the start of the file to detect the charset.
+     * 
+     * @since 1.3.1
+     */
+    static final int DETECTION_SAMPLE_SIZE = 64 * 1024;
+
+    private InputStream inputStream;
+
+    private Charset charset;
+    
+    private CharsetDecoder decoder;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Index of the next unread byte in the buffer.
+     */
+    private int bufferPos = 0;
+
+    /**
+     * Number of valid bytes in the buffer.
+     */
+    private int bufferLimit = 0;
+
+    /**
+     * File offset of the first byte in the buffer.
+     */
+    private long bufferOffset = 0;
+
+    private boolean eof = false;
+    
+    /**
+     * Lines of a wrapped command joined so far.
+     */
+    private byte[] command = new byte[1024];
+    private int commandLength = 0;
+    
+    /**
+     * File offset of the last command returned by readCommand().
+     */
+    private long commandOffset = 0;
+    
+    /**
+     * Bytes to have in the buffer after a line break to see whether the next
+     * line continues the command.
+     */
+    static final int LOOKAHEAD = 256;
+
+    public MMLFileReader(String filename, Charset charset) throws IOException{
+        this(new FileInputStream(filename), charset);
+    }
+    
+    /**
+     * Read lines from a stream such as stdin. Streams other than files can
+     * not seek.
+     * 
+     * @since 1.3.1
+     * @param in
+     * @param charset
+     */
+    public MMLFileReader(InputStream in, Charset charset) throws IOException{
+        if(!isAsciiCompatible(charset)){
+            in.close();
+            throw new IllegalArgumentException("Unsupported input encoding: " + charset.name());
+        }
+        
+        this.inputStream = in;
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        
+        //Skip the UTF-8 byte order mark
+        if(charset.name().equals("UTF-8")){
+            fill(0);
+            if(bufferLimit >= 3 && buffer[0] == (byte)0xEF 
+                    && buffer[1] == (byte)0xBB && buffer[2] == (byte)0xBF){
+                bufferPos = 3;
+            }
+        }
+    }
+    
+    /**
+     * Returns true if the charset encodes ASCII characters as single ASCII 
+     * bytes. Lines are split on the newline byte and ASCII lines are not 
+     * decoded so other charsets such as UTF-16 are not supported.
+     * 
+     * @since 1.3.1
+     */
+    static boolean isAsciiCompatible(Charset charset){
+        try{
+            byte [] b = "\n;=/AZaz09".getBytes(charset.name());
+            return new String(b, "US-ASCII").equals("\n;=/AZaz09");
+        }catch(Exception e){
+            return false;
+        }
+    }
+    
+    /**
+     * Detect the charset of a CFGMML file from the header block and the 
+     * lines after it. A byte order mark or valid non-ASCII UTF-8 sequences 
+     * select UTF-8. Other non-ASCII bytes are treated as GBK which is used 
+     * for the Chinese cell and site names in the dumps. The fallback is used
+     * when the sample is plain ASCII.
+     * 
+     * @since 1.3.1
+     * @param filename
+     * @param fallback Charset to use when the sample is plain ASCII
+     * @return Charset
+     */
+    public static Charset detectCharset(String filename, Charset fallback) throws IOException{
+        FileInputStream in = new FileInputStream(filename);
+        try{
+            return detectCharset(in, fallback);
+        }finally{
+            in.close();
+        }
+    }
+    
+    /**
+     * Detect the charset from the start of a stream. Streams that support 
+     * mark e.g. BufferedInputStream are reset to where they were.
+     * 
+     * @since 1.3.1
+     * @param in
+     * @param fallback Charset to use when the sample is plain ASCII
+     * @return Charset
+     */
+    public static Charset detectCharset(InputStream in, Charset fallback) throws IOException{
+        byte [] sample = new byte[DETECTION_SAMPLE_SIZE];
+        int len = 0;
+        
+        boolean reset = in.markSupported();
+        if(reset) in.mark(sample.length);
+        
+        int n;
+        while(len < sample.length && (n = in.read(sample, len, sample.length - len)) > 0){
+            len += n;
+        }
+        
+        if(reset) in.reset();
+        
+        if(len >= 3 && sample[0] == (byte)0xEF && sample[1] == (byte)0xBB 
+                && sample[2] == (byte)0xBF){
+            return Charset.forName("UTF-8");
+        }
+        
+        int firstNonAscii = -1;
+        for(int i = 0; i < len; i++){
+            if(sample[i] < 0){
+                firstNonAscii = i;
+                break;
+            }
+        }
+        
+        if(firstNonAscii < 0) return fallback;
+        
+        //Drop a possibly truncated UTF-8 sequence at the end of the sample
+        int end = len;
+        if(len == sample.length){
+            for(int i = len - 1; i >= Math.max(firstNonAscii, len - 3); i--){
+                int b = sample[i] & 0xFF;
+                if(b < 0x80) break;
+                if(b >= 0xC0){
+                    int sequence = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                    if(len - i < sequence) end = i;
+                    break;
+                }
+            }
+        }
+        
+        CharsetDecoder utf8 = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try{
+            utf8.decode(ByteBuffer.wrap(sample, 0, end));
+            return Charset.forName("UTF-8");
+        }catch(CharacterCodingException e){
+            //Not UTF-8
+        }
+        
+        if(Charset.isSupported("GBK")) return Charset.forName("GBK");
+        
+        return fallback;
+    }
+    
+    /**
+     * Returns the charset used to decode lines.
+     * 
+     * @since 1.3.1
+     */
+    public Charset getCharset(){
+        return charset;
+    }
+
+    /**
+     * Returns the byte offset of the next unread line.
+     *
+     * @since 1.3.1
+     * @return long
+     */
+    public long getPosition(){
+        return bufferOffset + bufferPos;
+    }
+
+    /**
+     * Move to the given byte offset. The offset should be at the start of a
+     * line i.e. a value previously returned by getPosition().
+     *
+     * @since 1.3.1
+     * @param position
+     */
+    public void seek(long position) throws IOException{
+        if(!(inputStream instanceof FileInputStream)){
+            throw new IOException("Can not seek in a stream");
+        }
+        ((FileInputStream)inputStream).getChannel().position(position);
+        bufferOffset = position;
+        bufferPos = 0;
+        bufferLimit = 0;
+        eof = false;
+    }
+
+    /**
+     * Read the next line without the line terminator.
+     *
+     * @since 1.3.1
+     * @return String or null at the end of the file
+     */
+    public String readLine() throws IOException{
+        int start = bufferPos;
+        int scan = bufferPos;
+
+        while(true){
+            for(; scan < bufferLimit; scan++){
+                if(buffer[scan] == '\n'){
+                    bufferPos = scan + 1;
+                    return decode(start, scan);
+                }
+            }
+
+            if(eof) break;
+
+            //Keep the partial line and read more bytes
+            int partial = scan - start;
+            fill(start);
+            start = 0;
+            scan = partial;
+        }
+
+        if(start == bufferLimit) return null;
+
+        bufferPos = bufferLimit;
+        return decode(start, bufferLimit);
+    }
+
+    /**
+     * Read the next command up to and including its ; terminator. Commands
+     * wrapped over several lines are joined and several commands on a line
+     * are returned one at a time. A ; inside double quotes does not end a 
+     * command. Quotes do not span lines so an unbalanced quote only affects
+     * its own line.
+     * 
+     * Header lines starting with // and lines without a terminator such as 
+     * report text are returned as they are. A line break ends a command 
+     * when the text so far has no : or the next line is blank, is a header 
+     * line or starts another command.
+     *
+     * @since 1.3.1
+     * @return String or null at the end of the file
+     */
+    public String readCommand() throws IOException{
+        //Skip whitespace between commands
+        while(true){
+            if(bufferPos == bufferLimit){
+                if(eof) return null;
+                fill(bufferPos);
+                continue;
+            }
+            byte b = buffer[bufferPos];
+            if(b != ' ' && b != '\t' && b != '\r' && b != '\n') break;
+            bufferPos++;
+        }
+        
+        commandOffset = getPosition();
+        if(buffer[bufferPos] == '/') return readLine();
+        
+        commandLength = 0;
+        int start = bufferPos;
+        int scan = bufferPos;
+        boolean quoted = false;
+        boolean hasColon = false;
+        
+        while(true){
+            for(; scan < bufferLimit; scan++){
+                byte b = buffer[scan];
+                if(b == '"'){
+                    quoted = !quoted;
+                }else if(b == ';' && !quoted){
+                    bufferPos = scan + 1;
+                    return finishCommand(start, scan + 1);
+                }else if(b == ':'){
+                    hasColon = true;
+                }else if(b == '\n'){
+                    //Have the start of the next line in the buffer
+                    if(bufferLimit - scan <= LOOKAHEAD && !eof){
+                        break;
+                    }
+                    
+                    if(!hasColon || !continuesCommand(scan + 1)){
+                        bufferPos = scan + 1;
+                        return finishCommand(start, scan);
+                    }
+                    
+                    appendToCommand(start, scan);
+                    start = scan + 1;
+                    quoted = false;
+                }
+            }
+            
+            if(scan == bufferLimit && eof) break;
+
+            //Keep the partial command and read more bytes
+            int partial = scan - start;
+            fill(start);
+            start = 0;
+            scan = partial;
+        }
+        
+        bufferPos = bufferLimit;
+        if(start == bufferLimit && commandLength == 0) return null;
+        return finishCommand(start, bufferLimit);
+    }
+    
+    private static final int SCAN_START = 0;
+    private static final int SCAN_VERB = 1;
+    private static final int SCAN_SPACE = 2;
+    private static final int SCAN_MO = 3;
+    private static final int SCAN_REST = 4;
+    private static final int SCAN_HEADER = 5;
+    
+    /**
+     * Count the remaining commands by verb and MO without decoding them. A 
+     * command is counted when it starts with an upper case verb, spaces, 
+     * the MO name and a colon at the start of a line or after a ; so the 
+     * lines of wrapped commands are not counted twice.
+     * 
+     * The // lines before the first command are added to headerLines.
+     *
+     * @since 1.3.1
+     * @param counter
+     * @param headerLines Header block of the file
+     */
+    public void countCommands(CommandCounter counter, List<String> headerLines) throws IOException{
+        byte[] key = new byte[128];
+        int keyLength = 0;
+        int state = SCAN_START;
+        boolean quoted = false;
+        boolean inHeader = true;
+        int headerStart = 0;
+        
+        while(true){
+            if(bufferPos == bufferLimit){
+                if(eof) break;
+                //Keep a header line being read
+                int keep = state == SCAN_HEADER ? headerStart : bufferPos;
+                fill(keep);
+                headerStart -= keep;
+                continue;
+            }
+            
+            byte b = buffer[bufferPos++];
+            
+            if(b == '\n'){
+                if(state == SCAN_HEADER){
+                    headerLines.add(decode(headerStart, bufferPos - 1));
+                }
+                state = SCAN_START;
+                quoted = false;
+                continue;
+            }
+            
+            switch(state){
+                case SCAN_START:
+                    if(b >= 'A' && b <= 'Z'){
+                        key[0] = b;
+                        keyLength = 1;
+                        state = SCAN_VERB;
+                        inHeader = false;
+                    }else if(b == '/' && inHeader){
+                        headerStart = bufferPos - 1;
+                        state = SCAN_HEADER;
+                    }else if(b != ' ' && b != '\t' && b != '\r'){
+                        state = b == ';' ? SCAN_START : SCAN_REST;
+                        quoted = b == '"';
+                    }
+                    break;
+                case SCAN_VERB:
+                    if(b >= 'A' && b <= 'Z' && keyLength < 64){
+                        key[keyLength++] = b;
+                    }else if(b == ' '){
+                        key[keyLength++] = ' ';
+                        state = SCAN_SPACE;
+                    }else{
+                        state = b == ';' ? SCAN_START : SCAN_REST;
+                        quoted = b == '"';
+                    }
+                    break;
+                case SCAN_SPACE:
+                case SCAN_MO:
+                    if(((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') 
+                            || (b >= '0' && b <= '9') || b == '_') && keyLength < key.length){
+                        key[keyLength++] = b;
+                        state = SCAN_MO;
+                    }else if(b == ' ' && state == SCAN_SPACE){
+                        //More spaces after the verb
+                    }else{
+                        if(b == ':' && state == SCAN_MO) counter.add(key, keyLength);
+                        state = b == ';' ? SCAN_START : SCAN_REST;
+                        quoted = b == '"';
+                    }
+                    break;
+                case SCAN_REST:
+                    if(b == '"'){
+                        quoted = !quoted;
+                    }else if(b == ';' && !quoted){
+                        state = SCAN_START;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        
+        if(state == SCAN_HEADER && bufferLimit > headerStart){
+            headerLines.add(decode(headerStart, bufferLimit));
+        }
+    }
+    
+    /**
+     * Returns the offset of the first line at or after offset that starts a
+     * command or a header, or the file length if there is none. Wrapped 
+     * commands continue on lines that do not start a command so a range 
+     * starting at the returned offset does not begin inside one.
+     * 
+     * @since 1.3.1
+     * @param filename
+     * @param offset
+     */
+    public static long findCommandStart(String filename, long offset) throws IOException{
+        MMLFileReader reader = new MMLFileReader(new FileInputStream(filename), Charset.forName("ISO-8859-1"));
+        try{
+            reader.seek(offset);
+            
+            //Skip the rest of the line offset is in
+            if(reader.readLine() == null) return reader.getPosition();
+            
+            while(true){
+                long position = reader.getPosition();
+                while(reader.bufferLimit - reader.bufferPos < LOOKAHEAD && !reader.eof){
+                    reader.fill(reader.bufferPos);
+                }
+                if(reader.bufferPos == reader.bufferLimit) return position;
+                
+                //Blank lines do not start anything
+                byte b = reader.buffer[reader.bufferPos];
+                if(b != '\r' && b != '\n' && !reader.continuesCommand(reader.bufferPos)){
+                    return position;
+                }
+                reader.readLine();
+            }
+        }finally{
+            reader.close();
+        }
+    }
+    
+    /**
+     * Returns the file offset of the last command returned by readCommand().
+     * 
+     * @since 1.3.1
+     */
+    public long getCommandOffset(){
+        return commandOffset;
+    }
+    
+    /**
+     * Returns true if the line at pos continues a wrapped command i.e. it is
+     * not blank, not a header line and does not start with a verb and MO 
+     * such as ADD GCELL:
+     */
+    private boolean continuesCommand(int pos){
+        int i = pos;
+        while(i < bufferLimit && (buffer[i] == ' ' || buffer[i] == '\t')) i++;
+        if(i == bufferLimit || buffer[i] == '\r' || buffer[i] == '\n' || buffer[i] == '/') return false;
+        
+        int verbStart = i;
+        while(i < bufferLimit && buffer[i] >= 'A' && buffer[i] <= 'Z') i++;
+        if(i - verbStart < 2 || i == bufferLimit || buffer[i] != ' ') return true;
+        while(i < bufferLimit && buffer[i] == ' ') i++;
+        
+        int moStart = i;
+        while(i < bufferLimit && ((buffer[i] >= 'A' && buffer[i] <= 'Z') 
+                || (buffer[i] >= '0' && buffer[i] <= '9') || buffer[i] == '_')) i++;
+        return i == moStart || i == bufferLimit || buffer[i] != ':';
+    }
+    
+    /**
+     * Append the line buffer[start..end) of a wrapped command. A space is 
+     * added after a trailing comma to keep the parameter separator.
+     */
+    private void appendToCommand(int start, int end){
+        if(end > start && buffer[end-1] == '\r') end--;
+        
+        int length = end - start;
+        if(commandLength + length + 1 > command.length){
+            byte[] bigger = new byte[Math.max(command.length * 2, commandLength + length + 1)];
+            System.arraycopy(command, 0, bigger, 0, commandLength);
+            command = bigger;
+        }
+        System.arraycopy(buffer, start, command, commandLength, length);
+        commandLength += length;
+        
+        if(length > 0 && command[commandLength-1] == ','){
+            command[commandLength++] = ' ';
+        }
+    }
+    
+    private String finishCommand(int start, int end) throws CharacterCodingException{
+        if(commandLength == 0) return decode(buffer, start, end);
+        
+        appendToCommand(start, end);
+        return decode(command, 0, commandLength);
+    }
+
+    /**
+     * Decode buffer[start..end) stripping a trailing carriage return.
+     */
+    private String decode(int start, int end) throws CharacterCodingException{
+        return decode(buffer, start, end);
+    }
+    
+    @SuppressWarnings("deprecation")
+    private String decode(byte[] bytes, int start, int end) throws CharacterCodingException{
+        if(end > start && bytes[end-1] == '\r') end--;
+        
+        for(int i = start; i < end; i++){
+            if(bytes[i] < 0){
+                return decoder.decode(ByteBuffer.wrap(bytes, start, end - start)).toString();
+            }
+        }
+        
+        //ASCII bytes map one to one to chars
+        return new String(bytes, 0, start, end - start);
+    }
+
+    /**
+     * Shift unread bytes from keepFrom to the front of the buffer and read
+     * more data after them. The buffer grows for lines longer than it.
+     */
+    private void fill(int keepFrom) throws IOException{
+        int remaining = bufferLimit - keepFrom;
+
+        if(keepFrom == 0 && remaining == buffer.length){
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, remaining);
+            buffer = bigger;
+        }else if(remaining > 0){
+            System.arraycopy(buffer, keepFrom, buffer, 0, remaining);
+        }
+
+        bufferOffset += keepFrom;
+        bufferPos -= keepFrom;
+        if(bufferPos < 0) bufferPos = 0;
+        bufferLimit = remaining;
+
+        int n = inputStream.read(buffer, bufferLimit, buffer.length - bufferLimit);
+        if(n < 0){
+            eof = true;
+        }else{
+            bufferLimit += n;
+        }
+    }
+
+    public void close() throws IOException{
+        inputStream.close();
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Compares the MO csv outputs of two CFGMML snapshots.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the MO instances and parameter values that were added, removed or
+ * changed between two snapshots. Each snapshot is a directory of MO csv
+ * files as written by the parser.
+ *
+ * Rows are matched on BSCID and the identifying parameters of the MO. Both
+ * sides of an MO are hash partitioned on the key so that only one partition
+ * of the old snapshot is held in memory while the matching partition of the
+ * new snapshot is streamed against it.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MODiff {
+
+    public static final String ADDED = "ADDED";
+    public static final String REMOVED = "REMOVED";
+    public static final String CHANGED = "CHANGED";
+
+    /**
+     * Approximate memory used per byte of csv held in memory.
+     */
+    private static final int MEMORY_PER_BYTE = 4;
+
+    private long memoryLimit = 256L * 1024 * 1024;
+
+    private MOKeyColumns keyColumns = new MOKeyColumns();
+
+    private long added = 0;
+    private long removed = 0;
+    private long changed = 0;
+
+    public void setMemoryLimit(long bytes){
+        memoryLimit = bytes;
+    }
+
+    public void setKeyColumns(MOKeyColumns keyColumns){
+        this.keyColumns = keyColumns;
+    }
+
+    public long getAddedCount(){
+        return added;
+    }
+
+    public long getRemovedCount(){
+        return removed;
+    }
+
+    public long getChangedCount(){
+        return changed;
+    }
+
+    /**
+     * Compare the MO csv files in two directories and write the differences
+     * to the given file.
+     *
+     * @since 1.3.1
+     * @param oldDirectory Baseline snapshot
+     * @param newDirectory Current snapshot
+     * @param diffFile Output csv
+     */
+    public void diff(File oldDirectory, File newDirectory, File diffFile) throws IOException{
+        PrintWriter out = new PrintWriter(diffFile);
+        try{
+            diff(oldDirectory, newDirectory, out);
+        }finally{
+            out.close();
+        }
+    }
+
+    /**
+     * Compare the MO csv files in two directories and write the differences
+     * as csv lines to out.
+     *
+     * @since 1.3.1
+     * @param oldDirectory Baseline snapshot
+     * @param newDirectory Current snapshot
+     * @param out
+     */
+    public void diff(File oldDirectory, File newDirectory, PrintWriter out) throws IOException{
+        Set<String> moNames = new LinkedHashSet<String>();
+        moNames.addAll(listOutputs(oldDirectory));
+        moNames.addAll(listOutputs(newDirectory));
+
+        out.println("MO,BSCID,KEY,CHANGE,PARAMETER,OLD_VALUE,NEW_VALUE");
+        for(String moName : moNames){
+            diffMO(moName, new File(oldDirectory, moName + ".csv"),
+                    new File(newDirectory, moName + ".csv"), out);
+        }
+    }
+
+    private List<String> listOutputs(File directory){
+        List<String> names = new ArrayList<String>();
+        File [] files = directory.listFiles();
+        if(files == null) return names;
+        for(File f : files){
+            String name = f.getName();
+            if(f.isFile() && name.endsWith(".csv")){
+                names.add(name.substring(0, name.length() - 4));
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private void diffMO(String moName, File oldFile, File newFile, PrintWriter out) throws IOException{
+        String [] oldHeader = readHeader(oldFile);
+        String [] newHeader = readHeader(newFile);
+
+        //Compare on the union of the columns
+        Set<String> columns = new LinkedHashSet<String>();
+        for(int i = HuaweiMMLParser.META_FIELDS.length; i < oldHeader.length; i++) columns.add(oldHeader[i]);
+        for(int i = HuaweiMMLParser.META_FIELDS.length; i < newHeader.length; i++) columns.add(newHeader[i]);
+        String [] parameters = columns.toArray(new String[columns.size()]);
+
+        String [] keys = keyColumns.get(moName, newHeader.length > 0 ? newHeader : oldHeader);
+
+        Side oldSide = new Side(oldHeader, keys, parameters);
+        Side newSide = new Side(newHeader, keys, parameters);
+
+        long size = Math.max(length(oldFile), length(newFile));
+        int partitionCount = (int)Math.max(1, (size * MEMORY_PER_BYTE + memoryLimit - 1) / memoryLimit);
+
+        if(partitionCount == 1){
+            join(moName, oldFile, oldSide, newFile, newSide, parameters, out);
+            return;
+        }
+
+        File workDir = new File(newFile.getParentFile(), ".diff-" + moName);
+        workDir.mkdirs();
+        try{
+            File [] oldParts = partition(oldFile, oldSide, new File(workDir, "old"), partitionCount);
+            File [] newParts = partition(newFile, newSide, new File(workDir, "new"), partitionCount);
+            for(int p = 0; p < partitionCount; p++){
+                join(moName, oldParts[p], oldSide, newParts[p], newSide, parameters, out);
+                oldParts[p].delete();
+                newParts[p].delete();
+            }
+        }finally{
+            new File(workDir, "old").delete();
+            new File(workDir, "new").delete();
+            workDir.delete();
+        }
+    }
+
+    /**
+     * Join one partition. The old rows are loaded into memory and the new
+     * rows are streamed against them.
+     */
+    private void join(String moName, File oldFile, Side oldSide, File newFile, Side newSide,
+            String[] parameters, PrintWriter out) throws IOException{
+        Map<String, String[]> oldRows = new LinkedHashMap<String, String[]>();
+
+        BufferedReader br = open(oldFile);
+        try{
+            for(String line; br != null && (line = br.readLine()) != null; ) {
+                String [] fields = CSVUtil.split(line);
+                oldRows.put(oldSide.getKey(fields), fields);
+            }
+        }finally{
+            if(br != null) br.close();
+        }
+
+        //Keys of the new rows already reported. Repeated rows are skipped.
+        Set<String> seen = new HashSet<String>();
+        br = open(newFile);
+        try{
+            for(String line; br != null && (line = br.readLine()) != null; ) {
+                String [] fields = CSVUtil.split(line);
+                String key = newSide.getKey(fields);
+                if(!seen.add(key)) continue;
+
+                String [] oldFields = oldRows.remove(key);
+                if(oldFields == null){
+                    writeChange(out, moName, key, ADDED, "", "", "");
+                    added++;
+                    continue;
+                }
+
+                compare(moName, key, oldFields, fields, oldSide, newSide, parameters, out);
+            }
+        }finally{
+            if(br != null) br.close();
+        }
+
+        Iterator<String> iter = oldRows.keySet().iterator();
+        while(iter.hasNext()){
+            writeChange(out, moName, iter.next(), REMOVED, "", "", "");
+            removed++;
+        }
+    }
+
+    private void compare(String moName, String key, String[] oldFields, String[] newFields,
+            Side oldSide, Side newSide, String[] parameters, PrintWriter out){
+        for(int i = 0; i < parameters.length; i++){
+            String oldValue = oldSide.getValue(oldFields, i);
+            String newValue = newSide.getValue(newFields, i);
+            if(!oldValue.equals(newValue)){
+                writeChange(out, moName, key, CHANGED, parameters[i], oldValue, newValue);
+                changed++;
+            }
+        }
+    }
+
+    private void writeChange(PrintWriter out, String moName, String key, String change,
+            String parameter, String oldValue, String newValue){
+        int sep = key.indexOf('\u0000');
+        String bscId = key.substring(0, sep);
+        String instance = key.substring(sep + 1);
+        out.println(CSVUtil.escape(moName) + "," + CSVUtil.escape(bscId) + ","
+                + CSVUtil.escape(instance) + "," + change + "," + CSVUtil.escape(parameter) + ","
+                + CSVUtil.escape(oldValue) + "," + CSVUtil.escape(newValue));
+    }
+
+    /**
+     * Hash partition the rows of a file on the key.
+     */
+    private File[] partition(File csvFile, Side side, File directory, int partitionCount) throws IOException{
+        directory.mkdirs();
+        File [] parts = new File[partitionCount];
+        BufferedWriter [] writers = new BufferedWriter[partitionCount];
+        BufferedReader br = open(csvFile);
+        try{
+            for(int p = 0; p < partitionCount; p++){
+                parts[p] = new File(directory, "part-" + p);
+                writers[p] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(parts[p])));
+                writers[p].write(side.headerLine);
+                writers[p].newLine();
+            }
+
+            for(String line; br != null && (line = br.readLine()) != null; ) {
+                String key = side.getKey(CSVUtil.split(line));
+                int p = (key.hashCode() & Integer.MAX_VALUE) % partitionCount;
+                writers[p].write(line);
+                writers[p].newLine();
+            }
+        }finally{
+            if(br != null) br.close();
+            for(int p = 0; p < partitionCount; p++){
+                if(writers[p] != null) writers[p].close();
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Open a csv file positioned after its header or return null if it does
+     * not exist.
+     */
+    private BufferedReader open(File csvFile) throws IOException{
+        if(!csvFile.isFile()) return null;
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile)));
+        br.readLine();
+        return br;
+    }
+
+    private String[] readHeader(File csvFile) throws IOException{
+        if(!csvFile.isFile()) return new String[0];
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile)));
+        try{
+            String line = br.readLine();
+            return line == null ? new String[0] : CSVUtil.split(line);
+        }finally{
+            br.close();
+        }
+    }
+
+    private long length(File f){
+        return f.isFile() ? f.length() : 0;
+    }
+
+    /**
+     * Column positions of one side of the comparison.
+     */
+    private static class Side {
+        String headerLine;
+        int bscIdIndex;
+        String [] keys;
+        int [] keyIndices;
+        int [] parameterIndices;
+
+        Side(String[] header, String[] keys, String[] parameters){
+            StringBuilder sb = new StringBuilder();
+            for(int i = 0; i < header.length; i++){
+                if(i > 0) sb.append(',');
+                sb.append(CSVUtil.escape(header[i]));
+            }
+            headerLine = sb.toString();
+            bscIdIndex = CSVUtil.indexOf(header, new String[]{"BSCID"})[0];
+            this.keys = keys;
+            keyIndices = CSVUtil.indexOf(header, keys);
+            parameterIndices = CSVUtil.indexOf(header, parameters);
+        }
+
+        /**
+         * Returns the BSCID, a NUL separator and the instance key e.g. 
+         * CELLID=1;TRXID=0.
+         */
+        String getKey(String[] fields){
+            StringBuilder sb = new StringBuilder();
+            if(bscIdIndex >= 0) sb.append(fields[bscIdIndex]);
+            sb.append('\u0000');
+            for(int i = 0; i < keyIndices.length; i++){
+                if(i > 0) sb.append(';');
+                sb.append(keys[i]).append('=');
+                if(keyIndices[i] >= 0 && keyIndices[i] < fields.length){
+                    sb.append(fields[keyIndices[i]]);
+                }
+            }
+            return sb.toString();
+        }
+
+        String getValue(String[] fields, int parameter){
+            int idx = parameterIndices[parameter];
+            if(idx < 0 || idx >= fields.length) return "";
+            return fields[idx];
+        }
+    }
+}
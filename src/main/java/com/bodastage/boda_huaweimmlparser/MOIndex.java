@@ -0,0 +1,283 @@
+/*
+ * Row offset index of an MO csv file.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the values of some columns of an MO csv file e.g. BSCID, FILENAME
+ * and CELLID to the byte offsets of the rows with the value, so the rows
+ * can be read without scanning the file.
+ *
+ * Consecutive rows with the same value are stored as one run of an offset
+ * and a row count. Rows are written file by file so the meta fields are
+ * a few runs per value.
+ *
+ * The index is saved next to the csv file as a csv file with the suffix
+ * .idx e.g. GCELL.csv.idx:
+ *
+ * <pre>
+ * COLUMN,VALUE,OFFSET,ROWS
+ * BSCID,100,98,5020
+ * CELLID,7,1874,1
+ * </pre>
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MOIndex {
+
+    public static final String EXTENSION = ".idx";
+
+    /**
+     * The csv outputs are written in the default charset.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Column name to value to runs of {offset, rows}.
+     */
+    private Map<String, Map<String, List<long[]>>> runs
+            = new LinkedHashMap<String, Map<String, List<long[]>>>();
+
+    /**
+     * Returns the index file of a csv file.
+     *
+     * @since 1.3.1
+     * @param csvFile
+     */
+    public static File getIndexFile(File csvFile){
+        return new File(csvFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Index the columns of a csv file. Columns not in the header are
+     * ignored.
+     *
+     * @since 1.3.1
+     * @param csvFile
+     * @param columns Column names e.g. BSCID, FILENAME, CELLID
+     * @return MOIndex
+     */
+    public static MOIndex build(File csvFile, String[] columns) throws IOException{
+        MOIndex index = new MOIndex();
+
+        InputStream in = new FileInputStream(csvFile);
+        try{
+            byte [] buffer = new byte[65536];
+            byte [] line = new byte[1024];
+            int lineLength = 0;
+            long offset = 0, lineOffset = 0;
+
+            int [] indices = null;
+            String [] names = null;
+            String [] current = null;
+            long [][] openRuns = null;
+
+            for(int n; (n = in.read(buffer)) > 0; ){
+                for(int i = 0; i < n; i++){
+                    byte b = buffer[i];
+                    if(b != '\n'){
+                        if(lineLength == line.length){
+                            byte [] bigger = new byte[line.length * 2];
+                            System.arraycopy(line, 0, bigger, 0, lineLength);
+                            line = bigger;
+                        }
+                        line[lineLength++] = b;
+                        continue;
+                    }
+
+                    int end = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    String [] fields = CSVUtil.split(new String(line, 0, end, CHARSET));
+                    lineLength = 0;
+
+                    if(indices == null){
+                        //Header
+                        List<String> header = new ArrayList<String>();
+                        Collections.addAll(header, fields);
+                        List<Integer> found = new ArrayList<Integer>();
+                        List<String> foundNames = new ArrayList<String>();
+                        for(String column : columns){
+                            int idx = header.indexOf(column);
+                            if(idx < 0 || foundNames.contains(column)) continue;
+                            found.add(idx);
+                            foundNames.add(column);
+                            index.runs.put(column, new LinkedHashMap<String, List<long[]>>());
+                        }
+                        indices = new int[found.size()];
+                        for(int c = 0; c < indices.length; c++) indices[c] = found.get(c);
+                        names = foundNames.toArray(new String[foundNames.size()]);
+                        current = new String[indices.length];
+                        openRuns = new long[indices.length][];
+                    }else{
+                        for(int c = 0; c < indices.length; c++){
+                            String value = indices[c] < fields.length ? fields[indices[c]] : "";
+                            if(openRuns[c] != null && value.equals(current[c])){
+                                openRuns[c][1]++;
+                                continue;
+                            }
+
+                            Map<String, List<long[]>> values = index.runs.get(names[c]);
+                            List<long[]> valueRuns = values.get(value);
+                            if(valueRuns == null){
+                                valueRuns = new ArrayList<long[]>();
+                                values.put(value, valueRuns);
+                            }
+                            openRuns[c] = new long[]{lineOffset, 1};
+                            valueRuns.add(openRuns[c]);
+                            current[c] = value;
+                        }
+                    }
+
+                    lineOffset = offset + i + 1;
+                }
+                offset += n;
+            }
+        }finally{
+            in.close();
+        }
+        return index;
+    }
+
+    /**
+     * Write the index to a file.
+     *
+     * @since 1.3.1
+     * @param indexFile
+     */
+    public void save(File indexFile) throws IOException{
+        PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(indexFile), CHARSET), 65536));
+        try{
+            pw.println("COLUMN,VALUE,OFFSET,ROWS");
+            for(Map.Entry<String, Map<String, List<long[]>>> column : runs.entrySet()){
+                for(Map.Entry<String, List<long[]>> value : column.getValue().entrySet()){
+                    String prefix = CSVUtil.escape(column.getKey()) + "," + CSVUtil.escape(value.getKey()) + ",";
+                    for(long [] run : value.getValue()){
+                        pw.println(prefix + run[0] + "," + run[1]);
+                    }
+                }
+            }
+        }finally{
+            pw.close();
+        }
+        if(pw.checkError()) throw new IOException("Failed to write " + indexFile);
+    }
+
+    /**
+     * Read an index written by save.
+     *
+     * @since 1.3.1
+     * @param indexFile
+     * @return MOIndex
+     */
+    public static MOIndex load(File indexFile) throws IOException{
+        MOIndex index = new MOIndex();
+        BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), CHARSET));
+        try{
+            br.readLine();
+            for(String line; (line = br.readLine()) != null; ){
+                String [] fields = CSVUtil.split(line);
+                Map<String, List<long[]>> values = index.runs.get(fields[0]);
+                if(values == null){
+                    values = new LinkedHashMap<String, List<long[]>>();
+                    index.runs.put(fields[0], values);
+                }
+                List<long[]> valueRuns = values.get(fields[1]);
+                if(valueRuns == null){
+                    valueRuns = new ArrayList<long[]>();
+                    values.put(fields[1], valueRuns);
+                }
+                valueRuns.add(new long[]{Long.parseLong(fields[2]), Long.parseLong(fields[3])});
+            }
+        }finally{
+            br.close();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the indexed column names.
+     *
+     * @since 1.3.1
+     */
+    public List<String> getColumns(){
+        return new ArrayList<String>(runs.keySet());
+    }
+
+    /**
+     * Returns the runs of rows with a value as {offset, rows}. The result is
+     * empty if the value or the column is not in the index.
+     *
+     * @since 1.3.1
+     * @param column
+     * @param value
+     */
+    public List<long[]> find(String column, String value){
+        Map<String, List<long[]>> values = runs.get(column);
+        List<long[]> valueRuns = values == null ? null : values.get(value);
+        if(valueRuns == null) return new ArrayList<long[]>();
+        return valueRuns;
+    }
+
+    /**
+     * Returns the number of rows with a value.
+     *
+     * @since 1.3.1
+     * @param column
+     * @param value
+     */
+    public long count(String column, String value){
+        long rows = 0;
+        for(long [] run : find(column, value)) rows += run[1];
+        return rows;
+    }
+
+    /**
+     * Read the csv lines of the rows with a value from the indexed file.
+     *
+     * @since 1.3.1
+     * @param csvFile The file the index was built from
+     * @param column
+     * @param value
+     * @return Csv lines in file order
+     */
+    public List<String> lookup(File csvFile, String column, String value) throws IOException{
+        List<String> lines = new ArrayList<String>();
+        List<long[]> valueRuns = find(column, value);
+        if(valueRuns.isEmpty()) return lines;
+
+        FileInputStream in = new FileInputStream(csvFile);
+        try{
+            for(long [] run : valueRuns){
+                in.getChannel().position(run[0]);
+                BufferedReader br = new BufferedReader(new InputStreamReader(in, CHARSET));
+                for(long r = 0; r < run[1]; r++){
+                    String line = br.readLine();
+                    if(line == null) break;
+                    lines.add(line);
+                }
+            }
+        }finally{
+            in.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Identifying parameters of managed objects.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the parameters that identify an instance of a managed object
+ * e.g. CELLID for GCELL. Used to match rows across dumps.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MOKeyColumns {
+
+    /**
+     * Identifying parameters per output name e.g. GCELL -> CELLID.
+     */
+    private Map<String, String[]> keyColumns = new LinkedHashMap<String, String[]>();
+
+    /**
+     * Load identifying parameters from a file with lines in the format
+     * MO:PARAM1,PARAM2. MOs not in the file use the default keys.
+     *
+     * @since 1.3.1
+     * @param filename
+     */
+    public void load(String filename) throws IOException{
+        BufferedReader br = new BufferedReader(new FileReader(filename));
+        try{
+            for(String line; (line = br.readLine()) != null; ) {
+                line = line.trim();
+                if(line.length() == 0 || line.indexOf(':') < 0) continue;
+
+                String [] moAndParameters = line.split(":");
+                String [] parameters = moAndParameters[1].split(",");
+                for(int i = 0; i < parameters.length; i++){
+                    parameters[i] = parameters[i].trim();
+                }
+                keyColumns.put(moAndParameters[0].trim(), parameters);
+            }
+        }finally{
+            br.close();
+        }
+    }
+
+    /**
+     * Returns the identifying parameters for an MO. These are the parameters
+     * in the key file or by default the parameters whose names end with ID,
+     * IDX or INDEX. MOs without them are identified by their NAME parameter
+     * or else have one instance per BSC e.g. BSCBASIC, as in MOStore.
+     *
+     * @since 1.3.1
+     * @param moName Output name e.g. GCELL or GCELL_MOD
+     * @param header Csv header
+     * @return String[]
+     */
+    public String[] get(String moName, String[] header){
+        if(keyColumns.containsKey(moName)) return keyColumns.get(moName);
+
+        List<String> keys = new ArrayList<String>();
+        for(int i = HuaweiMMLParser.META_FIELDS.length; i < header.length; i++){
+            if(isKeyName(header[i])) keys.add(header[i]);
+        }
+
+        if(keys.isEmpty()){
+            String name = findNameParameter(header, HuaweiMMLParser.META_FIELDS.length);
+            if(name != null) keys.add(name);
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Returns the configured identifying parameters of an MO or the given 
+     * parameter names which look like identifiers. The result is empty when 
+     * there are none.
+     *
+     * @since 1.3.1
+     * @param moName Output name
+     * @param names Parameter names
+     * @return String[]
+     */
+    public String[] getIdentifying(String moName, String[] names){
+        if(keyColumns.containsKey(moName)) return keyColumns.get(moName);
+
+        List<String> keys = new ArrayList<String>();
+        for(int i = 0; i < names.length; i++){
+            if(isKeyName(names[i])) keys.add(names[i]);
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    /**
+     * Returns the first parameter from start whose name ends with NAME or 
+     * null if there is none.
+     *
+     * @since 1.3.1
+     * @param names Parameter names
+     * @param start Index of the first parameter
+     */
+    static String findNameParameter(String[] names, int start){
+        for(int i = start; i < names.length; i++){
+            if(names[i].endsWith("NAME")) return names[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the parameter name looks like an identifier. The 
+     * ROW_ID added in long multi-valued mode is not an MO identifier.
+     *
+     * @since 1.3.1
+     */
+    public static boolean isKeyName(String pName){
+        if(pName.equals("ROW_ID")) return false;
+        return pName.endsWith("ID") || pName.endsWith("IDX") || pName.endsWith("INDEX");
+    }
+}
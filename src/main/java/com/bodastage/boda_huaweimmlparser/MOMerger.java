@@ -0,0 +1,196 @@
+/*
+ * Deduplicates MO csv rows across overlapping dumps.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps only the latest row for each managed object instance in an MO csv
+ * file. Rows are keyed by BSCID and the identifying parameters of the MO.
+ * When the same key appears in dumps with different export times, the row
+ * from the latest export is kept.
+ *
+ * Files larger than the memory limit are hash partitioned on the key into
+ * temporary files which are then deduplicated one at a time so that memory
+ * use is bounded by the partition size and not by the size of the data.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MOMerger {
+
+    /**
+     * Approximate memory used per byte of csv held in memory.
+     */
+    private static final int MEMORY_PER_BYTE = 4;
+
+    /**
+     * Memory available for deduplicating one partition.
+     */
+    private long memoryLimit = 256L * 1024 * 1024;
+
+    private MOKeyColumns keyColumns = new MOKeyColumns();
+
+    public void setMemoryLimit(long bytes){
+        memoryLimit = bytes;
+    }
+
+    public void setKeyColumns(MOKeyColumns keyColumns){
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Deduplicate an MO csv file in place.
+     *
+     * @since 1.3.1
+     * @param moName Output name
+     * @param csvFile
+     * @return Number of rows removed
+     */
+    public long merge(String moName, File csvFile) throws IOException{
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile)));
+        String headerLine;
+        int [] keyIndices;
+        int bscIdIndex, dateTimeIndex;
+        int partitionCount = (int)Math.max(1,
+                (csvFile.length() * MEMORY_PER_BYTE + memoryLimit - 1) / memoryLimit);
+
+        File workDir = new File(csvFile.getParentFile(), ".merge-" + moName);
+        List<File> partitions = new ArrayList<File>();
+        long rowsIn = 0;
+
+        try{
+            headerLine = br.readLine();
+            if(headerLine == null) return 0;
+
+            String [] header = CSVUtil.split(headerLine);
+            keyIndices = CSVUtil.indexOf(header, keyColumns.get(moName, header));
+            bscIdIndex = CSVUtil.indexOf(header, new String[]{"BSCID"})[0];
+            dateTimeIndex = CSVUtil.indexOf(header, new String[]{"DATETIME"})[0];
+
+            //Hash partition the rows on the key
+            if(partitionCount > 1){
+                workDir.mkdirs();
+                BufferedWriter [] writers = new BufferedWriter[partitionCount];
+                try{
+                    for(int p = 0; p < partitionCount; p++){
+                        File f = new File(workDir, "part-" + p);
+                        partitions.add(f);
+                        writers[p] = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f)));
+                    }
+
+                    for(String line; (line = br.readLine()) != null; ) {
+                        String key = getKey(CSVUtil.split(line), bscIdIndex, keyIndices);
+                        int p = (key.hashCode() & Integer.MAX_VALUE) % partitionCount;
+                        writers[p].write(line);
+                        writers[p].newLine();
+                        rowsIn++;
+                    }
+                }finally{
+                    for(int p = 0; p < partitionCount; p++){
+                        if(writers[p] != null) writers[p].close();
+                    }
+                }
+            }
+        }finally{
+            br.close();
+        }
+
+        File merged = new File(csvFile.getPath() + ".merged");
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(merged)));
+        long rowsOut = 0;
+        try{
+            out.write(headerLine);
+            out.newLine();
+
+            if(partitionCount == 1){
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csvFile)));
+                try{
+                    in.readLine(); //Header
+                    long [] counts = dedupe(in, bscIdIndex, dateTimeIndex, keyIndices, out);
+                    rowsIn = counts[0];
+                    rowsOut = counts[1];
+                }finally{
+                    in.close();
+                }
+            }
+
+            for(File partition : partitions){
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(partition)));
+                try{
+                    rowsOut += dedupe(in, bscIdIndex, dateTimeIndex, keyIndices, out)[1];
+                }finally{
+                    in.close();
+                }
+                partition.delete();
+            }
+        }finally{
+            out.close();
+            workDir.delete();
+        }
+
+        Files.move(merged.toPath(), csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        return rowsIn - rowsOut;
+    }
+
+    /**
+     * Keep the latest row for each key read from in and write it to out.
+     *
+     * @return {rows read, rows written}
+     */
+    private long[] dedupe(BufferedReader in, int bscIdIndex, int dateTimeIndex,
+            int[] keyIndices, BufferedWriter out) throws IOException{
+        Map<String, String[]> latest = new LinkedHashMap<String, String[]>();
+        long rowsIn = 0;
+
+        for(String line; (line = in.readLine()) != null; ) {
+            String [] fields = CSVUtil.split(line);
+            String key = getKey(fields, bscIdIndex, keyIndices);
+            String dateTime = dateTimeIndex >= 0 ? fields[dateTimeIndex] : "";
+            rowsIn++;
+
+            //Export times are yyyy-MM-dd HH:mm:ss so they compare as strings.
+            //On a tie, the row seen last wins.
+            String [] current = latest.get(key);
+            if(current == null || current[0].compareTo(dateTime) <= 0){
+                latest.put(key, new String[]{dateTime, line});
+            }
+        }
+
+        Iterator<String[]> iter = latest.values().iterator();
+        while(iter.hasNext()){
+            out.write(iter.next()[1]);
+            out.newLine();
+        }
+
+        return new long[]{rowsIn, latest.size()};
+    }
+
+    private String getKey(String[] fields, int bscIdIndex, int[] keyIndices){
+        StringBuilder sb = new StringBuilder();
+        if(bscIdIndex >= 0) sb.append(fields[bscIdIndex]);
+        for(int i = 0; i < keyIndices.length; i++){
+            sb.append('\u0000');
+            if(keyIndices[i] >= 0 && keyIndices[i] < fields.length){
+                sb.append(fields[keyIndices[i]]);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Final state of the MO instances in CFGMML scripts.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies ADD, SET, MOD, RMV, ACT, DEA, BLK and UBL commands in order to the
+ * MO instances they refer to and writes one row per instance in its final
+ * state.
+ *
+ * Instances are identified by BSCID and the identifying parameters of the MO.
+ * To keep the memory use low for millions of instances, each value is
+ * replaced by a code from a per column dictionary so an instance is stored
+ * as an int array instead of a map of strings.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class MOStore {
+
+    /**
+     * Column set by ACT and DEA commands.
+     */
+    public static final String ACTIVATION_STATUS = "ACTSTATUS";
+
+    /**
+     * Column set by BLK and UBL commands.
+     */
+    public static final String BLOCK_STATUS = "BLKSTATUS";
+
+    private MOKeyColumns keyColumns;
+
+    private Map<String, MOTable> tables = new LinkedHashMap<String, MOTable>();
+
+    /**
+     * Dictionary of the meta field values shared by all the MOs.
+     */
+    private Dictionary metaDictionary = new Dictionary();
+
+    private long unmatched = 0;
+
+    public MOStore(MOKeyColumns keyColumns){
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * Apply a command.
+     *
+     * @since 1.3.1
+     * @param verb e.g. ADD
+     * @param moName MO name
+     * @param names Parameter names
+     * @param values Parameter values
+     * @param bscId BSCID of the dump
+     * @param meta Meta fields csv string of the dump
+     */
+    public void apply(String verb, String moName, String[] names, String[] values,
+            String bscId, String meta){
+        MOTable table = tables.get(moName);
+        if(table == null){
+            table = new MOTable(moName, verb, names);
+            tables.put(moName, table);
+        }
+
+        //A command whose key parameters match several instances applies to
+        //all of them. Only ADD and SET create instances.
+        String [] keyValues = table.getKeyValues(names, values);
+        int [] slots = table.find(bscId, keyValues);
+        if(slots.length == 0){
+            if(!verb.equals("ADD") && !verb.equals("SET")){
+                unmatched++;
+                return;
+            }
+            slots = new int[]{table.create(bscId, keyValues)};
+        }
+
+        int metaCode = metaDictionary.encode(meta);
+        for(int slot : slots){
+            if(verb.equals("RMV") || verb.equals("DEL")){
+                table.remove(slot);
+                continue;
+            }
+
+            table.metaCodes[slot] = metaCode;
+            if(verb.equals("ACT")){
+                table.set(slot, ACTIVATION_STATUS, "ACTIVATED");
+            }else if(verb.equals("DEA")){
+                table.set(slot, ACTIVATION_STATUS, "DEACTIVATED");
+            }else if(verb.equals("BLK")){
+                table.set(slot, BLOCK_STATUS, "BLOCKED");
+            }else if(verb.equals("UBL")){
+                table.set(slot, BLOCK_STATUS, "UNBLOCKED");
+            }else{
+                for(int i = 0; i < names.length; i++){
+                    table.setParameter(slot, names[i], values[i], verb.equals("MOD"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of commands other than ADD and SET which matched
+     * no instance and were skipped.
+     *
+     * @since 1.3.1
+     */
+    public long getUnmatchedCount(){
+        return unmatched;
+    }
+
+    /**
+     * Returns the number of live instances.
+     *
+     * @since 1.3.1
+     */
+    public long getInstanceCount(){
+        long count = 0;
+        for(MOTable table : tables.values()){
+            count += table.keys.size();
+        }
+        return count;
+    }
+
+    /**
+     * Write a csv output per MO.
+     *
+     * @since 1.3.1
+     * @param output
+     * @param metaHeader Header of the meta fields
+     */
+    public void write(OutputTarget output, String metaHeader) throws IOException{
+        for(MOTable table : tables.values()){
+            PrintWriter pw = output.open(table.moName, false);
+            try{
+                table.write(pw, metaHeader);
+            }finally{
+                pw.close();
+            }
+        }
+    }
+
+    /**
+     * Maps strings to int codes. Code 0 is the empty value.
+     */
+    static class Dictionary {
+        private Map<String, Integer> codes = new HashMap<String, Integer>();
+        private List<String> values = new ArrayList<String>();
+
+        Dictionary(){
+            values.add("");
+        }
+
+        int encode(String value){
+            if(value == null || value.length() == 0) return 0;
+            Integer code = codes.get(value);
+            if(code == null){
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String decode(int code){
+            return values.get(code);
+        }
+    }
+
+    /**
+     * The instances of one MO.
+     */
+    class MOTable {
+        String moName;
+
+        /**
+         * Identifying parameters. Decided by the first command of the MO. 
+         * MOs without identifying parameters which are configured with SET
+         * have one instance per BSC. Others are identified by their name
+         * parameter or else their first parameter.
+         */
+        String [] keyNames;
+
+        Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+        List<String> columns = new ArrayList<String>();
+        List<Dictionary> dictionaries = new ArrayList<Dictionary>();
+
+        /**
+         * Multi-valued parameter name to its child names.
+         */
+        Map<String, List<String>> mvChildren = new HashMap<String, List<String>>();
+
+        /**
+         * Instance key to slot.
+         */
+        Map<String, Integer> keys = new HashMap<String, Integer>();
+
+        /**
+         * Key of each slot.
+         */
+        String [] slotKeys = new String[16];
+
+        /**
+         * Partial key to slots for each set of key parameters that commands
+         * carry only some of e.g. a MOD of a cell by CELLID when the cell
+         * was added with CELLID and BTSID. Built when a set is first used.
+         */
+        Map<Long, Map<String, List<Integer>>> partialKeys = new HashMap<Long, Map<String, List<Integer>>>();
+
+        int [][] rows = new int[16][];
+        int [] metaCodes = new int[16];
+        int slotCount = 0;
+
+        /**
+         * Slots of removed instances for reuse.
+         */
+        int [] freeSlots = new int[16];
+        int freeCount = 0;
+
+        MOTable(String moName, String verb, String[] names){
+            this.moName = moName;
+
+            keyNames = keyColumns.getIdentifying(moName, names);
+            if(keyNames.length == 0 && names.length > 0 && !verb.equals("SET")){
+                String name = MOKeyColumns.findNameParameter(names, 0);
+                keyNames = new String[]{name != null ? name : names[0]};
+            }
+            if(keyNames.length > 63) keyNames = Arrays.copyOf(keyNames, 63);
+        }
+
+        /**
+         * Returns the values of the key parameters in a command. The key
+         * parameters the command does not carry are null.
+         */
+        String[] getKeyValues(String[] names, String[] values){
+            String [] keyValues = new String[keyNames.length];
+            for(int k = 0; k < keyNames.length; k++){
+                for(int i = 0; i < names.length; i++){
+                    if(names[i].equals(keyNames[k])){
+                        keyValues[k] = values[i];
+                        break;
+                    }
+                }
+            }
+            return keyValues;
+        }
+
+        /**
+         * Returns the key of the carried key parameters in mask. 
+         */
+        private String getKey(String bscId, String[] keyValues, long mask){
+            StringBuilder sb = new StringBuilder();
+            sb.append(bscId);
+            for(int k = 0; k < keyValues.length; k++){
+                if((mask & (1L << k)) == 0) continue;
+                sb.append('\u0000');
+                if(keyValues[k] != null) sb.append(keyValues[k]);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Returns the slots of the instances a command refers to. Only the
+         * key parameters the command carries are matched so several
+         * instances can match.
+         */
+        int[] find(String bscId, String[] keyValues){
+            long mask = 0;
+            for(int k = 0; k < keyValues.length; k++){
+                if(keyValues[k] != null) mask |= 1L << k;
+            }
+
+            if(mask == fullMask()){
+                Integer slot = keys.get(getKey(bscId, keyValues, mask));
+                return slot == null ? new int[0] : new int[]{slot};
+            }
+
+            List<Integer> slots = getPartialKeys(mask).get(getKey(bscId, keyValues, mask));
+            if(slots == null) return new int[0];
+            int [] result = new int[slots.size()];
+            for(int i = 0; i < result.length; i++) result[i] = slots.get(i);
+            return result;
+        }
+
+        private long fullMask(){
+            return (1L << keyNames.length) - 1;
+        }
+
+        private Map<String, List<Integer>> getPartialKeys(long mask){
+            Map<String, List<Integer>> index = partialKeys.get(mask);
+            if(index == null){
+                index = new HashMap<String, List<Integer>>();
+                for(int s = 0; s < slotCount; s++){
+                    if(rows[s] != null) addPartialKey(index, mask, s);
+                }
+                partialKeys.put(mask, index);
+            }
+            return index;
+        }
+
+        private void addPartialKey(Map<String, List<Integer>> index, long mask, int slot){
+            String partialKey = toPartialKey(slotKeys[slot], mask);
+            List<Integer> slots = index.get(partialKey);
+            if(slots == null){
+                slots = new ArrayList<Integer>(1);
+                index.put(partialKey, slots);
+            }
+            slots.add(slot);
+        }
+
+        private String toPartialKey(String key, long mask){
+            String [] parts = key.split("\u0000", -1);
+            String [] keyValues = Arrays.copyOfRange(parts, 1, parts.length);
+            return getKey(parts[0], keyValues, mask);
+        }
+
+        /**
+         * Add an instance. Key parameters the command does not carry are
+         * empty in the key.
+         */
+        int create(String bscId, String[] keyValues){
+            String key = getKey(bscId, keyValues, fullMask());
+
+            int s;
+            if(freeCount > 0){
+                s = freeSlots[--freeCount];
+            }else{
+                s = slotCount++;
+                if(s == rows.length){
+                    rows = Arrays.copyOf(rows, s * 2);
+                    metaCodes = Arrays.copyOf(metaCodes, s * 2);
+                    slotKeys = Arrays.copyOf(slotKeys, s * 2);
+                }
+            }
+            rows[s] = new int[columns.size()];
+            slotKeys[s] = key;
+            keys.put(key, s);
+            for(Map.Entry<Long, Map<String, List<Integer>>> me : partialKeys.entrySet()){
+                addPartialKey(me.getValue(), me.getKey(), s);
+            }
+            return s;
+        }
+
+        void remove(int slot){
+            String key = slotKeys[slot];
+            keys.remove(key);
+
+            for(Map.Entry<Long, Map<String, List<Integer>>> me : partialKeys.entrySet()){
+                String partialKey = toPartialKey(key, me.getKey());
+                List<Integer> slots = me.getValue().get(partialKey);
+                if(slots == null) continue;
+                slots.remove(Integer.valueOf(slot));
+                if(slots.isEmpty()) me.getValue().remove(partialKey);
+            }
+
+            rows[slot] = null;
+            slotKeys[slot] = null;
+            if(freeCount == freeSlots.length){
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+        }
+
+        int column(String name){
+            Integer idx = columnIndex.get(name);
+            if(idx == null){
+                idx = columns.size();
+                columnIndex.put(name, idx);
+                columns.add(name);
+                dictionaries.add(new Dictionary());
+            }
+            return idx;
+        }
+
+        void set(int slot, String name, String value){
+            int idx = column(name);
+            int [] row = rows[slot];
+            if(idx >= row.length){
+                row = Arrays.copyOf(row, columns.size());
+                rows[slot] = row;
+            }
+            row[idx] = dictionaries.get(idx).encode(value);
+        }
+
+        /**
+         * Set a parameter. Multi-valued parameters e.g. SW1-1&SW2-0 are
+         * stored per child so that a MOD of some of the children keeps the
+         * values of the others.
+         */
+        void setParameter(int slot, String name, String value, boolean isModification){
+            String tempValue = value.trim();
+            boolean isMultiValued = !name.endsWith("NAME") &&
+                    (tempValue.matches("([^-]+-[^-]+&).*") ||
+                    (isModification && mvChildren.containsKey(name) && tempValue.matches("[^-&]+-[^-&]+")));
+
+            if(!isMultiValued){
+                set(slot, name, value);
+                return;
+            }
+
+            List<String> children = mvChildren.get(name);
+            if(children == null){
+                children = new ArrayList<String>();
+                mvChildren.put(name, children);
+            }
+
+            String [] valueArray = tempValue.split("&");
+            for(int j = 0; j < valueArray.length; j++){
+                String [] vArray = valueArray[j].split("-");
+                if(vArray.length < 2) continue;
+                if(!children.contains(vArray[0])) children.add(vArray[0]);
+                set(slot, name + "_" + vArray[0], vArray[1]);
+            }
+        }
+
+        void write(PrintWriter pw, String metaHeader){
+            StringBuilder sb = new StringBuilder(metaHeader);
+            for(int i = 0; i < columns.size(); i++){
+                sb.append(',').append(columns.get(i));
+            }
+            pw.println(sb.toString());
+
+            for(int s = 0; s < slotCount; s++){
+                int [] row = rows[s];
+                if(row == null) continue;
+
+                sb.setLength(0);
+                sb.append(metaDictionary.decode(metaCodes[s]));
+                for(int i = 0; i < columns.size(); i++){
+                    sb.append(',');
+                    if(i < row.length && row[i] != 0){
+                        sb.append(CSVUtil.toCSVFormat(dictionaries.get(i).decode(row[i])));
+                    }
+                }
+                pw.println(sb.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Newline delimited JSON encoder.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes each row as a JSON object on its own line e.g.
+ *
+ * <pre>
+ * {"FILENAME":"dump.txt","BSCID":"100","CELLID":"0","CELLNAME":"CELL-0"}
+ * </pre>
+ *
+ * Values are strings, or numbers in the int, long and decimal columns when
+ * the column types are inferred. Empty values are left out to keep sparse
+ * rows small.
+ * On a shared stream the object starts with an "OUTPUT" member naming the
+ * output the row belongs to.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class NdjsonRecordWriter extends RecordWriter {
+
+    private static final char [] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Member opening each object or null on files.
+     */
+    private String tag;
+
+    /**
+     * Lock of a shared stream.
+     */
+    private Object lock;
+
+    /**
+     * Field names as "NAME": ready to be written.
+     */
+    private String [] keys;
+
+    /**
+     * Type of each field as in ColumnTypes.
+     */
+    private int [] types;
+
+    /**
+     * Write to a file of its own.
+     *
+     * @param out
+     */
+    public NdjsonRecordWriter(Writer out){
+        this(out, null);
+    }
+
+    /**
+     * Write to a stream shared with other outputs.
+     *
+     * @param out Shared stream
+     * @param name Output name
+     */
+    public NdjsonRecordWriter(Writer out, String name){
+        super(out);
+        this.lock = out;
+        if(name != null){
+            StringBuilder sb = new StringBuilder("{\"OUTPUT\":");
+            appendString(sb, name);
+            tag = sb.toString();
+        }
+    }
+
+    @Override
+    protected void writeHeader(String[] names){
+        keys = new String[names.length];
+        types = new int[names.length];
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < names.length; i++){
+            sb.setLength(0);
+            appendString(sb, names[i]);
+            keys[i] = sb.append(':').toString();
+            types[i] = getType(names[i]);
+        }
+    }
+
+    @Override
+    protected void writeRow(String line) throws IOException{
+        synchronized(lock){
+            boolean first = true;
+            if(tag != null){
+                out.write(tag);
+                first = false;
+            }else{
+                out.write('{');
+            }
+
+            int pos = 0, len = line.length();
+            for(int f = 0; f < keys.length && pos <= len; f++){
+                int end = fieldEnd(line, pos);
+                if(end > pos){
+                    out.write(first ? "" : ",");
+                    out.write(keys[f]);
+                    if(types[f] == ColumnTypes.TEXT || types[f] == ColumnTypes.ENUM){
+                        writeValue(line, pos, end);
+                    }else{
+                        writeNumber(line, pos, end, types[f]);
+                    }
+                    first = false;
+                }
+                pos = end + 1;
+            }
+
+            out.write("}\n");
+        }
+    }
+
+    /**
+     * Write a csv field of a number column as a JSON number. Values that are
+     * not numbers are written as strings.
+     */
+    private void writeNumber(String line, int start, int end, int type) throws IOException{
+        int numberStart = start, numberEnd = end;
+        if(isQuoted(line, start, end)){
+            numberStart++;
+            numberEnd--;
+        }
+
+        boolean number = type == ColumnTypes.DECIMAL
+                ? numberEnd > numberStart && ColumnTypes.classify(line.substring(numberStart, numberEnd)) <= ColumnTypes.DECIMAL
+                : ColumnTypes.isInteger(line, numberStart, numberEnd);
+        if(!number){
+            writeValue(line, start, end);
+            return;
+        }
+        out.write(line, numberStart, numberEnd - numberStart);
+    }
+
+    /**
+     * Write a csv field as a JSON string.
+     */
+    private void writeValue(String line, int start, int end) throws IOException{
+        boolean quoted = isQuoted(line, start, end);
+        if(quoted){
+            start++;
+            end--;
+        }
+
+        out.write('"');
+        for(int i = start; i < end; i++){
+            char c = line.charAt(i);
+            if(quoted && c == '"') i++;
+
+            if(c == '"' || c == '\\'){
+                out.write('\\');
+                out.write(c);
+            }else if(c < 0x20){
+                out.write("\\u00");
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xF]);
+            }else{
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    private static void appendString(StringBuilder sb, String s){
+        sb.append('"');
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\'){
+                sb.append('\\').append(c);
+            }else if(c < 0x20){
+                sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }else{
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    @Override
+    public void close(){
+        //The shared stream stays open for the other outputs
+        if(tag != null){
+            flush();
+            return;
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Destination of the csv outputs.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Opens the csv output of each MO. Outputs are either files in a directory
+ * or channels of one stream such as stdout.
+ *
+ * On a stream each line is written as the output name, a tab and the csv
+ * line. The first line of each output is its header e.g.
+ *
+ * <pre>
+ * GCELL	FILENAME,DATETIME,BSCID,...,CELLID,CELLNAME
+ * GCELL	dump.txt,2019-05-01 10:00:00,100,...,0,"CELL-0"
+ * </pre>
+ *
+ * The parser always writes csv lines. Other formats re-encode them as they
+ * are written, optionally on writer threads.
+ *
+ * In a partitioned directory the rows of each MO are written to part files
+ * by export date and NE e.g. GCELL/date=20190501/bscid=100/part-00000.csv.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class OutputTarget {
+
+    /**
+     * Output directory or null when writing to a stream.
+     */
+    private File directory;
+
+    /**
+     * Stream shared by all the outputs or null when writing to files.
+     */
+    private Writer stream;
+
+    /**
+     * Underlying stream of the shared writer.
+     */
+    private OutputStream streamOut;
+
+    public static final String CSV = "csv";
+    public static final String NDJSON = "ndjson";
+    public static final String AVRO = "avro";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private String format = CSV;
+
+    /**
+     * Number of writer threads. 0 to write on the calling thread.
+     */
+    private int writerThreads = 0;
+
+    private AsyncWriterPool writerPool = null;
+
+    /**
+     * Open part files of a partitioned directory or null when the outputs
+     * are not partitioned.
+     */
+    private PartitionWriterPool partitionPool = null;
+
+    /**
+     * Inferred column types or null to write all values as text.
+     */
+    private ColumnTypes columnTypes = null;
+
+    private OutputTarget(){
+    }
+
+    /**
+     * Write each output to a csv file in the directory.
+     *
+     * @since 1.3.1
+     * @param directory
+     */
+    public static OutputTarget toDirectory(String directory){
+        OutputTarget target = new OutputTarget();
+        target.directory = new File(directory);
+        return target;
+    }
+
+    /**
+     * Write the outputs as tagged lines to one stream.
+     *
+     * @since 1.3.1
+     * @param out
+     */
+    public static OutputTarget toStream(OutputStream out){
+        OutputTarget target = new OutputTarget();
+        target.streamOut = out;
+        target.stream = target.newStreamWriter();
+        return target;
+    }
+
+    public boolean isStream(){
+        return stream != null;
+    }
+
+    /**
+     * Set the output format to csv, ndjson or avro.
+     *
+     * @since 1.3.1
+     * @param format
+     */
+    public void setFormat(String format){
+        format = format.toLowerCase();
+        if(!format.equals(CSV) && !format.equals(NDJSON) && !format.equals(AVRO)){
+            throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+        if(format.equals(AVRO) && stream != null){
+            throw new IllegalArgumentException("avro output needs an output directory");
+        }
+        this.format = format;
+
+        //Nothing is written before the format is set
+        if(streamOut != null) stream = newStreamWriter();
+    }
+
+    private Writer newStreamWriter(){
+        return new BufferedWriter(new OutputStreamWriter(streamOut, getCharset()), 65536);
+    }
+
+    /**
+     * Returns the charset of the text outputs. ndjson is always UTF-8, csv
+     * uses the platform charset.
+     *
+     * @since 1.3.1
+     */
+    public Charset getCharset(){
+        return format.equals(NDJSON) ? UTF8 : Charset.defaultCharset();
+    }
+
+    public String getFormat(){
+        return format;
+    }
+
+    public void setWriterThreads(int writerThreads){
+        this.writerThreads = writerThreads;
+    }
+
+    /**
+     * Write the rows of each MO to part files partitioned by export date and
+     * BSCID.
+     *
+     * @since 1.3.1
+     * @param maxOpenFiles Number of part files kept open. The least recently
+     *        used file is closed when another one is needed.
+     */
+    public void setPartitioned(int maxOpenFiles){
+        if(stream != null){
+            throw new IllegalArgumentException("--partition needs an output directory");
+        }
+        partitionPool = new PartitionWriterPool(this, maxOpenFiles);
+    }
+
+    /**
+     * Write the values of typed columns as numbers and enum values in the
+     * ndjson and avro formats.
+     *
+     * @since 1.3.1
+     * @param columnTypes
+     */
+    public void setColumnTypes(ColumnTypes columnTypes){
+        this.columnTypes = columnTypes;
+    }
+
+    public boolean isPartitioned(){
+        return partitionPool != null;
+    }
+
+    /**
+     * Returns the csv file of an output or null when writing to a stream.
+     *
+     * @since 1.3.1
+     * @param name Output name e.g. GCELL
+     */
+    public File getFile(String name){
+        if(directory == null) return null;
+        return new File(directory, name + "." + format);
+    }
+
+    /**
+     * Returns the directory of the partitions of an output.
+     *
+     * @since 1.3.1
+     * @param name Output name e.g. GCELL
+     */
+    File getPartitionDirectory(String name){
+        return new File(directory, name);
+    }
+
+    /**
+     * Open an output.
+     *
+     * @since 1.3.1
+     * @param name Output name e.g. GCELL
+     * @param append Append to the existing file
+     * @return PrintWriter
+     */
+    public PrintWriter open(String name, boolean append) throws IOException{
+        PrintWriter pw;
+        if(stream != null){
+            pw = format.equals(NDJSON) ? typed(new NdjsonRecordWriter(stream, name), name) : new Channel(name, stream);
+        }else if(partitionPool != null && !append){
+            pw = partitionPool.open(name);
+        }else{
+            pw = openFile(getFile(name), name, append);
+        }
+
+        if(writerThreads > 0){
+            if(writerPool == null) writerPool = new AsyncWriterPool(writerThreads);
+            pw = writerPool.wrap(name, pw);
+        }
+        return pw;
+    }
+
+    /**
+     * Open a file in the output format.
+     *
+     * @since 1.3.1
+     * @param file
+     * @param name Output name
+     * @param append Append to the existing file
+     */
+    PrintWriter openFile(File file, String name, boolean append) throws IOException{
+        if(format.equals(AVRO)){
+            return typed(new AvroRecordWriter(new BufferedOutputStream(
+                    new FileOutputStream(file, append), 65536), name), name);
+        }
+        Writer w = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, append), getCharset()), 65536);
+        return format.equals(NDJSON) ? typed(new NdjsonRecordWriter(w), name) : new PrintWriter(w);
+    }
+
+    private RecordWriter typed(RecordWriter writer, String name){
+        if(columnTypes != null) writer.setColumnTypes(columnTypes, name);
+        return writer;
+    }
+
+    /**
+     * Wait for the writer threads and flush the stream. Files are closed by
+     * their writers.
+     *
+     * @since 1.3.1
+     */
+    public void close() throws IOException{
+        if(writerPool != null){
+            AsyncWriterPool pool = writerPool;
+            writerPool = null;
+            pool.shutdown();
+        }
+        if(stream != null) stream.flush();
+    }
+
+    /**
+     * One output on the shared stream. Closing a channel flushes the stream
+     * but leaves it open for the other outputs.
+     */
+    private static class Channel extends PrintWriter {
+        private String tag;
+        private Writer stream;
+
+        Channel(String name, Writer stream){
+            super(stream);
+            this.tag = name + "\t";
+            this.stream = stream;
+        }
+
+        @Override
+        public void println(String line){
+            synchronized(stream){
+                try{
+                    stream.write(tag);
+                    stream.write(line);
+                    stream.write('\n');
+                }catch(IOException e){
+                    setError();
+                }
+            }
+        }
+
+        @Override
+        public void close(){
+            flush();
+        }
+    }
+}
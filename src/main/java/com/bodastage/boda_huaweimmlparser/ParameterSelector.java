@@ -0,0 +1,238 @@
+/*
+ * Selects MOs and parameters with wildcard patterns.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameter configuration with wildcards. Each line has the format
+ * MO:PARAM1,PARAM2 where the names may contain * and ? e.g.
+ *
+ * <pre>
+ * *CELL:*SWITCH*
+ * UCELL:*,!*NAME
+ * !GCELL_MOD
+ * </pre>
+ *
+ * A parameter prefixed with ! is excluded from the MOs of the line. A line
+ * prefixed with ! excludes its parameters from the matching MOs or the MOs
+ * altogether when it has no parameters.
+ *
+ * The patterns are matched once per distinct MO and parameter name. The
+ * decisions are cached so the cost per value is a hash lookup.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ParameterSelector {
+
+    /**
+     * Patterns of one line of the configuration.
+     */
+    private static class Rule {
+        boolean exclude;
+        String moPattern;
+        List<String> includes = new ArrayList<String>();
+        List<String> excludes = new ArrayList<String>();
+    }
+
+    private List<Rule> rules = new ArrayList<Rule>();
+
+    /**
+     * True if any name has a wildcard or an exclusion.
+     */
+    private boolean hasPatterns = false;
+
+    /**
+     * MO name to its cached decisions. A null value means the MO is not
+     * selected.
+     */
+    private Map<String, Map<String, Boolean>> decisions = new HashMap<String, Map<String, Boolean>>();
+
+    /**
+     * Rules of each MO seen so far.
+     */
+    private Map<String, List<Rule>> moRules = new HashMap<String, List<Rule>>();
+
+    /**
+     * Load a parameter configuration file.
+     *
+     * @since 1.3.1
+     * @param filename
+     */
+    public void load(String filename) throws IOException{
+        BufferedReader br = new BufferedReader(new FileReader(filename));
+        try{
+            for(String line; (line = br.readLine()) != null; ) {
+                line = line.trim();
+                if(line.length() == 0) continue;
+
+                Rule rule = new Rule();
+                if(line.startsWith("!")){
+                    rule.exclude = true;
+                    line = line.substring(1);
+                    hasPatterns = true;
+                }
+
+                String [] moAndParameters = line.split(":", 2);
+                rule.moPattern = moAndParameters[0].trim();
+                if(isPattern(rule.moPattern)) hasPatterns = true;
+
+                if(moAndParameters.length > 1){
+                    String [] parameters = moAndParameters[1].split(",");
+                    for(int i = 0; i < parameters.length; i++){
+                        String p = parameters[i].trim();
+                        if(p.length() == 0) continue;
+
+                        if(p.startsWith("!")){
+                            rule.excludes.add(p.substring(1));
+                            hasPatterns = true;
+                        }else if(rule.exclude){
+                            rule.excludes.add(p);
+                        }else{
+                            rule.includes.add(p);
+                        }
+                        if(isPattern(p)) hasPatterns = true;
+                    }
+                }
+
+                rules.add(rule);
+            }
+        }finally{
+            br.close();
+        }
+    }
+
+    /**
+     * Returns a selector with the same rules and its own cache for use by
+     * another thread.
+     *
+     * @since 1.3.1
+     */
+    public ParameterSelector copy(){
+        ParameterSelector selector = new ParameterSelector();
+        selector.rules = rules;
+        selector.hasPatterns = hasPatterns;
+        return selector;
+    }
+
+    /**
+     * Returns true if the configuration uses wildcards or exclusions.
+     * Configurations without them are plain parameter lists.
+     *
+     * @since 1.3.1
+     */
+    public boolean hasPatterns(){
+        return hasPatterns;
+    }
+
+    /**
+     * Returns true if some parameters of the MO are selected.
+     *
+     * @since 1.3.1
+     * @param moName MO name or MO_VERB e.g. GCELL_MOD
+     */
+    public boolean selectsMO(String moName){
+        return getDecisions(moName) != null;
+    }
+
+    /**
+     * Returns true if the parameter of the MO is selected.
+     *
+     * @since 1.3.1
+     * @param moName MO name or MO_VERB e.g. GCELL_MOD
+     * @param parameter
+     */
+    public boolean selects(String moName, String parameter){
+        Map<String, Boolean> moDecisions = getDecisions(moName);
+        if(moDecisions == null) return false;
+
+        Boolean selected = moDecisions.get(parameter);
+        if(selected == null){
+            selected = matchParameter(moRules.get(moName), parameter);
+            moDecisions.put(parameter, selected);
+        }
+        return selected;
+    }
+
+    private Map<String, Boolean> getDecisions(String moName){
+        Map<String, Boolean> moDecisions = decisions.get(moName);
+        if(moDecisions != null || decisions.containsKey(moName)) return moDecisions;
+
+        List<Rule> matching = new ArrayList<Rule>();
+        boolean included = false;
+        boolean excluded = false;
+        for(int i = 0; i < rules.size(); i++){
+            Rule rule = rules.get(i);
+            if(!matches(rule.moPattern, moName)) continue;
+
+            matching.add(rule);
+            if(!rule.exclude) included = true;
+            if(rule.exclude && rule.excludes.isEmpty()) excluded = true;
+        }
+
+        if(included && !excluded){
+            moDecisions = new HashMap<String, Boolean>();
+            moRules.put(moName, matching);
+        }
+        decisions.put(moName, moDecisions);
+        return moDecisions;
+    }
+
+    private boolean matchParameter(List<Rule> matching, String parameter){
+        boolean included = false;
+        for(int i = 0; i < matching.size(); i++){
+            Rule rule = matching.get(i);
+            for(int j = 0; j < rule.excludes.size(); j++){
+                if(matches(rule.excludes.get(j), parameter)) return false;
+            }
+            for(int j = 0; !included && j < rule.includes.size(); j++){
+                if(matches(rule.includes.get(j), parameter)) included = true;
+            }
+        }
+        return included;
+    }
+
+    private static boolean isPattern(String s){
+        return s.indexOf('*') >= 0 || s.indexOf('?') >= 0;
+    }
+
+    /**
+     * Match a name against a pattern with * and ? wildcards. Backtracks only
+     * to the last * so it runs in linear time for typical patterns.
+     *
+     * @since 1.3.1
+     * @param pattern
+     * @param name
+     * @return boolean
+     */
+    static boolean matches(String pattern, String name){
+        int p = 0, n = 0, star = -1, mark = 0;
+        int pLen = pattern.length(), nLen = name.length();
+
+        while(n < nLen){
+            if(p < pLen && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))){
+                p++;
+                n++;
+            }else if(p < pLen && pattern.charAt(p) == '*'){
+                star = p++;
+                mark = n;
+            }else if(star >= 0){
+                p = star + 1;
+                n = ++mark;
+            }else{
+                return false;
+            }
+        }
+
+        while(p < pLen && pattern.charAt(p) == '*') p++;
+        return p == pLen;
+    }
+}
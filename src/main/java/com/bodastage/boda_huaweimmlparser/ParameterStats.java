@@ -0,0 +1,312 @@
+/*
+ * Statistics of the parameter values of each output.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles the values of each parameter of the outputs as rows are written:
+ * the number of rows without the parameter, the empty values, the number of
+ * distinct values and the most frequent values.
+ *
+ * Values are counted exactly until a parameter has more than EXACT_LIMIT
+ * distinct values, which covers most enum parameters. Then the distinct
+ * count is estimated with a HyperLogLog sketch and the frequent values
+ * with a count-min sketch and a short list of candidates, so the memory per
+ * parameter stays bounded.
+ *
+ * Statistics of worker threads are merged in the same way.
+ *
+ * The top values are written as value=count pairs separated by | with a
+ * backslash before the |, = and &amp; characters and backslashes in the
+ * values e.g. SW1-1\&amp;SW2-0=20|SW1-0\&amp;SW2-0=3
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ParameterStats {
+
+    /**
+     * Distinct values counted exactly per parameter.
+     */
+    static final int EXACT_LIMIT = 64;
+
+    /**
+     * Frequent values tracked per parameter once it is estimated.
+     */
+    static final int CANDIDATES = 16;
+
+    /**
+     * Values reported per parameter.
+     */
+    static final int TOP_VALUES = 5;
+
+    /**
+     * Output name to parameter name to statistics.
+     */
+    private Map<String, Map<String, Column>> outputs = new LinkedHashMap<String, Map<String, Column>>();
+
+    private Map<String, long[]> rowCounts = new LinkedHashMap<String, long[]>();
+
+    /**
+     * Count a row of an output.
+     *
+     * @since 1.3.1
+     * @param output Output name e.g. GCELL
+     * @param parameters Parameters of the output
+     * @param values Parameter values of the row
+     */
+    public void addRow(String output, List<?> parameters, Map<String, String> values){
+        Map<String, Column> columns = outputs.get(output);
+        if(columns == null){
+            columns = new LinkedHashMap<String, Column>();
+            outputs.put(output, columns);
+            rowCounts.put(output, new long[1]);
+        }
+        rowCounts.get(output)[0]++;
+
+        for(int i = 0; i < parameters.size(); i++){
+            String pName = (String)parameters.get(i);
+            Column column = columns.get(pName);
+            if(column == null){
+                column = new Column();
+                columns.put(pName, column);
+            }
+
+            String value = values.get(pName);
+            if(value != null) column.add(value);
+        }
+    }
+
+    /**
+     * Add the statistics of another collector e.g. of a worker thread.
+     *
+     * @since 1.3.1
+     * @param other
+     */
+    public void merge(ParameterStats other){
+        for(Map.Entry<String, Map<String, Column>> output : other.outputs.entrySet()){
+            Map<String, Column> columns = outputs.get(output.getKey());
+            if(columns == null){
+                columns = new LinkedHashMap<String, Column>();
+                outputs.put(output.getKey(), columns);
+                rowCounts.put(output.getKey(), new long[1]);
+            }
+            rowCounts.get(output.getKey())[0] += other.rowCounts.get(output.getKey())[0];
+
+            for(Map.Entry<String, Column> me : output.getValue().entrySet()){
+                Column column = columns.get(me.getKey());
+                if(column == null){
+                    column = new Column();
+                    columns.put(me.getKey(), column);
+                }
+                column.merge(me.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write the profile as csv lines.
+     *
+     * @since 1.3.1
+     * @param pw
+     */
+    public void write(PrintWriter pw){
+        pw.println("MO,PARAMETER,ROWS,NULLS,EMPTY,DISTINCT,DISTINCT_ESTIMATED,TOP_VALUES");
+
+        //Sorted so the report does not depend on the order the rows were seen
+        List<String> names = new ArrayList<String>(outputs.keySet());
+        Collections.sort(names);
+        for(String name : names){
+            long rows = rowCounts.get(name)[0];
+            for(Map.Entry<String, Column> me : outputs.get(name).entrySet()){
+                Column column = me.getValue();
+
+                StringBuilder top = new StringBuilder();
+                for(Map.Entry<String, Long> value : column.top(TOP_VALUES)){
+                    if(top.length() > 0) top.append('|');
+                    appendEscaped(value.getKey(), top);
+                    top.append('=').append(value.getValue());
+                }
+
+                pw.println(CSVUtil.escape(name) + "," + CSVUtil.escape(me.getKey())
+                        + "," + rows + "," + (rows - column.present) + "," + column.empty
+                        + "," + column.distinct() + "," + (column.exact == null)
+                        + "," + CSVUtil.escape(top.toString()));
+            }
+        }
+    }
+
+    /**
+     * Append a top value with a backslash before the separators |, = and &amp;
+     * and before backslashes, so the values can be split again.
+     */
+    static void appendEscaped(String value, StringBuilder sb){
+        for(int i = 0, len = value.length(); i < len; i++){
+            char c = value.charAt(i);
+            if(c == '|' || c == '=' || c == '&' || c == '\\') sb.append('\\');
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Statistics of one parameter.
+     */
+    private static class Column {
+        /**
+         * Rows with the parameter.
+         */
+        long present = 0;
+
+        long empty = 0;
+
+        /**
+         * Exact counts by value or null once estimated.
+         */
+        Map<String, long[]> exact = new LinkedHashMap<String, long[]>();
+
+        HyperLogLog distinct;
+
+        CountMinSketch frequency;
+
+        /**
+         * Likely frequent values with their estimated counts.
+         */
+        Map<String, long[]> candidates;
+
+        void add(String value){
+            present++;
+            if(value.length() == 0){
+                empty++;
+                return;
+            }
+
+            if(exact != null){
+                long [] count = exact.get(value);
+                if(count == null){
+                    exact.put(value, new long[]{1});
+                    if(exact.size() > EXACT_LIMIT) estimate();
+                }else{
+                    count[0]++;
+                }
+                return;
+            }
+
+            long hash = HyperLogLog.hash(value);
+            distinct.add(hash);
+            offer(value, frequency.add(hash, 1));
+        }
+
+        /**
+         * Switch from exact counts to the sketches.
+         */
+        private void estimate(){
+            distinct = new HyperLogLog();
+            frequency = new CountMinSketch();
+            candidates = new LinkedHashMap<String, long[]>();
+            for(Map.Entry<String, long[]> me : exact.entrySet()){
+                long hash = HyperLogLog.hash(me.getKey());
+                distinct.add(hash);
+                offer(me.getKey(), frequency.add(hash, me.getValue()[0]));
+            }
+            exact = null;
+        }
+
+        /**
+         * Keep a value as a candidate if its count is among the highest.
+         */
+        private void offer(String value, long estimate){
+            long [] count = candidates.get(value);
+            if(count != null){
+                count[0] = estimate;
+                return;
+            }
+            if(candidates.size() < CANDIDATES){
+                candidates.put(value, new long[]{estimate});
+                return;
+            }
+
+            String lowest = null;
+            long lowestCount = Long.MAX_VALUE;
+            for(Map.Entry<String, long[]> me : candidates.entrySet()){
+                if(me.getValue()[0] < lowestCount){
+                    lowest = me.getKey();
+                    lowestCount = me.getValue()[0];
+                }
+            }
+            if(estimate > lowestCount){
+                candidates.remove(lowest);
+                candidates.put(value, new long[]{estimate});
+            }
+        }
+
+        void merge(Column other){
+            present += other.present;
+            empty += other.empty;
+
+            if(exact != null && other.exact != null){
+                for(Map.Entry<String, long[]> me : other.exact.entrySet()){
+                    long [] count = exact.get(me.getKey());
+                    if(count == null){
+                        exact.put(me.getKey(), new long[]{me.getValue()[0]});
+                    }else{
+                        count[0] += me.getValue()[0];
+                    }
+                }
+                if(exact.size() > EXACT_LIMIT) estimate();
+                return;
+            }
+
+            if(exact != null) estimate();
+            if(other.exact != null){
+                for(Map.Entry<String, long[]> me : other.exact.entrySet()){
+                    long hash = HyperLogLog.hash(me.getKey());
+                    distinct.add(hash);
+                    offer(me.getKey(), frequency.add(hash, me.getValue()[0]));
+                }
+                return;
+            }
+
+            distinct.merge(other.distinct);
+            frequency.merge(other.frequency);
+            List<String> values = new ArrayList<String>(candidates.keySet());
+            values.addAll(other.candidates.keySet());
+            for(String value : values){
+                offer(value, frequency.estimate(HyperLogLog.hash(value)));
+            }
+        }
+
+        long distinct(){
+            return exact != null ? exact.size() : distinct.estimate();
+        }
+
+        /**
+         * Returns the most frequent values, most frequent first. Estimated 
+         * counts which could be the noise of the sketch are left out e.g. 
+         * for identifiers where no value is frequent.
+         */
+        List<Map.Entry<String, Long>> top(int n){
+            Map<String, long[]> counts = exact != null ? exact : candidates;
+            long noise = exact != null ? 0 : 2 * (present - empty) / CountMinSketch.WIDTH;
+            List<Map.Entry<String, Long>> values = new ArrayList<Map.Entry<String, Long>>();
+            for(Map.Entry<String, long[]> me : counts.entrySet()){
+                if(me.getValue()[0] <= noise) continue;
+                values.add(new AbstractMap.SimpleEntry<String, Long>(me.getKey(), me.getValue()[0]));
+            }
+            Collections.sort(values, new Comparator<Map.Entry<String, Long>>() {
+                public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b){
+                    return b.getValue().compareTo(a.getValue());
+                }
+            });
+            return values.size() > n ? values.subList(0, n) : values;
+        }
+    }
+}
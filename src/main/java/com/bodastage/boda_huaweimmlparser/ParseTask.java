@@ -0,0 +1,106 @@
+/*
+ * A file or byte range of a file to parse on a worker thread.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Part of the input parsed by one worker. Files larger than the split size
+ * are cut into byte ranges that start at the beginning of a command so each
+ * command belongs to exactly one range.
+ *
+ * Tasks are numbered in input order. The results are used in that order so
+ * the outputs are the same as when the files are parsed one after the other.
+ * The tasks are handed to the workers largest first so a big file does not
+ * start last and hold up the end of the run.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ParseTask {
+
+    /**
+     * Position in input order.
+     */
+    final int index;
+
+    final String filename;
+
+    /**
+     * Byte offset of the first command.
+     */
+    final long start;
+
+    /**
+     * Commands starting at or after this offset belong to the next range.
+     */
+    final long end;
+
+    /**
+     * True for the last range of the file.
+     */
+    final boolean last;
+
+    /**
+     * Number of bytes in the range.
+     */
+    final long size;
+
+    ParseTask(int index, String filename, long start, long end, boolean last, long size){
+        this.index = index;
+        this.filename = filename;
+        this.start = start;
+        this.end = end;
+        this.last = last;
+        this.size = size;
+    }
+
+    /**
+     * Returns the tasks for the files in input order.
+     *
+     * @since 1.3.1
+     * @param files Files to parse
+     * @param startOffsets Offset to start from for each file e.g. 0 or the
+     *        checkpointed offset
+     * @param splitSize Files larger than this are split into ranges
+     */
+    static List<ParseTask> plan(List<File> files, List<Long> startOffsets, long splitSize) throws IOException{
+        List<ParseTask> tasks = new ArrayList<ParseTask>();
+        for(int i = 0; i < files.size(); i++){
+            String filename = files.get(i).getPath();
+            long length = files.get(i).length();
+            long start = startOffsets.get(i);
+
+            while(splitSize > 0 && length - start > splitSize + splitSize / 2){
+                long end = MMLFileReader.findCommandStart(filename, start + splitSize);
+                if(end >= length) break;
+                tasks.add(new ParseTask(tasks.size(), filename, start, end, false, end - start));
+                start = end;
+            }
+            tasks.add(new ParseTask(tasks.size(), filename, start, Long.MAX_VALUE, true, length - start));
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the tasks ordered by size, largest first.
+     *
+     * @since 1.3.1
+     */
+    static List<ParseTask> largestFirst(List<ParseTask> tasks){
+        List<ParseTask> sorted = new ArrayList<ParseTask>(tasks);
+        Collections.sort(sorted, new Comparator<ParseTask>() {
+            public int compare(ParseTask a, ParseTask b){
+                if(a.size != b.size) return a.size > b.size ? -1 : 1;
+                return a.index - b.index;
+            }
+        });
+        return sorted;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Parser progress checkpoint.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Records the progress of a parser run so that it can be resumed after a
+ * crash. A checkpoint holds the parser state, the input files already
+ * processed, the byte offset reached in the file being processed, the
+ * discovered schema and the sizes of the flushed csv outputs.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ParserCheckpoint {
+
+    /**
+     * Default checkpoint file name. It is created in the output directory.
+     *
+     * @since 1.3.1
+     */
+    public static final String FILE_NAME = ".boda-huaweimmlparser.checkpoint";
+
+    int parserState = ParserStates.EXTRACTING_PARAMETERS;
+
+    Integer lineNumber = 0;
+
+    /**
+     * Absolute paths of the input files completely processed in the current
+     * parser state.
+     */
+    Set<String> completedFiles = new LinkedHashSet<String>();
+
+    /**
+     * File being processed when the checkpoint was taken.
+     */
+    String currentFile = null;
+
+    /**
+     * Byte offset of the next unprocessed line in currentFile.
+     */
+    long currentFileOffset = 0;
+
+    /**
+     * Header values of currentFile. These are at the top of the file and are
+     * skipped when resuming from currentFileOffset.
+     */
+    Map<String, String> headerValues = new LinkedHashMap<String, String>();
+
+    /**
+     * Output name to flushed size in bytes.
+     */
+    Map<String, Long> outputOffsets = new LinkedHashMap<String, Long>();
+
+    /**
+     * Schema maps keyed by name i.e. classNameAttrsMap, parameterChildMap.
+     */
+    Map<String, Map<String, Stack<String>>> schema = new LinkedHashMap<String, Map<String, Stack<String>>>();
+
+    /**
+     * Write the checkpoint. The data is written to a temporary file first and
+     * then moved over the previous checkpoint so that a crash while saving
+     * does not leave a corrupt checkpoint behind.
+     *
+     * @since 1.3.1
+     * @param file
+     */
+    public void save(File file) throws IOException{
+        Properties p = new Properties();
+        p.setProperty("state", String.valueOf(parserState));
+        p.setProperty("line", String.valueOf(lineNumber));
+
+        int i = 0;
+        for(String f : completedFiles){
+            p.setProperty("completed." + (i++), f);
+        }
+
+        if(currentFile != null){
+            p.setProperty("current.file", currentFile);
+            p.setProperty("current.offset", String.valueOf(currentFileOffset));
+            for(Map.Entry<String, String> me : headerValues.entrySet()){
+                if(me.getValue() != null) p.setProperty("header." + me.getKey(), me.getValue());
+            }
+        }
+
+        for(Map.Entry<String, Long> me : outputOffsets.entrySet()){
+            p.setProperty("output." + me.getKey(), String.valueOf(me.getValue()));
+        }
+
+        for(Map.Entry<String, Map<String, Stack<String>>> s : schema.entrySet()){
+            int j = 0;
+            for(Map.Entry<String, Stack<String>> me : s.getValue().entrySet()){
+                String prefix = "schema." + s.getKey() + "." + j++;
+                p.setProperty(prefix + ".key", me.getKey());
+                if(me.getValue() != null){
+                    p.setProperty(prefix + ".values", join(me.getValue()));
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try{
+            p.store(out, "boda-huaweimmlparser checkpoint");
+            out.getFD().sync();
+        }finally{
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a checkpoint.
+     *
+     * @since 1.3.1
+     * @param file
+     * @return ParserCheckpoint
+     */
+    public static ParserCheckpoint load(File file) throws IOException{
+        Properties p = new Properties();
+        FileInputStream in = new FileInputStream(file);
+        try{
+            p.load(in);
+        }finally{
+            in.close();
+        }
+
+        ParserCheckpoint cp = new ParserCheckpoint();
+        cp.parserState = Integer.parseInt(p.getProperty("state"));
+        cp.lineNumber = Integer.valueOf(p.getProperty("line", "0"));
+
+        for(int i = 0; p.containsKey("completed." + i); i++){
+            cp.completedFiles.add(p.getProperty("completed." + i));
+        }
+
+        cp.currentFile = p.getProperty("current.file");
+        cp.currentFileOffset = Long.parseLong(p.getProperty("current.offset", "0"));
+
+        for(String key : p.stringPropertyNames()){
+            if(key.startsWith("header.")){
+                cp.headerValues.put(key.substring(7), p.getProperty(key));
+            }else if(key.startsWith("output.")){
+                cp.outputOffsets.put(key.substring(7), Long.valueOf(p.getProperty(key)));
+            }
+        }
+
+        //Schema entries are numbered to keep the column order
+        Map<String, Map<String, Stack<String>>> schema = new LinkedHashMap<String, Map<String, Stack<String>>>();
+        for(String name : schemaNames(p)){
+            Map<String, Stack<String>> map = new LinkedHashMap<String, Stack<String>>();
+            for(int j = 0; p.containsKey("schema." + name + "." + j + ".key"); j++){
+                String prefix = "schema." + name + "." + j;
+                String values = p.getProperty(prefix + ".values");
+                map.put(p.getProperty(prefix + ".key"), values == null ? null : split(values));
+            }
+            schema.put(name, map);
+        }
+        cp.schema = schema;
+
+        return cp;
+    }
+
+    private static Set<String> schemaNames(Properties p){
+        Set<String> names = new LinkedHashSet<String>();
+        for(String key : p.stringPropertyNames()){
+            if(!key.startsWith("schema.")) continue;
+            String rest = key.substring(7);
+            names.add(rest.substring(0, rest.indexOf('.')));
+        }
+        return names;
+    }
+
+    /**
+     * Add a schema map of the parser. The parser keeps the parameter names
+     * in raw stacks.
+     *
+     * @since 1.3.1
+     * @param name e.g. classNameAttrsMap
+     * @param map
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    void putSchemaMap(String name, Map<String, Stack> map){
+        schema.put(name, (Map)map);
+    }
+
+    /**
+     * Returns a schema map as the raw map of the parser or null if the
+     * checkpoint does not have it.
+     *
+     * @since 1.3.1
+     * @param name e.g. classNameAttrsMap
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Map<String, Stack> getSchemaMap(String name){
+        return (Map)schema.get(name);
+    }
+
+    private static String join(Stack<String> stack){
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < stack.size(); i++){
+            if(i > 0) sb.append(',');
+            sb.append(stack.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static Stack<String> split(String values){
+        Stack<String> stack = new Stack<String>();
+        if(values.length() == 0) return stack;
+        String [] vArray = values.split(",", -1);
+        for(int i = 0; i < vArray.length; i++){
+            stack.push(vArray[i]);
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Local HTTP parsing service.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Parses CFGMML files posted to a local HTTP server so several users share
+ * one warm JVM instead of each starting the parser.
+ *
+ * <pre>
+ * POST /parse?name=dump.txt            the body is the CFGMML file
+ * POST /parse?path=dumps/a.txt        parse a file or directory under the root
+ * GET  /status                         workers, active and queued requests
+ * </pre>
+ *
+ * Local paths are only parsed when a root directory is set and must be
+ * inside it. Relative paths are resolved against the root.
+ *
+ * The outputs are streamed back as tagged ndjson lines as they are written,
+ * or with format=zip as a zip of the csv file of each MO. Each request is
+ * parsed by a parser with the settings of the template parser e.g. the
+ * parameter file, verbs and multi-valued parameter mode.
+ *
+ * At most the given number of requests are parsed at a time. Others wait in
+ * a queue of limited length and requests beyond it are answered with 503.
+ * The server only listens on the loopback address.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class ParserServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private HuaweiMMLParser template;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private int workers;
+
+    /**
+     * Permits of the requests being parsed.
+     */
+    private Semaphore parsing;
+
+    /**
+     * Requests parsed or waiting.
+     */
+    private AtomicInteger pending = new AtomicInteger();
+
+    private int maxPending;
+
+    /**
+     * Canonical directory of the paths that may be parsed or null.
+     */
+    private File root = null;
+
+    /**
+     * @param template Parser with the settings of the requests
+     * @param port Port on the loopback address. 0 for any free port
+     * @param workers Number of requests parsed at a time
+     * @param queue Number of requests waiting for a worker
+     */
+    public ParserServer(HuaweiMMLParser template, int port, int workers, int queue) throws IOException{
+        this.template = template;
+        this.workers = Math.max(1, workers);
+        this.parsing = new Semaphore(this.workers, true);
+        this.maxPending = this.workers + Math.max(0, queue);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/parse", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleParse(exchange);
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                int active = ParserServer.this.workers - parsing.availablePermits();
+                sendText(exchange, 200, "application/json", "{\"workers\":" + ParserServer.this.workers
+                        + ",\"active\":" + active + ",\"queued\":" + Math.max(0, pending.get() - active) + "}");
+            }
+        });
+
+        //Exchanges wait for a worker on their own threads which are limited
+        //by the queue length
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Allow requests to parse the files and directories under a directory
+     * with the path parameter.
+     *
+     * @since 1.3.1
+     * @param directory
+     */
+    public void setRoot(File directory) throws IOException{
+        if(!directory.isDirectory()){
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        root = directory.getCanonicalFile();
+    }
+
+    /**
+     * Returns the canonical file of a path under the root or null if it is
+     * outside the root or there is no root.
+     */
+    private File resolve(String path) throws IOException{
+        if(root == null) return null;
+
+        File file = new File(path);
+        if(!file.isAbsolute()) file = new File(root, path);
+        file = file.getCanonicalFile();
+
+        String prefix = root.getPath();
+        if(!prefix.endsWith(File.separator)) prefix += File.separator;
+        return file.equals(root) || file.getPath().startsWith(prefix) ? file : null;
+    }
+
+    /**
+     * Start accepting requests.
+     *
+     * @since 1.3.1
+     */
+    public void start(){
+        server.start();
+    }
+
+    /**
+     * Stop the server after the requests being answered.
+     *
+     * @since 1.3.1
+     */
+    public void stop(){
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @since 1.3.1
+     */
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    private void handleParse(HttpExchange exchange) throws IOException{
+        try{
+            if(!exchange.getRequestMethod().equals("POST")){
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendText(exchange, 405, "text/plain", "POST a CFGMML file or a path\n");
+                return;
+            }
+
+            //Paths outside the root are refused whether they exist or not
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String path = query.get("path");
+            File file = path == null ? null : resolve(path);
+            if(path != null && file == null){
+                sendText(exchange, 403, "text/plain", "Paths are only parsed under the --serve-root directory\n");
+                return;
+            }
+            if(file != null && !file.exists()){
+                sendText(exchange, 404, "text/plain", "No such file or directory: " + path + "\n");
+                return;
+            }
+
+            if(pending.incrementAndGet() > maxPending){
+                pending.decrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "text/plain", "Too many requests\n");
+                return;
+            }
+
+            File work = null;
+            try{
+                work = File.createTempFile("boda-huaweimmlparser", ".request");
+                work.delete();
+                work.mkdirs();
+
+                //The posted file is received before waiting for a worker
+                String source = file == null ? null : file.getPath();
+                if(source == null){
+                    String name = query.get("name");
+                    File upload = new File(work, name == null ? "upload.txt" : new File(name).getName());
+                    receive(exchange.getRequestBody(), upload);
+                    source = upload.getPath();
+                }
+
+                parsing.acquire();
+                try{
+                    parse(exchange, source, "zip".equals(query.get("format")), new File(work, "out"));
+                }finally{
+                    parsing.release();
+                }
+            }finally{
+                pending.decrementAndGet();
+                if(work != null) deleteDirectory(work);
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            sendText(exchange, 503, "text/plain", "Server stopping\n");
+        }finally{
+            exchange.close();
+        }
+    }
+
+    /**
+     * Parse the request and send the outputs. Errors found before any
+     * output is sent are answered with 400 or 500, later errors end the
+     * response early.
+     */
+    private void parse(HttpExchange exchange, String source, boolean zip, File outputDirectory) throws IOException{
+        HuaweiMMLParser parser = template.newServiceParser();
+        parser.setDataSource(source);
+
+        ResponseStream response = new ResponseStream(exchange,
+                zip ? "application/zip" : "application/x-ndjson; charset=UTF-8");
+        try{
+            if(zip){
+                outputDirectory.mkdirs();
+                parser.setOutputDirectory(outputDirectory.getPath());
+            }else{
+                parser.setOutputStream(response);
+                parser.setOutputFormat(OutputTarget.NDJSON);
+            }
+            parser.parse();
+        }catch(IllegalArgumentException e){
+            if(!response.started) sendText(exchange, 400, "text/plain", e.getMessage() + "\n");
+            return;
+        }catch(Exception e){
+            if(!response.started) sendText(exchange, 500, "text/plain", e.getMessage() + "\n");
+            return;
+        }
+
+        if(zip) writeZip(outputDirectory, response);
+        response.start();
+        response.close();
+    }
+
+    /**
+     * Write the files of the output directory as a zip.
+     */
+    private void writeZip(File directory, OutputStream out) throws IOException{
+        List<File> files = new ArrayList<File>();
+        File [] list = directory.listFiles();
+        if(list != null) Collections.addAll(files, list);
+        Collections.sort(files);
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        byte [] buffer = new byte[65536];
+        for(File f : files){
+            if(!f.isFile()) continue;
+            zip.putNextEntry(new ZipEntry(f.getName()));
+            InputStream in = new FileInputStream(f);
+            try{
+                for(int n; (n = in.read(buffer)) > 0; ) zip.write(buffer, 0, n);
+            }finally{
+                in.close();
+            }
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    private static void receive(InputStream in, File file) throws IOException{
+        OutputStream out = new FileOutputStream(file);
+        try{
+            byte [] buffer = new byte[65536];
+            for(int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+        }finally{
+            out.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String contentType, String text) throws IOException{
+        byte [] body = text.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Returns the parameters of a raw query string.
+     *
+     * @since 1.3.1
+     * @param rawQuery e.g. format=zip&amp;name=dump.txt
+     */
+    static Map<String, String> parseQuery(String rawQuery) throws IOException{
+        Map<String, String> query = new HashMap<String, String>();
+        if(rawQuery == null) return query;
+        for(String pair : rawQuery.split("&")){
+            int eq = pair.indexOf('=');
+            if(eq <= 0) continue;
+            query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return query;
+    }
+
+    private static void deleteDirectory(File directory){
+        File [] files = directory.listFiles();
+        for(int i = 0; files != null && i < files.length; i++){
+            if(files[i].isDirectory()) deleteDirectory(files[i]);
+            files[i].delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * Response body which sends the status line with the first bytes, so
+     * an error found before any output can still be answered with an
+     * error status.
+     */
+    private static class ResponseStream extends OutputStream {
+        private HttpExchange exchange;
+        private String contentType;
+        private OutputStream body;
+        boolean started = false;
+
+        ResponseStream(HttpExchange exchange, String contentType){
+            this.exchange = exchange;
+            this.contentType = contentType;
+        }
+
+        void start() throws IOException{
+            if(started) return;
+            started = true;
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, 0);
+            body = exchange.getResponseBody();
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            start();
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException{
+            start();
+            body.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException{
+            if(started) body.flush();
+        }
+
+        @Override
+        public void close() throws IOException{
+            if(started) body.close();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Appends the csv parts written by the worker threads to the outputs.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Concatenates part files into the csv outputs. Each part starts with the
+ * header of its output. The header is written once when the output is
+ * started and skipped in the parts appended after it.
+ *
+ * The bytes are moved with FileChannel.transferTo so they are not copied
+ * through the heap. The parts of different outputs are appended
+ * concurrently.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class PartMerger {
+
+    private ExecutorService executor;
+
+    /**
+     * @param threads Number of outputs appended at the same time
+     */
+    public PartMerger(int threads){
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * Append the csv files in partDirectory to the files with the same
+     * names in outputDirectory and delete the parts.
+     *
+     * @since 1.3.1
+     * @param partDirectory
+     * @param outputDirectory
+     * @param started Names of the outputs that already have their header.
+     *        Other outputs are created or truncated.
+     * @return Names of the outputs appended to
+     */
+    public List<String> append(File partDirectory, final File outputDirectory,
+            Set<String> started) throws IOException{
+        File [] parts = partDirectory.listFiles();
+        List<String> names = new ArrayList<String>();
+        if(parts == null) return names;
+        Arrays.sort(parts);
+
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for(final File part : parts){
+            if(!part.getName().endsWith(".csv")) continue;
+
+            final String name = part.getName().substring(0, part.getName().length() - 4);
+            final boolean skipHeader = started.contains(name);
+            names.add(name);
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    transfer(part, new File(outputDirectory, part.getName()), skipHeader);
+                    part.delete();
+                    return null;
+                }
+            }));
+        }
+
+        IOException error = null;
+        for(Future<Void> result : results){
+            try{
+                result.get();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                if(error == null) error = new IOException(e);
+            }catch(ExecutionException e){
+                if(error == null){
+                    error = e.getCause() instanceof IOException
+                            ? (IOException)e.getCause() : new IOException(e.getCause());
+                }
+            }
+        }
+        if(error != null) throw error;
+
+        partDirectory.delete();
+        return names;
+    }
+
+    /**
+     * Stop the threads.
+     *
+     * @since 1.3.1
+     */
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    private static void transfer(File part, File target, boolean skipHeader) throws IOException{
+        FileChannel in = new FileInputStream(part).getChannel();
+        try{
+            FileChannel out = new FileOutputStream(target, skipHeader).getChannel();
+            try{
+                long position = skipHeader ? headerLength(in) : 0;
+                long size = in.size();
+                while(position < size){
+                    position += in.transferTo(position, size - position, out);
+                }
+            }finally{
+                out.close();
+            }
+        }finally{
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the length of the first line including its line break.
+     */
+    private static long headerLength(FileChannel in) throws IOException{
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = 0;
+        while(true){
+            buffer.clear();
+            int n = in.read(buffer, position);
+            if(n < 0) return position;
+            for(int i = 0; i < n; i++){
+                if(buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += n;
+        }
+    }
+}
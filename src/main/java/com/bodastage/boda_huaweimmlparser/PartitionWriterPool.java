@@ -0,0 +1,280 @@
+/*
+ * Writers of a partitioned output directory.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the rows of the outputs to partition directories by the export
+ * date and BSCID of each row e.g.
+ *
+ * <pre>
+ * GCELL/date=20190501/bscid=100/part-00000.csv
+ * </pre>
+ *
+ * The partition of a row is read from its DATETIME and BSCID meta fields.
+ * Outputs without the meta fields e.g. side tables are written to a single
+ * file as usual.
+ *
+ * A limited number of part files are kept open. When another file is
+ * needed the least recently used one is closed and the partition continues
+ * in a new part file, so every part file is complete with its own header.
+ * The first time a partition is written in a run its old part files are
+ * removed. Partitions the run does not write are left as they are.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class PartitionWriterPool {
+
+    private OutputTarget target;
+
+    private int maxOpenFiles;
+
+    /**
+     * Open part file of each partition directory, least recently used first.
+     */
+    private LinkedHashMap<File, PrintWriter> openFiles
+            = new LinkedHashMap<File, PrintWriter>(16, 0.75f, true);
+
+    /**
+     * Number of part files written to each partition directory in this run.
+     */
+    private Map<File, Integer> partCounts = new HashMap<File, Integer>();
+
+    private boolean error = false;
+
+    PartitionWriterPool(OutputTarget target, int maxOpenFiles){
+        this.target = target;
+        this.maxOpenFiles = Math.max(1, maxOpenFiles);
+    }
+
+    /**
+     * Returns the writer of an output. The first line written is the header.
+     *
+     * @since 1.3.1
+     * @param name Output name e.g. GCELL
+     */
+    PrintWriter open(String name){
+        return new PartitionedWriter(name);
+    }
+
+    private static final Pattern NON_DIGITS = Pattern.compile("[^0-9]");
+
+    private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^A-Za-z0-9_.-]");
+
+    /**
+     * Returns the DATETIME and BSCID fields of a csv row as they are in the
+     * line e.g. 2019-05-01 10:00:00,100
+     */
+    private static String getPartitionKey(String line){
+        int field = 0, start = -1;
+        boolean inQuotes = false;
+        for(int i = 0, len = line.length(); i < len; i++){
+            char c = line.charAt(i);
+            if(c == '"'){
+                inQuotes = !inQuotes;
+            }else if(c == ',' && !inQuotes){
+                field++;
+                if(field == 1) start = i + 1;
+                if(field == 3) return line.substring(start, i);
+            }
+        }
+        return start < 0 ? "" : line.substring(start);
+    }
+
+    /**
+     * Returns the partition directory of the DATETIME and BSCID fields of a
+     * row.
+     */
+    private static File getPartition(File root, String key){
+        String [] meta = new String[2];
+        int field = 0;
+        StringBuilder sb = new StringBuilder();
+        boolean inQuotes = false;
+        for(int i = 0, len = key.length(); i < len && field < meta.length; i++){
+            char c = key.charAt(i);
+            if(c == '"'){
+                inQuotes = !inQuotes;
+            }else if(c == ',' && !inQuotes){
+                meta[field++] = sb.toString();
+                sb.setLength(0);
+            }else{
+                sb.append(c);
+            }
+        }
+        if(field < meta.length) meta[field] = sb.toString();
+
+        //DATETIME is in the format 2019-05-01 10:00:00
+        String date = meta[0] == null ? "" : meta[0].trim();
+        int space = date.indexOf(' ');
+        if(space > 0) date = date.substring(0, space);
+        date = NON_DIGITS.matcher(date).replaceAll("");
+        if(date.length() == 0) date = "unknown";
+
+        String bscId = meta[1] == null ? "" : UNSAFE_CHARACTERS.matcher(meta[1].trim()).replaceAll("_");
+        if(bscId.length() == 0) bscId = "unknown";
+
+        return new File(new File(root, "date=" + date), "bscid=" + bscId);
+    }
+
+    /**
+     * Returns the open part file of a partition, opening a new one if
+     * needed.
+     */
+    private PrintWriter getPartFile(File partition, String name, String header) throws IOException{
+        PrintWriter pw = openFiles.get(partition);
+        if(pw != null) return pw;
+
+        if(openFiles.size() >= maxOpenFiles){
+            Iterator<Map.Entry<File, PrintWriter>> iter = openFiles.entrySet().iterator();
+            close(iter.next().getValue());
+            iter.remove();
+        }
+
+        Integer parts = partCounts.get(partition);
+        if(parts == null){
+            parts = 0;
+            partition.mkdirs();
+            File [] old = partition.listFiles();
+            for(int i = 0; old != null && i < old.length; i++){
+                if(old[i].getName().startsWith("part-")) old[i].delete();
+            }
+        }
+        partCounts.put(partition, parts + 1);
+
+        File file = new File(partition, String.format("part-%05d.%s", parts, target.getFormat()));
+        pw = target.openFile(file, name, false);
+        pw.println(header);
+        openFiles.put(partition, pw);
+        return pw;
+    }
+
+    private void close(PrintWriter pw){
+        pw.close();
+        if(pw.checkError()) error = true;
+    }
+
+    /**
+     * Flush or close the open part files of an output.
+     */
+    private void sync(File root, boolean close){
+        String prefix = root.getPath() + File.separator;
+        Iterator<Map.Entry<File, PrintWriter>> iter = openFiles.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<File, PrintWriter> me = iter.next();
+            if(!me.getKey().getPath().startsWith(prefix)) continue;
+
+            if(close){
+                close(me.getValue());
+                iter.remove();
+            }else{
+                me.getValue().flush();
+                if(me.getValue().checkError()) error = true;
+            }
+        }
+    }
+
+    /**
+     * Rows of one output. Lines are routed to the part files in the pool.
+     */
+    private class PartitionedWriter extends PrintWriter {
+        private String name;
+        private File root;
+        private String header = null;
+
+        /**
+         * Partition of each DATETIME and BSCID pair in the rows.
+         */
+        private Map<String, File> partitions = new HashMap<String, File>();
+
+        /**
+         * Writer of an output without meta fields.
+         */
+        private PrintWriter single = null;
+
+        PartitionedWriter(String name){
+            super(new Writer(){
+                public void write(char[] cbuf, int off, int len){
+                }
+                public void flush(){
+                }
+                public void close(){
+                }
+            });
+            this.name = name;
+            this.root = target.getPartitionDirectory(name);
+        }
+
+        @Override
+        public void println(String line){
+            try{
+                if(single != null){
+                    single.println(line);
+                    return;
+                }
+
+                if(header == null){
+                    header = line;
+                    if(!line.startsWith("FILENAME,DATETIME,BSCID,")){
+                        single = target.openFile(target.getFile(name), name, false);
+                        single.println(line);
+                    }
+                    return;
+                }
+
+                String key = getPartitionKey(line);
+                File partition = partitions.get(key);
+                if(partition == null){
+                    partition = getPartition(root, key);
+                    partitions.put(key, partition);
+                }
+
+                synchronized(PartitionWriterPool.this){
+                    getPartFile(partition, name, header).println(line);
+                }
+            }catch(IOException e){
+                setError();
+            }
+        }
+
+        @Override
+        public void flush(){
+            if(single != null){
+                single.flush();
+                return;
+            }
+            synchronized(PartitionWriterPool.this){
+                sync(root, false);
+            }
+        }
+
+        @Override
+        public void close(){
+            if(single != null){
+                single.close();
+                return;
+            }
+            synchronized(PartitionWriterPool.this){
+                sync(root, true);
+            }
+        }
+
+        @Override
+        public boolean checkError(){
+            if(single != null) return single.checkError() || super.checkError();
+            synchronized(PartitionWriterPool.this){
+                return error || super.checkError();
+            }
+        }
+    }
+}
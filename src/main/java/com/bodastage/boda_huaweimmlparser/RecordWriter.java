@@ -0,0 +1,123 @@
+/*
+ * Base of the encoders of the csv rows written by the parser.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Re-encodes the csv lines of one output as they are written. The first
+ * line is the header and the following lines are rows. Fields are scanned
+ * in place in the line so no strings are created per field.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public abstract class RecordWriter extends PrintWriter {
+
+    private boolean headerWritten = false;
+
+    /**
+     * Inferred types of the columns or null to write all values as text.
+     */
+    private ColumnTypes columnTypes = null;
+
+    private String output;
+
+    protected RecordWriter(Writer out){
+        super(out);
+    }
+
+    protected RecordWriter(OutputStream out){
+        super(out);
+    }
+
+    @Override
+    public void println(String line){
+        try{
+            if(!headerWritten){
+                headerWritten = true;
+                writeHeader(CSVUtil.split(line));
+            }else{
+                writeRow(line);
+            }
+        }catch(IOException e){
+            setError();
+        }
+    }
+
+    /**
+     * Write the values of the typed columns of an output as numbers and enum
+     * values.
+     *
+     * @since 1.3.1
+     * @param columnTypes Types inferred by the parser
+     * @param output Output name e.g. GCELL
+     */
+    void setColumnTypes(ColumnTypes columnTypes, String output){
+        this.columnTypes = columnTypes;
+        this.output = output;
+    }
+
+    /**
+     * Returns the type of a column, TEXT if the values are not typed.
+     */
+    protected int getType(String column){
+        return columnTypes == null ? ColumnTypes.TEXT : columnTypes.getType(output, column);
+    }
+
+    /**
+     * Returns the values of an enum column in code order.
+     */
+    protected List<String> getSymbols(String column){
+        return columnTypes.getSymbols(output, column);
+    }
+
+    /**
+     * Called with the field names of the output.
+     */
+    protected abstract void writeHeader(String[] names) throws IOException;
+
+    /**
+     * Called with each csv row.
+     */
+    protected abstract void writeRow(String line) throws IOException;
+
+    /**
+     * Returns the index of the comma after the field starting at pos or the
+     * line length for the last field.
+     *
+     * @since 1.3.1
+     * @param line
+     * @param pos Start of the field
+     */
+    static int fieldEnd(String line, int pos){
+        int len = line.length();
+        if(pos < len && line.charAt(pos) == '"'){
+            for(int i = pos + 1; i < len; i++){
+                if(line.charAt(i) != '"') continue;
+                if(i + 1 < len && line.charAt(i + 1) == '"'){
+                    i++;
+                }else{
+                    pos = i;
+                    break;
+                }
+            }
+        }
+        int comma = line.indexOf(',', pos);
+        return comma < 0 ? len : comma;
+    }
+
+    /**
+     * Returns true if the field between start and end is quoted. The value
+     * of a quoted field is between start + 1 and end - 1 with doubled
+     * quotes.
+     */
+    static boolean isQuoted(String line, int start, int end){
+        return end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"';
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Fingerprint of the parameter values of a row.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+/**
+ * 64 bit hash of the parameter values of a row for change detection. A
+ * loader compares the hash of a row to the hash of the same MO instance in
+ * an earlier dump and only loads the rows which changed.
+ *
+ * The row hash is the sum of the hashes of each parameter name and value,
+ * so it does not depend on the column order, on columns added to the
+ * output for other rows or on the output mode of the multi-valued
+ * parameters. The meta fields e.g. FILENAME and DATETIME are not included.
+ * Empty values count as missing.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class RowHash {
+
+    /**
+     * Column added to the outputs.
+     */
+    public static final String COLUMN = "ROW_HASH";
+
+    private RowHash(){
+    }
+
+    /**
+     * Returns the hash of a parameter value to add to the row hash.
+     *
+     * @since 1.3.1
+     * @param name Parameter name
+     * @param value Value as in the command or null
+     */
+    public static long hash(String name, String value){
+        if(value == null || value.length() == 0) return 0;
+
+        //Hash of name=value as for the sketches
+        long h = HyperLogLog.fnv(HyperLogLog.FNV_OFFSET, name);
+        h = HyperLogLog.fnv(h, "=");
+        return HyperLogLog.mix(HyperLogLog.fnv(h, value));
+    }
+}
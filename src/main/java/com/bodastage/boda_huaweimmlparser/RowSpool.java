@@ -0,0 +1,197 @@
+/*
+ * Spool of parsed rows for single pass parsing.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the rows of all the outputs while the schema is still growing so
+ * that the csv files can be written with their final headers after a single
+ * pass over the input.
+ *
+ * Each row is written with the id of its layout i.e. the command verb, the
+ * MO and the parameter names present on the line, followed by the values
+ * only. Layouts and the meta fields of each file are kept in memory, so a
+ * row costs about the size of its values on disk.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class RowSpool {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the spooled rows in the order they were written.
+     */
+    public interface RowVisitor {
+        void visit(Layout layout, String meta, String[] values) throws IOException;
+    }
+
+    /**
+     * Verb, MO and parameter names shared by rows.
+     */
+    public static class Layout {
+        public final String verb;
+        public final int verbIndex;
+        public final String moName;
+        public final String [] names;
+
+        Layout(String verb, int verbIndex, String moName, String[] names){
+            this.verb = verb;
+            this.verbIndex = verbIndex;
+            this.moName = moName;
+            this.names = names;
+        }
+    }
+
+    private File file;
+
+    private DataOutputStream out;
+
+    private Map<String, Integer> layoutIds = new HashMap<String, Integer>();
+    private List<Layout> layouts = new ArrayList<Layout>();
+
+    private Map<String, Integer> metaIds = new HashMap<String, Integer>();
+    private List<String> metas = new ArrayList<String>();
+
+    private long rowCount = 0;
+
+    public RowSpool(File file) throws IOException{
+        this.file = file;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+    }
+
+    public long getRowCount(){
+        return rowCount;
+    }
+
+    /**
+     * Spool a row.
+     *
+     * @since 1.3.1
+     * @param verb Command verb e.g. ADD
+     * @param verbIndex Index of the verb in the verb registry
+     * @param moName MO name
+     * @param meta Meta fields csv string
+     * @param values Parameter name to value in line order
+     */
+    public void write(String verb, int verbIndex, String moName, String meta,
+            Map<String, String> values) throws IOException{
+        StringBuilder sb = new StringBuilder();
+        sb.append(verbIndex).append('\u0000').append(moName);
+        Iterator<String> iter = values.keySet().iterator();
+        while(iter.hasNext()){
+            sb.append('\u0000').append(iter.next());
+        }
+        String layoutKey = sb.toString();
+
+        Integer layoutId = layoutIds.get(layoutKey);
+        if(layoutId == null){
+            layoutId = layouts.size();
+            layoutIds.put(layoutKey, layoutId);
+            layouts.add(new Layout(verb, verbIndex, moName,
+                    values.keySet().toArray(new String[values.size()])));
+        }
+
+        Integer metaId = metaIds.get(meta);
+        if(metaId == null){
+            metaId = metas.size();
+            metaIds.put(meta, metaId);
+            metas.add(meta);
+        }
+
+        writeVarInt(layoutId);
+        writeVarInt(metaId);
+        iter = values.values().iterator();
+        while(iter.hasNext()){
+            byte [] bytes = iter.next().getBytes(UTF8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+        rowCount++;
+    }
+
+    /**
+     * Read back the rows in order and delete the spool.
+     *
+     * @since 1.3.1
+     * @param visitor
+     */
+    public void replay(RowVisitor visitor) throws IOException{
+        out.close();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try{
+            byte [] buffer = new byte[256];
+            for(long r = 0; r < rowCount; r++){
+                Layout layout = layouts.get(readVarInt(in));
+                String meta = metas.get(readVarInt(in));
+                String [] values = new String[layout.names.length];
+                for(int i = 0; i < values.length; i++){
+                    int len = readVarInt(in);
+                    if(len > buffer.length) buffer = new byte[Math.max(len, buffer.length * 2)];
+                    in.readFully(buffer, 0, len);
+                    values[i] = new String(buffer, 0, len, UTF8);
+                }
+                visitor.visit(layout, meta, values);
+            }
+        }finally{
+            in.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * Finish writing the spool so it can be replayed by another thread.
+     *
+     * @since 1.3.1
+     */
+    public void finish() throws IOException{
+        out.close();
+    }
+
+    /**
+     * Discard the spool.
+     *
+     * @since 1.3.1
+     */
+    public void close() throws IOException{
+        out.close();
+        file.delete();
+    }
+
+    private void writeVarInt(int value) throws IOException{
+        while((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException{
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            int b = in.read();
+            if(b < 0) throw new EOFException("Truncated row spool");
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Corrupt row spool");
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Schema discovered from part of the input.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * The managed objects, parameters and multi-valued parameter children 
+ * discovered from one input file during the parameter extraction stage.
+ * 
+ * Fragments from different files are discovered in parallel and merged in 
+ * file order. Merging appends the parameters not seen before in the order 
+ * they were found, which gives the same column order as discovering the 
+ * files one after the other.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class SchemaFragment {
+    
+    /**
+     * MO to parameters for SET and ADD lines. The maps are shared with the
+     * parser which holds raw stacks.
+     */
+    @SuppressWarnings("rawtypes")
+    Map<String, Stack> classNameAttrsMap = new LinkedHashMap<String, Stack>();
+    
+    /**
+     * Multi-valued parameter to child parameters.
+     */
+    @SuppressWarnings("rawtypes")
+    Map<String, Stack> parameterChildMap = new LinkedHashMap<String, Stack>();
+    
+    /**
+     * Multi-valued parameters with a child value other than 0 or 1.
+     */
+    Set<String> nonBinaryMVParameters = new LinkedHashSet<String>();
+    
+    /**
+     * Types of the parameter values or null when not inferred.
+     */
+    ColumnTypes columnTypes = null;
+    
+    /**
+     * Verb e.g. ACT to the MO parameters for that verb.
+     */
+    @SuppressWarnings("rawtypes")
+    Map<String, Map<String, Stack>> verbClassNameAttrsMaps 
+            = new LinkedHashMap<String, Map<String, Stack>>();
+    
+    /**
+     * Merge MO to parameter maps. Parameters not in the target are appended.
+     * 
+     * @since 1.3.1
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    static void appendUnseen(Map<String, Stack> target, Map<String, Stack> source){
+        Iterator<Map.Entry<String, Stack>> iter = source.entrySet().iterator();
+        while(iter.hasNext()){
+            Map.Entry<String, Stack> me = iter.next();
+            Stack sourceStack = me.getValue();
+            Stack targetStack = target.get(me.getKey());
+            
+            if(targetStack == null){
+                targetStack = new Stack();
+                target.put(me.getKey(), targetStack);
+            }
+            
+            if(sourceStack == null) continue;
+            
+            for(int i = 0; i < sourceStack.size(); i++){
+                Object pName = sourceStack.get(i);
+                if(!targetStack.contains(pName)) targetStack.push(pName);
+            }
+        }
+    }
+    
+    /**
+     * Merge maps where the last definition of an MO wins as it does when the
+     * files are processed one after the other.
+     * 
+     * @since 1.3.1
+     */
+    @SuppressWarnings("rawtypes")
+    static void replace(Map<String, Stack> target, Map<String, Stack> source){
+        target.putAll(source);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Processes the MML commands of one verb.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.io.IOException;
+
+/**
+ * Processes the MML commands for a verb e.g. ADD, MOD or ACT. Handlers are
+ * registered with the parser and looked up by the first token of each line.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public interface VerbHandler {
+    
+    /**
+     * Process a command line.
+     * 
+     * @param parser The parser
+     * @param verb The verb e.g. ACT
+     * @param verbIndex Index of the verb's schema in the parser
+     * @param line The command line
+     */
+    void processLine(HuaweiMMLParser parser, String verb, int verbIndex, String line) 
+            throws IOException;
+}
@@ -0,0 +1,121 @@
+/*
+ * Lookup of the verb handlers by the first token of a command.
+ */
+package com.bodastage.boda_huaweimmlparser;
+
+import java.util.Arrays;
+
+/**
+ * Maps the first token of a command line to its verb handler. Each verb is 
+ * given an index which the parser uses to look up the verb's schema in an 
+ * array.
+ * 
+ * Lookups hash the characters of the token in place and compare against a 
+ * single candidate so that no substring is created for each line.
+ *
+ * @author info@bodastage.com
+ * @since 1.3.1
+ */
+public class VerbRegistry {
+    
+    private String [] verbs = new String[0];
+    
+    private VerbHandler [] handlers = new VerbHandler[0];
+    
+    /**
+     * Open addressing hash table of verb index + 1. 0 marks an empty slot.
+     */
+    private int [] table = new int[64];
+    
+    /**
+     * Register a verb. The handler replaces any previous handler of the verb.
+     * 
+     * @since 1.3.1
+     * @param verb
+     * @param handler
+     * @return The verb index
+     */
+    public int register(String verb, VerbHandler handler){
+        int index = indexOf(verb, verb.length());
+        if(index >= 0){
+            handlers[index] = handler;
+            return index;
+        }
+        
+        index = verbs.length;
+        verbs = Arrays.copyOf(verbs, index + 1);
+        handlers = Arrays.copyOf(handlers, index + 1);
+        verbs[index] = verb;
+        handlers[index] = handler;
+        
+        //Keep the table at most half full
+        if(verbs.length * 2 > table.length){
+            table = new int[table.length * 2];
+            for(int i = 0; i < verbs.length; i++){
+                insert(i);
+            }
+        }else{
+            insert(index);
+        }
+        
+        return index;
+    }
+    
+    private void insert(int index){
+        String verb = verbs[index];
+        int slot = slot(hash(verb, verb.length()));
+        while(table[slot] != 0){
+            slot = (slot + 1) & (table.length - 1);
+        }
+        table[slot] = index + 1;
+    }
+    
+    /**
+     * Returns the index of the verb made up of the first end characters of 
+     * the line or -1 if it is not registered.
+     * 
+     * @since 1.3.1
+     * @param line
+     * @param end Length of the verb e.g. the index of the first space
+     * @return int
+     */
+    public int indexOf(String line, int end){
+        int slot = slot(hash(line, end));
+        int entry;
+        while((entry = table[slot]) != 0){
+            String verb = verbs[entry - 1];
+            if(verb.length() == end && line.regionMatches(0, verb, 0, end)){
+                return entry - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+    
+    private static int hash(String s, int end){
+        int h = 0;
+        for(int i = 0; i < end; i++){
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+    
+    private int slot(int h){
+        return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+    
+    public String getVerb(int index){
+        return verbs[index];
+    }
+    
+    public VerbHandler getHandler(int index){
+        return handlers[index];
+    }
+    
+    /**
+     * Returns the number of registered verbs.
+     */
+    public int size(){
+        return verbs.length;
+    }
+}
@@ -4,12 +4,35 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.slf4j.LoggerFactory;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import static junit.framework.Assert.assertTrue;
 
 /**
@@ -78,4 +101,1166 @@ public class AppTest extends TestCase {
         }
 
     }
+    
+    public void testServe() throws Exception {
+        ClassLoader classLoader = getClass().getClassLoader();
+        File inFile = new File(classLoader.getResource("CFGMML1.txt").getFile());
+        
+        ParserServer server = new ParserServer(new HuaweiMMLParser(), 0, 2, 4);
+        server.setRoot(inFile.getParentFile());
+        server.start();
+        try{
+            String url = "http://127.0.0.1:" + server.getPort() + "/parse";
+            
+            //Posted file streamed back as ndjson
+            HttpURLConnection conn = (HttpURLConnection)new URL(url + "?name=CFGMML1.txt").openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            OutputStream out = conn.getOutputStream();
+            InputStream in = new FileInputStream(inFile);
+            try{
+                byte [] buffer = new byte[4096];
+                for(int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+            }finally{
+                in.close();
+                out.close();
+            }
+            assertEquals(200, conn.getResponseCode());
+            
+            List<String> lines = new ArrayList<String>();
+            BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+            for(String line; (line = br.readLine()) != null; ) lines.add(line);
+            br.close();
+            
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).startsWith("{\"OUTPUT\":\"MONAME\",\"FILENAME\":\"CFGMML1.txt\""));
+            assertTrue(lines.get(0).contains("\"PARAM4\":\"Some string, with, commas\""));
+            
+            //Local file under the root returned as a zip of csv files
+            conn = post(url + "?format=zip&path=" + URLEncoder.encode(inFile.getAbsolutePath(), "UTF-8"));
+            assertEquals(200, conn.getResponseCode());
+            
+            ZipInputStream zip = new ZipInputStream(conn.getInputStream());
+            List<String> entries = new ArrayList<String>();
+            for(ZipEntry entry; (entry = zip.getNextEntry()) != null; ) entries.add(entry.getName());
+            zip.close();
+            assertEquals(Arrays.asList("MONAME.csv"), entries);
+            
+            //Missing input under the root
+            assertEquals(404, post(url + "?path=missing.txt").getResponseCode());
+            
+            //Paths outside the root are refused whether they exist or not
+            String outside = new File(inFile.getParentFile().getParentFile(), "missing.txt").getAbsolutePath();
+            assertEquals(403, post(url + "?path=" + URLEncoder.encode(outside, "UTF-8")).getResponseCode());
+            assertEquals(403, post(url + "?path=" + URLEncoder.encode("../missing.txt", "UTF-8")).getResponseCode());
+            assertEquals(403, post(url + "?path=" + URLEncoder.encode(System.getProperty("java.io.tmpdir"), "UTF-8")).getResponseCode());
+            
+            //Only POST is parsed
+            conn = (HttpURLConnection)new URL(url + "?path=CFGMML1.txt").openConnection();
+            assertEquals(405, conn.getResponseCode());
+        }finally{
+            server.stop();
+        }
+        
+        //Without a root no path is parsed
+        server = new ParserServer(new HuaweiMMLParser(), 0, 1, 0);
+        server.start();
+        try{
+            String url = "http://127.0.0.1:" + server.getPort() + "/parse";
+            assertEquals(403, post(url + "?path=" + URLEncoder.encode(inFile.getAbsolutePath(), "UTF-8")).getResponseCode());
+        }finally{
+            server.stop();
+        }
+    }
+    
+    /**
+     * Returns a connection that posted an empty body.
+     */
+    private static HttpURLConnection post(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.getOutputStream().close();
+        return conn;
+    }
+    
+    /**
+     * Returns an empty directory under the temporary directory.
+     */
+    private File newTestDirectory(String name){
+        File dir = new File(System.getProperty("java.io.tmpdir"), "boda-huaweimmlparser-" + name);
+        File [] files = dir.listFiles();
+        for(int i = 0; files != null && i < files.length; i++){
+            if(files[i].isDirectory()){
+                File [] children = files[i].listFiles();
+                for(int j = 0; children != null && j < children.length; j++) children[j].delete();
+            }
+            files[i].delete();
+        }
+        dir.mkdirs();
+        return dir;
+    }
+    
+    public void testCheckpointRoundTrip() throws Exception {
+        ParserCheckpoint cp = new ParserCheckpoint();
+        cp.parserState = ParserStates.EXTRACTING_VALUES;
+        cp.lineNumber = 42;
+        cp.completedFiles.add("/data/a.txt");
+        cp.completedFiles.add("/data/b.txt");
+        cp.currentFile = "/data/c.txt";
+        cp.currentFileOffset = 1234;
+        cp.headerValues.put("bscId", "100");
+        cp.outputOffsets.put("GCELL", 5678L);
+        
+        Stack<String> parameters = new Stack<String>();
+        parameters.push("CELLID");
+        parameters.push("CELLNAME");
+        parameters.push("LAC");
+        Map<String, Stack<String>> moParameters = new LinkedHashMap<String, Stack<String>>();
+        moParameters.put("GCELL", parameters);
+        moParameters.put("BTS", null);
+        cp.schema.put("classNameAttrsMap", moParameters);
+        
+        File file = new File(newTestDirectory("checkpoint"), ParserCheckpoint.FILE_NAME);
+        cp.save(file);
+        ParserCheckpoint loaded = ParserCheckpoint.load(file);
+        
+        assertEquals(ParserStates.EXTRACTING_VALUES, loaded.parserState);
+        assertEquals(Integer.valueOf(42), loaded.lineNumber);
+        assertEquals(Arrays.asList("/data/a.txt", "/data/b.txt"), new ArrayList<String>(loaded.completedFiles));
+        assertEquals("/data/c.txt", loaded.currentFile);
+        assertEquals(1234, loaded.currentFileOffset);
+        assertEquals("100", loaded.headerValues.get("bscId"));
+        assertEquals(Long.valueOf(5678), loaded.outputOffsets.get("GCELL"));
+        assertEquals(Arrays.asList("GCELL", "BTS"), new ArrayList<String>(loaded.schema.get("classNameAttrsMap").keySet()));
+        assertEquals(parameters, loaded.schema.get("classNameAttrsMap").get("GCELL"));
+        assertNull(loaded.schema.get("classNameAttrsMap").get("BTS"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        
+        //Parameter statistics are not checkpointed
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(file.getPath());
+        parser.setOutputDirectory(file.getParent());
+        parser.setCollectStats(true);
+        parser.setResume(true);
+        try{
+            parser.parse();
+            fail("--stats is rejected with --resume");
+        }catch(IllegalArgumentException e){
+        }
+    }
+    
+    private static void writeLines(File file, String... lines) throws IOException {
+        PrintWriter pw = new PrintWriter(file, "UTF-8");
+        try{
+            for(String line : lines) pw.println(line);
+        }finally{
+            pw.close();
+        }
+    }
+    
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try{
+            for(String line; (line = br.readLine()) != null; ) lines.add(line);
+        }finally{
+            br.close();
+        }
+        return lines;
+    }
+    
+    public void testDiff() throws Exception {
+        File oldDir = newTestDirectory("diff-old");
+        File newDir = newTestDirectory("diff-new");
+        String header = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,CELLID,LAC";
+        writeLines(new File(oldDir, "GCELL.csv"), header,
+                "a.txt,,7,,,,1,10",
+                "a.txt,,7,,,,2,20",
+                "a.txt,,7,,,,3,30");
+        writeLines(new File(newDir, "GCELL.csv"), header,
+                "b.txt,,7,,,,1,10",
+                "b.txt,,7,,,,3,31",
+                "b.txt,,7,,,,4,40");
+        
+        File diffFile = new File(newDir.getParentFile(), "boda-huaweimmlparser-diff.csv");
+        MODiff diff = new MODiff();
+        diff.diff(oldDir, newDir, diffFile);
+        List<String> lines = readLines(diffFile);
+        diffFile.delete();
+        
+        assertEquals(1, diff.getAddedCount());
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(1, diff.getChangedCount());
+        assertEquals("MO,BSCID,KEY,CHANGE,PARAMETER,OLD_VALUE,NEW_VALUE", lines.get(0));
+        assertTrue(lines.contains("GCELL,7,CELLID=4,ADDED,,,"));
+        assertTrue(lines.contains("GCELL,7,CELLID=2,REMOVED,,,"));
+        assertTrue(lines.contains("GCELL,7,CELLID=3,CHANGED,LAC,30,31"));
+        assertEquals(4, lines.size());
+        
+        //Partitioned comparison gives the same changes
+        diff = new MODiff();
+        diff.setMemoryLimit(16);
+        diff.diff(oldDir, newDir, diffFile);
+        List<String> partitioned = readLines(diffFile);
+        diffFile.delete();
+        assertEquals(4, partitioned.size());
+        assertTrue(partitioned.containsAll(lines));
+        assertFalse(new File(newDir, ".diff-GCELL").exists());
+    }
+    
+    public void testSchemaFragmentMerge(){
+        SchemaFragment target = new SchemaFragment();
+        Stack<String> gcell = new Stack<String>();
+        gcell.addAll(Arrays.asList("CELLID", "LAC"));
+        target.classNameAttrsMap.put("GCELL", gcell);
+        
+        SchemaFragment source = new SchemaFragment();
+        Stack<String> later = new Stack<String>();
+        later.addAll(Arrays.asList("CELLID", "CI", "LAC", "BCC"));
+        source.classNameAttrsMap.put("GCELL", later);
+        source.classNameAttrsMap.put("BTS", null);
+        SchemaFragment.appendUnseen(target.classNameAttrsMap, source.classNameAttrsMap);
+        
+        assertEquals(Arrays.asList("CELLID", "LAC", "CI", "BCC"), target.classNameAttrsMap.get("GCELL"));
+        assertTrue(target.classNameAttrsMap.get("BTS").isEmpty());
+    }
+    
+    private List<String> writeStore(MOStore store, String moName) throws IOException {
+        File directory = newTestDirectory("mostore");
+        OutputTarget output = OutputTarget.toDirectory(directory.getPath());
+        store.write(output, "BSCID");
+        output.close();
+        return readLines(new File(directory, moName + ".csv"));
+    }
+    
+    public void testMOStoreModifyAndRemove() throws Exception {
+        //MOD and RMV carry only some of the key parameters of the ADD
+        MOStore store = new MOStore(new MOKeyColumns());
+        store.apply("ADD", "GCELL", new String[]{"CELLID", "BTSID", "LAC"}, new String[]{"1", "7", "10"}, "100", "100");
+        store.apply("ADD", "GCELL", new String[]{"CELLID", "BTSID", "LAC"}, new String[]{"2", "7", "11"}, "100", "100");
+        store.apply("MOD", "GCELL", new String[]{"IDTYPE", "CELLID", "LAC"}, new String[]{"BYID", "1", "20"}, "100", "100");
+        assertEquals(2, store.getInstanceCount());
+        assertEquals(Arrays.asList("BSCID,CELLID,BTSID,LAC,IDTYPE", "100,1,7,20,BYID", "100,2,7,11,"),
+                writeStore(store, "GCELL"));
+        
+        store.apply("RMV", "GCELL", new String[]{"IDTYPE", "CELLID"}, new String[]{"BYID", "1"}, "100", "100");
+        assertEquals(1, store.getInstanceCount());
+        assertEquals(Arrays.asList("BSCID,CELLID,BTSID,LAC,IDTYPE", "100,2,7,11,"),
+                writeStore(store, "GCELL"));
+        
+        //Instances of other BSCs are not matched
+        store.apply("RMV", "GCELL", new String[]{"CELLID"}, new String[]{"2"}, "200", "200");
+        assertEquals(1, store.getInstanceCount());
+    }
+    
+    public void testMOStoreWithoutIdentifiers() throws Exception {
+        //MOs without ID parameters are identified by their name parameter
+        MOStore store = new MOStore(new MOKeyColumns());
+        store.apply("ADD", "NE", new String[]{"NENAME", "TYPE", "LOC"}, new String[]{"\"A\"", "X", "1"}, "100", "100");
+        store.apply("ADD", "NE", new String[]{"NENAME", "TYPE", "LOC"}, new String[]{"\"B\"", "Y", "2"}, "100", "100");
+        store.apply("MOD", "NE", new String[]{"NENAME", "LOC"}, new String[]{"\"A\"", "5"}, "100", "100");
+        assertEquals(2, store.getInstanceCount());
+        
+        store.apply("RMV", "NE", new String[]{"NENAME"}, new String[]{"\"B\""}, "100", "100");
+        assertEquals(1, store.getInstanceCount());
+        assertEquals(Arrays.asList("BSCID,NENAME,TYPE,LOC", "100,\"A\",X,5"), writeStore(store, "NE"));
+    }
+    
+    public void testAsyncWriterFailure() throws Exception {
+        PrintWriter failing = new PrintWriter(new StringWriter()){
+            @Override
+            public void println(String line){
+                throw new IllegalStateException("disk full");
+            }
+        };
+        StringWriter text = new StringWriter();
+        
+        AsyncWriterPool pool = new AsyncWriterPool(1);
+        PrintWriter bad = pool.wrap("GCELL", failing);
+        PrintWriter good = pool.wrap("BTS", new PrintWriter(text));
+        for(int i = 0; i < AsyncWriterPool.BATCH_SIZE * 3; i++) bad.println("row" + i);
+        good.println("row");
+        
+        //The writers return and report the failure
+        bad.close();
+        good.close();
+        assertTrue(bad.checkError());
+        assertEquals("row" + System.getProperty("line.separator"), text.toString());
+        try{
+            pool.shutdown();
+            fail("The write failure is not reported");
+        }catch(IOException e){
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+    
+    /**
+     * Returns the commands read from text with at most chunk bytes returned
+     * by each read of the stream.
+     */
+    private static List<String> readCommands(String text, final int chunk) throws IOException {
+        InputStream in = new ByteArrayInputStream(text.getBytes("UTF-8")){
+            @Override
+            public synchronized int read(byte[] b, int off, int len){
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+        
+        List<String> commands = new ArrayList<String>();
+        MMLFileReader reader = new MMLFileReader(in, Charset.forName("UTF-8"));
+        try{
+            for(String command; (command = reader.readCommand()) != null; ) commands.add(command);
+        }finally{
+            reader.close();
+        }
+        return commands;
+    }
+    
+    public void testReadCommand() throws Exception {
+        String text = "//Header\n"
+                + "ADD GCELL:CELLID=1,\n"
+                + "LAC=10;\n"
+                + "SET A:X=1;SET B:Y=2; SET C:Z=3;\n"
+                + "ADD GCELL:CELLNAME=\"a;b\", LAC=2;\n"
+                + "ADD GCELL:CELLID=2,\r\n"
+                + "LAC=20;\r\n"
+                + "Total 2 records\n"
+                + "ADD GCELL:CELLID=3, LAC=30\n"
+                + "ADD BTS:BTSID=1;\n";
+        List<String> expected = Arrays.asList("//Header",
+                "ADD GCELL:CELLID=1, LAC=10;",
+                "SET A:X=1;", "SET B:Y=2;", "SET C:Z=3;",
+                "ADD GCELL:CELLNAME=\"a;b\", LAC=2;",
+                "ADD GCELL:CELLID=2, LAC=20;",
+                "Total 2 records",
+                "ADD GCELL:CELLID=3, LAC=30",
+                "ADD BTS:BTSID=1;");
+        
+        //The same commands whatever the reads return
+        assertEquals(expected, readCommands(text, Integer.MAX_VALUE));
+        assertEquals(expected, readCommands(text, 1));
+        assertEquals(expected, readCommands(text, 7));
+    }
+    
+    public void testReadCommandAcrossBuffers() throws Exception {
+        //Move the line break of a wrapped command around the end of the 
+        //first buffer and the start of the look ahead
+        String command = "ADD GCELL:CELLID=1,\nLAC=10;\nADD BTS:BTSID=1;\n";
+        int lineBreak = command.indexOf('\n');
+        int [] ends = {MMLFileReader.BUFFER_SIZE, MMLFileReader.BUFFER_SIZE - MMLFileReader.LOOKAHEAD};
+        
+        for(int end : ends){
+            for(int shift = -3; shift <= 3; shift++){
+                int padding = end + shift - lineBreak - 1;
+                StringBuilder sb = new StringBuilder();
+                for(int i = 0; i < padding; i++) sb.append(' ');
+                sb.append('\n').append(command);
+                
+                assertEquals(Arrays.asList("ADD GCELL:CELLID=1, LAC=10;", "ADD BTS:BTSID=1;"),
+                        readCommands(sb.toString(), Integer.MAX_VALUE));
+            }
+        }
+    }
+    
+    public void testCommandCounter() throws Exception {
+        CommandCounter counter = new CommandCounter();
+        byte [] buffer = new byte[64];
+        long total = 0;
+        
+        //Enough keys to grow the table several times. Keys are counted 
+        //from the start of a larger buffer.
+        for(int round = 0; round < 3; round++){
+            for(int i = 0; i < 1000; i++){
+                if(round > i % 3) continue;
+                byte [] key = ("ADD MO" + i).getBytes("US-ASCII");
+                System.arraycopy(key, 0, buffer, 0, key.length);
+                buffer[key.length] = ':';
+                counter.add(buffer, key.length);
+                total++;
+            }
+        }
+        
+        Map<String, Long> counts = counter.getCounts();
+        assertEquals(1000, counts.size());
+        int i = 0;
+        for(Map.Entry<String, Long> me : counts.entrySet()){
+            assertEquals("ADD MO" + i, me.getKey());
+            assertEquals(i % 3 + 1, me.getValue().longValue());
+            i++;
+        }
+        assertEquals(total, counter.getTotal());
+    }
+    
+    /**
+     * Returns the files of a directory and their lines.
+     */
+    private static Map<String, List<String>> readDirectory(File directory) throws IOException {
+        Map<String, List<String>> contents = new LinkedHashMap<String, List<String>>();
+        File [] files = directory.listFiles();
+        Arrays.sort(files);
+        for(File f : files) contents.put(f.getName(), readLines(f));
+        return contents;
+    }
+    
+    public void testSplitRanges() throws Exception {
+        File input = newTestDirectory("split-in");
+        for(int i = 0; i < 3; i++){
+            StringBuilder sb = new StringBuilder();
+            sb.append("//Export start time: 2020-01-0").append(i + 1).append(" 10:00:00\n");
+            sb.append("//System BSCID: ").append(100 + i).append("\n");
+            for(int j = 0; j < 200; j++){
+                if(j % 4 == 0){
+                    //Wrapped commands end up at many of the range boundaries
+                    sb.append("ADD GCELL:CELLID=").append(j).append(",\n")
+                            .append("CELLNAME=\"C-").append(j).append("\",\n")
+                            .append("LAC=").append(i).append(";\n");
+                }else{
+                    sb.append("ADD GCELL:CELLID=").append(j).append(", CELLNAME=\"C-").append(j)
+                            .append("\", ALGOSWITCH=SW1-1&SW2-0, LAC=").append(i).append(";\n");
+                }
+                if(j % 7 == 0) sb.append("SET BTS:BTSID=").append(j).append(", NAME=\"B;").append(j).append("\";\n");
+            }
+            writeLines(new File(input, "f" + i + ".txt"), sb.toString());
+        }
+        
+        //Ranges start at a command and not inside a wrapped one
+        List<File> files = new ArrayList<File>();
+        List<Long> startOffsets = new ArrayList<Long>();
+        for(int i = 0; i < 3; i++){
+            files.add(new File(input, "f" + i + ".txt"));
+            startOffsets.add(0L);
+        }
+        List<ParseTask> tasks = ParseTask.plan(files, startOffsets, 300);
+        assertTrue(tasks.size() > 30);
+        for(ParseTask task : tasks){
+            if(task.start == 0) continue;
+            InputStream in = new FileInputStream(task.filename);
+            try{
+                byte [] b = new byte[12];
+                in.skip(task.start - 1);
+                in.read(b);
+                String text = new String(b, "US-ASCII");
+                assertTrue(text, text.startsWith("\nADD GCELL:") || text.startsWith("\nSET BTS:"));
+            }finally{
+                in.close();
+            }
+        }
+        
+        File single = newTestDirectory("split-single");
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(single.getPath());
+        parser.setThreads(1);
+        parser.parse();
+        
+        File split = newTestDirectory("split-ranges");
+        parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(split.getPath());
+        parser.setThreads(3);
+        parser.setSplitSize(300);
+        parser.parse();
+        
+        Map<String, List<String>> expected = readDirectory(single);
+        assertEquals(Arrays.asList("BTS.csv", "GCELL.csv"), new ArrayList<String>(expected.keySet()));
+        assertEquals(601, expected.get("GCELL.csv").size());
+        assertEquals(expected, readDirectory(split));
+    }
+    
+    public void testPartMerger() throws Exception {
+        File output = newTestDirectory("merge-out");
+        writeLines(new File(output, "GCELL.csv"), "stale");
+        
+        //A header longer than the read buffer of the header search
+        StringBuilder sb = new StringBuilder("FILENAME");
+        for(int i = 0; i < 2000; i++) sb.append(",PARAM").append(i);
+        String longHeader = sb.toString();
+        
+        PartMerger merger = new PartMerger(2);
+        try{
+            Set<String> started = new HashSet<String>();
+            File parts = newTestDirectory("merge-part0");
+            writeLines(new File(parts, "GCELL.csv"), "FILENAME,CELLID", "a.txt,1");
+            writeLines(new File(parts, "BTS.csv"), longHeader, "a.txt,1");
+            started.addAll(merger.append(parts, output, started));
+            assertFalse(parts.exists());
+            
+            parts = newTestDirectory("merge-part1");
+            writeLines(new File(parts, "GCELL.csv"), "FILENAME,CELLID", "b.txt,2", "b.txt,3");
+            writeLines(new File(parts, "BTS.csv"), longHeader, "b.txt,2");
+            writeLines(new File(parts, "TRX.csv"), "FILENAME,TRXID", "b.txt,4");
+            started.addAll(merger.append(parts, output, started));
+        }finally{
+            merger.close();
+        }
+        
+        assertEquals(Arrays.asList("FILENAME,CELLID", "a.txt,1", "b.txt,2", "b.txt,3"),
+                readLines(new File(output, "GCELL.csv")));
+        assertEquals(Arrays.asList(longHeader, "a.txt,1", "b.txt,2"), readLines(new File(output, "BTS.csv")));
+        assertEquals(Arrays.asList("FILENAME,TRXID", "b.txt,4"), readLines(new File(output, "TRX.csv")));
+    }
+    
+    public void testMOIndex() throws Exception {
+        String [] rows = {
+            "a.txt,100,\"C,1\",1\n",
+            "a.txt,100,\"C,2\",2\r\n",
+            "a.txt,100,\"C,3\",3\n",
+            "b.txt,200,\"C,4\",4\n",
+            "b.txt,200,\"C,5\",5\n",
+            "c.txt,100,\"C,6\",6\n"
+        };
+        String header = "FILENAME,BSCID,CELLNAME,CELLID\n";
+        long [] offsets = new long[rows.length];
+        StringBuilder sb = new StringBuilder(header);
+        for(int i = 0; i < rows.length; i++){
+            offsets[i] = sb.length();
+            sb.append(rows[i]);
+        }
+        
+        File csvFile = new File(newTestDirectory("index"), "GCELL.csv");
+        OutputStream out = new FileOutputStream(csvFile);
+        try{
+            out.write(sb.toString().getBytes("US-ASCII"));
+        }finally{
+            out.close();
+        }
+        
+        MOIndex built = MOIndex.build(csvFile, new String[]{"BSCID", "CELLID", "LAC"});
+        File indexFile = MOIndex.getIndexFile(csvFile);
+        built.save(indexFile);
+        MOIndex index = MOIndex.load(indexFile);
+        
+        assertEquals(Arrays.asList("BSCID", "CELLID"), index.getColumns());
+        List<long[]> runs = index.find("BSCID", "100");
+        assertEquals(2, runs.size());
+        assertEquals(offsets[0], runs.get(0)[0]);
+        assertEquals(3, runs.get(0)[1]);
+        assertEquals(offsets[5], runs.get(1)[0]);
+        assertEquals(1, runs.get(1)[1]);
+        assertEquals(4, index.count("BSCID", "100"));
+        assertEquals(offsets[4], index.find("CELLID", "5").get(0)[0]);
+        assertEquals(0, index.count("BSCID", "300"));
+        
+        assertEquals(Arrays.asList("b.txt,200,\"C,4\",4", "b.txt,200,\"C,5\",5"),
+                index.lookup(csvFile, "BSCID", "200"));
+        assertEquals(Arrays.asList("a.txt,100,\"C,1\",1", "a.txt,100,\"C,2\",2", 
+                "a.txt,100,\"C,3\",3", "c.txt,100,\"C,6\",6"), index.lookup(csvFile, "BSCID", "100"));
+        assertEquals(Arrays.asList("a.txt,100,\"C,2\",2"), index.lookup(csvFile, "CELLID", "2"));
+    }
+    
+    public void testSketches() throws Exception {
+        HyperLogLog all = new HyperLogLog();
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        CountMinSketch frequency = new CountMinSketch();
+        CountMinSketch other = new CountMinSketch();
+        for(int i = 0; i < 10000; i++){
+            long hash = HyperLogLog.hash("CELL-" + i);
+            all.add(hash);
+            
+            //Halves that overlap by 2000 values
+            if(i < 6000) first.add(hash);
+            if(i >= 4000) second.add(hash);
+            
+            frequency.add(hash, 1);
+            other.add(hash, 1);
+        }
+        
+        assertTrue(Math.abs(all.estimate() - 10000) < 500);
+        first.merge(second);
+        assertEquals(all.estimate(), first.estimate());
+        
+        long hot = HyperLogLog.hash("HOT");
+        frequency.add(hot, 500);
+        other.add(hot, 300);
+        frequency.merge(other);
+        assertTrue(frequency.estimate(hot) >= 800);
+        assertTrue(frequency.estimate(hot) < 800 + 2 * 20000 / CountMinSketch.WIDTH);
+    }
+    
+    public void testParameterStatsTopValues() throws Exception {
+        ParameterStats stats = new ParameterStats();
+        List<String> parameters = Arrays.asList("ALGOSWITCH");
+        String [] values = {"SW1-1&SW2-0", "SW1-1&SW2-0", "a=b|c\\d", ""};
+        for(String value : values){
+            Map<String, String> row = new LinkedHashMap<String, String>();
+            row.put("ALGOSWITCH", value);
+            stats.addRow("GCELL", parameters, row);
+        }
+        stats.addRow("GCELL", parameters, new LinkedHashMap<String, String>());
+        
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        stats.write(pw);
+        pw.flush();
+        String [] lines = sw.toString().split("\r?\n");
+        
+        assertEquals("MO,PARAMETER,ROWS,NULLS,EMPTY,DISTINCT,DISTINCT_ESTIMATED,TOP_VALUES", lines[0]);
+        assertEquals("GCELL,ALGOSWITCH,5,1,1,2,false,SW1-1\\&SW2-0=2|a\\=b\\|c\\\\d=1", lines[1]);
+    }
+    
+    public void testColumnTypes() throws Exception {
+        //Only canonical numbers are numbers
+        assertEquals(ColumnTypes.INT, ColumnTypes.classify("7"));
+        assertEquals(ColumnTypes.INT, ColumnTypes.classify("-12"));
+        assertEquals(ColumnTypes.LONG, ColumnTypes.classify("12345678901"));
+        assertEquals(ColumnTypes.DECIMAL, ColumnTypes.classify("1.5"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify("007"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify("1.50"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify("-0"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify(".5"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify("1234567890123456789"));
+        assertEquals(ColumnTypes.ENUM, ColumnTypes.classify("ON"));
+        assertEquals(ColumnTypes.TEXT, ColumnTypes.classify("SW1-1&SW2-0"));
+        
+        ColumnTypes types = new ColumnTypes();
+        types.add("GCELL", "CELLID", "1");
+        types.add("GCELL", "CELLID", "12345678901");
+        types.add("GCELL", "LAC", "1");
+        types.add("GCELL", "LAC", "007");
+        types.add("GCELL", "CELLNAME", "\"CELL\"");
+        types.add("GCELL", "STATE", "\"\"");
+        types.add("GCELL", "FILENAME", "a.txt");
+        for(int i = 0; i <= ColumnTypes.ENUM_LIMIT; i++){
+            types.add("GCELL", "MODE", "M" + i);
+            if(i < ColumnTypes.ENUM_LIMIT) types.add("GCELL", "BAND", "B" + i);
+        }
+        
+        assertEquals(ColumnTypes.LONG, types.getType("GCELL", "CELLID"));
+        assertEquals(ColumnTypes.TEXT, types.getType("GCELL", "LAC"));
+        assertEquals(ColumnTypes.ENUM, types.getType("GCELL", "CELLNAME"));
+        assertEquals(ColumnTypes.TEXT, types.getType("GCELL", "STATE"));
+        assertEquals(ColumnTypes.TEXT, types.getType("GCELL", "FILENAME"));
+        assertEquals(ColumnTypes.TEXT, types.getType("GCELL", "MODE"));
+        assertEquals(ColumnTypes.ENUM, types.getType("GCELL", "BAND"));
+        assertEquals(ColumnTypes.ENUM_LIMIT, types.getSymbols("GCELL", "BAND").size());
+        
+        //Merging in file order keeps the enum codes of a single pass
+        ColumnTypes first = new ColumnTypes();
+        first.add("GCELL", "SWITCH", "ON");
+        ColumnTypes second = new ColumnTypes();
+        second.add("GCELL", "SWITCH", "OFF");
+        second.add("GCELL", "SWITCH", "ON");
+        second.add("GCELL", "CELLID", "1");
+        first.merge(second);
+        assertEquals(Arrays.asList("ON", "OFF"), first.getSymbols("GCELL", "SWITCH"));
+        assertEquals(ColumnTypes.INT, first.getType("GCELL", "CELLID"));
+        
+        ColumnTypes restored = new ColumnTypes();
+        restored.restore(first.toSchemaMap());
+        assertEquals(Arrays.asList("ON", "OFF"), restored.getSymbols("GCELL", "SWITCH"));
+        assertEquals(ColumnTypes.INT, restored.getType("GCELL", "CELLID"));
+    }
+    
+    public void testRowHashColumnOrder() throws Exception {
+        File input = newTestDirectory("rowhash-in");
+        writeLines(new File(input, "f0.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLID=1, LAC=10, CELLNAME=\"A\";");
+        writeLines(new File(input, "f1.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLNAME=\"A\", CELLID=1, LAC=10;",
+                "ADD GCELL:CELLID=2, CI=5;");
+        writeLines(new File(input, "f2.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLNAME=\"A\", CELLID=1, LAC=11;");
+        
+        File output = newTestDirectory("rowhash-out");
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(output.getPath());
+        parser.setThreads(1);
+        parser.setRowHash(true);
+        parser.parse();
+        
+        List<String> lines = readLines(new File(output, "GCELL.csv"));
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+        int hashIndex = header.indexOf(RowHash.COLUMN);
+        assertEquals(header.size() - 1, hashIndex);
+        assertEquals(5, lines.size());
+        
+        //The same values in another order and with more columns in the 
+        //output have the same hash
+        String [] f0 = lines.get(1).split(",");
+        String [] f1 = lines.get(2).split(",");
+        String [] f2 = lines.get(4).split(",");
+        assertEquals("f0.txt", f0[0]);
+        assertEquals("f2.txt", f2[0]);
+        assertEquals(f0[hashIndex], f1[hashIndex]);
+        assertFalse(f0[hashIndex].equals(f2[hashIndex]));
+    }
+    
+    public void testDetectCharset() throws Exception {
+        Charset fallback = Charset.forName("ISO-8859-1");
+        Charset gbk = Charset.forName("GBK");
+        Charset utf8 = Charset.forName("UTF-8");
+        
+        byte [] bom = {(byte)0xEF, (byte)0xBB, (byte)0xBF, 'A', ';'};
+        assertEquals(utf8, MMLFileReader.detectCharset(new ByteArrayInputStream(bom), fallback));
+        assertEquals(fallback, MMLFileReader.detectCharset(
+                new ByteArrayInputStream("ADD GCELL:CELLID=1;\n".getBytes("US-ASCII")), fallback));
+        assertEquals(utf8, MMLFileReader.detectCharset(
+                new ByteArrayInputStream("ADD GCELL:CELLNAME=\"\u5c0f\u533a\";\n".getBytes(utf8)), fallback));
+        assertEquals(gbk, MMLFileReader.detectCharset(
+                new ByteArrayInputStream("ADD GCELL:CELLNAME=\"\u5c0f\u533a\";\n".getBytes(gbk)), fallback));
+        
+        //One line longer than the sample. The sample ends inside a character.
+        StringBuilder sb = new StringBuilder("ADD GCELL:CELLNAME=\"");
+        while(sb.length() < MMLFileReader.DETECTION_SAMPLE_SIZE) sb.append("\u5c0f\u533a");
+        String line = sb.append("\";").toString();
+        assertEquals(gbk, MMLFileReader.detectCharset(new ByteArrayInputStream(line.getBytes(gbk)), fallback));
+        assertEquals(utf8, MMLFileReader.detectCharset(new ByteArrayInputStream(line.getBytes(utf8)), fallback));
+        
+        //The stream is reset for the reader
+        BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(
+                "//\u5c0f\u533a\nADD GCELL:CELLID=1;\n".getBytes(gbk)));
+        Charset detected = MMLFileReader.detectCharset(in, fallback);
+        MMLFileReader reader = new MMLFileReader(in, detected);
+        try{
+            assertEquals("//\u5c0f\u533a", reader.readLine());
+            assertEquals("ADD GCELL:CELLID=1;", reader.readLine());
+            assertNull(reader.readLine());
+        }finally{
+            reader.close();
+        }
+    }
+    
+    public void testMergeSingletonMO() throws Exception {
+        File directory = newTestDirectory("merge-singleton");
+        String meta = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE";
+        
+        //MOs without identifying parameters have one instance per BSC or 
+        //are identified by their NAME parameter
+        File bscBasic = new File(directory, "BSCBASIC.csv");
+        writeLines(bscBasic, meta + ",TIMER,FLAG",
+                "a.txt,2019-05-01 10:00:00,7,,,,1,ON",
+                "b.txt,2019-05-02 10:00:00,7,,,,2,OFF",
+                "b.txt,2019-05-02 10:00:00,8,,,,1,ON");
+        File ne = new File(directory, "NE.csv");
+        writeLines(ne, meta + ",NENAME,TIMER",
+                "a.txt,2019-05-01 10:00:00,7,,,,\"A\",1",
+                "a.txt,2019-05-01 10:00:00,7,,,,\"B\",1",
+                "b.txt,2019-05-02 10:00:00,7,,,,\"A\",2");
+        
+        MOMerger merger = new MOMerger();
+        assertEquals(1, merger.merge("BSCBASIC", bscBasic));
+        assertEquals(Arrays.asList(meta + ",TIMER,FLAG",
+                "b.txt,2019-05-02 10:00:00,7,,,,2,OFF",
+                "b.txt,2019-05-02 10:00:00,8,,,,1,ON"), readLines(bscBasic));
+        
+        assertEquals(1, merger.merge("NE", ne));
+        assertEquals(Arrays.asList(meta + ",NENAME,TIMER",
+                "b.txt,2019-05-02 10:00:00,7,,,,\"A\",2",
+                "a.txt,2019-05-01 10:00:00,7,,,,\"B\",1"), readLines(ne));
+    }
+    
+    public void testDiffSingletonMO() throws Exception {
+        File oldDir = newTestDirectory("diff-singleton-old");
+        File newDir = newTestDirectory("diff-singleton-new");
+        String header = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,NAME,TIMER";
+        writeLines(new File(oldDir, "BSCBASIC.csv"), header, "a.txt,,7,,,,\"X\",1");
+        writeLines(new File(newDir, "BSCBASIC.csv"), header, "b.txt,,7,,,,\"X\",2");
+        writeLines(new File(oldDir, "OTHPARA.csv"), "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,TIMER",
+                "a.txt,,7,,,,1");
+        writeLines(new File(newDir, "OTHPARA.csv"), "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,TIMER",
+                "b.txt,,7,,,,3");
+        
+        File diffFile = new File(newDir.getParentFile(), "boda-huaweimmlparser-diff-singleton.csv");
+        MODiff diff = new MODiff();
+        diff.diff(oldDir, newDir, diffFile);
+        List<String> lines = readLines(diffFile);
+        diffFile.delete();
+        
+        assertEquals(0, diff.getAddedCount());
+        assertEquals(0, diff.getRemovedCount());
+        assertEquals(Arrays.asList("MO,BSCID,KEY,CHANGE,PARAMETER,OLD_VALUE,NEW_VALUE",
+                "BSCBASIC,7,NAME=X,CHANGED,TIMER,1,2",
+                "OTHPARA,7,,CHANGED,TIMER,1,3"), lines);
+    }
+    public void testMOStoreAmbiguousAndUnmatched() throws Exception {
+        //Commands matching several instances apply to all of them
+        MOStore store = new MOStore(new MOKeyColumns());
+        store.apply("ADD", "GTRX", new String[]{"CELLID", "TRXID"}, new String[]{"1", "0"}, "100", "100");
+        store.apply("ADD", "GTRX", new String[]{"CELLID", "TRXID"}, new String[]{"1", "1"}, "100", "100");
+        store.apply("MOD", "GTRX", new String[]{"CELLID", "FREQ"}, new String[]{"1", "99"}, "100", "100");
+        assertEquals(2, store.getInstanceCount());
+        assertEquals(0, store.getUnmatchedCount());
+        assertEquals(Arrays.asList("BSCID,CELLID,TRXID,FREQ", "100,1,0,99", "100,1,1,99"),
+                writeStore(store, "GTRX"));
+        
+        //Commands other than ADD and SET matching nothing create no instance
+        store.apply("BLK", "GTRX", new String[]{"CELLID"}, new String[]{"2"}, "100", "100");
+        store.apply("MOD", "GTRX", new String[]{"CELLID", "TRXID", "FREQ"}, new String[]{"1", "5", "7"}, "100", "100");
+        assertEquals(2, store.getInstanceCount());
+        assertEquals(2, store.getUnmatchedCount());
+        assertEquals(Arrays.asList("BSCID,CELLID,TRXID,FREQ", "100,1,0,99", "100,1,1,99"),
+                writeStore(store, "GTRX"));
+        
+        //An ambiguous RMV removes every matching instance and later
+        //lookups still use the partial key index
+        store.apply("ADD", "GTRX", new String[]{"CELLID", "TRXID"}, new String[]{"2", "0"}, "100", "100");
+        store.apply("RMV", "GTRX", new String[]{"CELLID"}, new String[]{"1"}, "100", "100");
+        assertEquals(1, store.getInstanceCount());
+        store.apply("MOD", "GTRX", new String[]{"CELLID", "FREQ"}, new String[]{"2", "3"}, "100", "100");
+        assertEquals(Arrays.asList("BSCID,CELLID,TRXID,FREQ", "100,2,0,3"), writeStore(store, "GTRX"));
+        
+        //An instance added with some of its key parameters is removed by them
+        store.apply("SET", "GTRX", new String[]{"CELLID", "FREQ"}, new String[]{"3", "4"}, "100", "100");
+        assertEquals(2, store.getInstanceCount());
+        store.apply("RMV", "GTRX", new String[]{"CELLID"}, new String[]{"3"}, "100", "100");
+        assertEquals(1, store.getInstanceCount());
+        assertEquals(2, store.getUnmatchedCount());
+    }
+    public void testSinglePassMatchesTwoPasses() throws Exception {
+        //Rows spooled before later files add parameters to their MO are 
+        //replayed under the final header
+        File input = newTestDirectory("singlepass-in");
+        writeLines(new File(input, "f0.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLID=1, LAC=10;",
+                "SET BSCBASIC:TIMER=1;");
+        writeLines(new File(input, "f1.txt"), "//System BSCID: 200",
+                "ADD GCELL:CELLNAME=\"B\", CELLID=2, CI=5;",
+                "ADD GTRX:CELLID=2, TRXID=0, FREQ=\"1,2\";",
+                "SET BSCBASIC:TIMER=2, MODE=X;");
+        writeLines(new File(input, "f2.txt"), "//System BSCID: 300",
+                "ADD GCELL:LAC=12, CELLID=3;");
+        
+        File twoPass = newTestDirectory("singlepass-two");
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(twoPass.getPath());
+        parser.setThreads(1);
+        parser.parse();
+        Map<String, List<String>> expected = readDirectory(twoPass);
+        assertEquals(3, expected.size());
+        
+        for(int threads = 1; threads <= 2; threads++){
+            File onePass = newTestDirectory("singlepass-one-" + threads);
+            parser = new HuaweiMMLParser();
+            parser.setDataSource(input.getPath());
+            parser.setOutputDirectory(onePass.getPath());
+            parser.setThreads(threads);
+            parser.setSinglePass(true);
+            parser.parse();
+            assertEquals(expected, readDirectory(onePass));
+        }
+    }
+    public void testParameterSelector() throws Exception {
+        assertTrue(ParameterSelector.matches("*", ""));
+        assertTrue(ParameterSelector.matches("*CELL", "GCELL"));
+        assertTrue(ParameterSelector.matches("G?ELL", "GCELL"));
+        assertTrue(ParameterSelector.matches("*SWITCH*", "HOSWITCH"));
+        assertTrue(ParameterSelector.matches("A*B*C", "AXBYBZC"));
+        assertFalse(ParameterSelector.matches("*CELL", "GCELLX"));
+        assertFalse(ParameterSelector.matches("G?ELL", "GELL"));
+        assertFalse(ParameterSelector.matches("GCELL", "GCELL_MOD"));
+        
+        File config = new File(newTestDirectory("selector"), "parameters.cfg");
+        writeLines(config, "*CELL:*SWITCH*,CELLID", "UCELL:*,!*NAME", 
+                "!GCELL:HOSWITCH", "!GCELL_MOD", "GTRX:TRXID");
+        ParameterSelector selector = new ParameterSelector();
+        selector.load(config.getPath());
+        assertTrue(selector.hasPatterns());
+        
+        assertTrue(selector.selects("GCELL", "CELLID"));
+        assertTrue(selector.selects("GCELL", "PWRSWITCH"));
+        assertFalse(selector.selects("GCELL", "LAC"));
+        
+        //Exclusions take precedence over includes of other lines
+        assertFalse(selector.selects("GCELL", "HOSWITCH"));
+        assertTrue(selector.selects("UCELL", "HOSWITCH"));
+        assertTrue(selector.selects("UCELL", "LAC"));
+        assertFalse(selector.selects("UCELL", "CELLNAME"));
+        
+        //Excluded MOs and MOs no line includes are not selected
+        assertFalse(selector.selectsMO("GCELL_MOD"));
+        assertFalse(selector.selects("GCELL_MOD", "CELLID"));
+        assertFalse(selector.selectsMO("BSCBASIC"));
+        assertTrue(selector.selectsMO("GTRX"));
+        assertFalse(selector.selects("GTRX", "FREQ"));
+        
+        //Cached decisions and copies give the same answers
+        assertFalse(selector.selects("GCELL", "HOSWITCH"));
+        ParameterSelector copy = selector.copy();
+        assertTrue(copy.selects("UCELL", "LAC"));
+        assertFalse(copy.selects("UCELL", "CELLNAME"));
+        assertFalse(copy.selectsMO("GCELL_MOD"));
+        
+        //Only the selected parameters and MOs are written
+        File input = newTestDirectory("selector-in");
+        writeLines(new File(input, "f0.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLID=1, LAC=10, HOSWITCH=ON, PWRSWITCH=OFF;",
+                "ADD UCELL:CELLID=2, CELLNAME=\"A\", LAC=11;",
+                "SET BSCBASIC:TIMER=1;");
+        File output = newTestDirectory("selector-out");
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(output.getPath());
+        parser.setParameterFile(config.getPath());
+        parser.getParametersToExtract(config.getPath());
+        parser.setThreads(1);
+        parser.parse();
+        
+        Map<String, List<String>> outputs = readDirectory(output);
+        assertEquals(new HashSet<String>(Arrays.asList("GCELL.csv", "UCELL.csv")), outputs.keySet());
+        assertTrue(outputs.get("GCELL.csv").get(0).endsWith(",CELLID,PWRSWITCH"));
+        assertTrue(outputs.get("UCELL.csv").get(0).endsWith(",CELLID,LAC"));
+    }
+    public void testMVModes() throws Exception {
+        File input = newTestDirectory("mvmode-in");
+        writeLines(new File(input, "f0.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLID=1, HOSWITCH=A-1&B-0&C-1, PRI=X-5&Y-1;",
+                "ADD GCELL:CELLID=2, HOSWITCH=A-0&B-1&C-0, PRI=X-0&Y-1;",
+                "ADD GCELL:CELLID=3, LAC=12;");
+        String meta = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,";
+        String row = "f0.txt,null,100,null,null,null,";
+        
+        Map<String, Map<String, List<String>>> expected = new LinkedHashMap<String, Map<String, List<String>>>();
+        Map<String, List<String>> wide = new LinkedHashMap<String, List<String>>();
+        wide.put("GCELL.csv", Arrays.asList(
+                meta + "CELLID,HOSWITCH_A,HOSWITCH_B,HOSWITCH_C,PRI_X,PRI_Y,LAC",
+                row + "1,1,0,1,5,1,", row + "2,0,1,0,0,1,", row + "3,,,,,,12"));
+        expected.put("wide", wide);
+        
+        //Multi-valued parameters go to their own output by ROW_ID
+        Map<String, List<String>> rows = new LinkedHashMap<String, List<String>>();
+        rows.put("GCELL.csv", Arrays.asList(meta + "ROW_ID,CELLID,LAC",
+                row + "1,1,", row + "2,2,", row + "3,3,12"));
+        rows.put("GCELL_MV.csv", Arrays.asList("ROW_ID,PARAMETER,CHILD,VALUE",
+                "1,HOSWITCH,A,1", "1,HOSWITCH,B,0", "1,HOSWITCH,C,1", "1,PRI,X,5", "1,PRI,Y,1",
+                "2,HOSWITCH,A,0", "2,HOSWITCH,B,1", "2,HOSWITCH,C,0", "2,PRI,X,0", "2,PRI,Y,1"));
+        expected.put("long", rows);
+        
+        //Switches with only 0 and 1 values are packed. Other parameters
+        //stay wide.
+        Map<String, List<String>> bitmask = new LinkedHashMap<String, List<String>>();
+        bitmask.put("GCELL.csv", Arrays.asList(meta + "CELLID,HOSWITCH,PRI_X,PRI_Y,LAC",
+                row + "1,5,5,1,", row + "2,2,0,1,", row + "3,,,,12"));
+        bitmask.put("MV_BITMASK.csv", Arrays.asList("MO,PARAMETER,BIT,CHILD",
+                "GCELL,HOSWITCH,0,A", "GCELL,HOSWITCH,1,B", "GCELL,HOSWITCH,2,C"));
+        expected.put("bitmask", bitmask);
+        
+        for(Map.Entry<String, Map<String, List<String>>> me : expected.entrySet()){
+            File output = newTestDirectory("mvmode-" + me.getKey());
+            HuaweiMMLParser parser = new HuaweiMMLParser();
+            parser.setDataSource(input.getPath());
+            parser.setOutputDirectory(output.getPath());
+            parser.setThreads(1);
+            parser.setMVMode(me.getKey());
+            parser.parse();
+            assertEquals(me.getValue(), readDirectory(output));
+        }
+        
+        try{
+            new HuaweiMMLParser().setMVMode("narrow");
+            fail("Unknown modes are rejected");
+        }catch(IllegalArgumentException e){
+        }
+    }
+    public void testStdinToTaggedStream() throws Exception {
+        String text = "//System BSCID: 100\n"
+                + "ADD GCELL:CELLID=1, LAC=10;\n"
+                + "SET BSCBASIC:TIMER=1;\n"
+                + "ADD GCELL:CELLID=2, CI=5;\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream stdin = System.in;
+        System.setIn(new ByteArrayInputStream(text.getBytes("UTF-8")));
+        try{
+            HuaweiMMLParser parser = new HuaweiMMLParser();
+            parser.setDataSource("-");
+            parser.setOutputStream(out);
+            parser.setThreads(1);
+            parser.parse();
+        }finally{
+            System.setIn(stdin);
+        }
+        
+        //stdin is read once so the header of each MO has the parameters of
+        //all its rows and precedes them
+        String meta = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,";
+        assertEquals(Arrays.asList(
+                "GCELL\t" + meta + "CELLID,LAC,CI",
+                "GCELL\tstdin,null,100,null,null,null,1,10,",
+                "BSCBASIC\t" + meta + "TIMER",
+                "BSCBASIC\tstdin,null,100,null,null,null,1",
+                "GCELL\tstdin,null,100,null,null,null,2,,5"),
+                Arrays.asList(new String(out.toByteArray(), "UTF-8").split("\n")));
+    }
+    public void testResilientRejects() throws Exception {
+        //A command without parameters fails and its continuation lines are
+        //skipped up to its terminator
+        File input = newTestDirectory("resilient-in");
+        writeLines(new File(input, "f0.txt"), "//System BSCID: 100",
+                "ADD GCELL:CELLID=1, LAC=10;",
+                "ADD GCELL",
+                "CELLID=9,",
+                "LAC=9;",
+                "ADD GCELL:CELLID=3, LAC=12;",
+                "ADD GCELL:CELLID, LAC=11;",
+                "ADD GCELL:CELLID=5, LAC=1;");
+        writeLines(new File(input, "f1.txt"), "//System BSCID: 200",
+                "ADD GCELL:CELLID=6, LAC=10;");
+        
+        String meta = "FILENAME,DATETIME,BSCID,BAM_VERSION,OMU_IP,MBSC MODE,";
+        String error = "java.lang.ArrayIndexOutOfBoundsException";
+        Map<String, List<String>> expected = new LinkedHashMap<String, List<String>>();
+        expected.put("GCELL.csv", Arrays.asList(meta + "CELLID,LAC",
+                "f0.txt,null,100,null,null,null,1,10",
+                "f0.txt,null,100,null,null,null,3,12",
+                "f0.txt,null,100,null,null,null,5,1",
+                "f1.txt,null,200,null,null,null,6,10"));
+        expected.put(HuaweiMMLParser.REJECTS_OUTPUT + ".csv", Arrays.asList("FILENAME,OFFSET,ERROR,LINE",
+                "f0.txt,48," + error + ",ADD GCELL",
+                "f0.txt,58,Skipped rest of rejected command,\"CELLID=9,\"",
+                "f0.txt,68,Skipped rest of rejected command,LAC=9;",
+                "f0.txt,103," + error + ",\"ADD GCELL:CELLID, LAC=11;\""));
+        
+        //Byte ranges parsed by workers give the same rejects in input order
+        for(int threads = 1; threads <= 2; threads++){
+            File output = newTestDirectory("resilient-out-" + threads);
+            HuaweiMMLParser parser = new HuaweiMMLParser();
+            parser.setDataSource(input.getPath());
+            parser.setOutputDirectory(output.getPath());
+            parser.setThreads(threads);
+            parser.setSplitSize(40);
+            parser.setResilient(true);
+            parser.parse();
+            
+            //The exception messages differ between JREs
+            Map<String, List<String>> outputs = readDirectory(output);
+            List<String> rejects = outputs.get(HuaweiMMLParser.REJECTS_OUTPUT + ".csv");
+            for(int i = 0; rejects != null && i < rejects.size(); i++){
+                rejects.set(i, rejects.get(i).replaceFirst("Exception: [^,]*,", "Exception,"));
+            }
+            assertEquals(expected, outputs);
+        }
+        
+        //Without resilient mode the rest of the file is skipped
+        File output = newTestDirectory("resilient-off");
+        HuaweiMMLParser parser = new HuaweiMMLParser();
+        parser.setDataSource(input.getPath());
+        parser.setOutputDirectory(output.getPath());
+        parser.setThreads(1);
+        parser.parse();
+        assertEquals(Arrays.asList(meta + "CELLID,LAC",
+                "f0.txt,null,100,null,null,null,1,10",
+                "f1.txt,null,200,null,null,null,6,10"),
+                readDirectory(output).get("GCELL.csv"));
+    }
+    public void testFilePrefetcher() throws Exception {
+        File input = newTestDirectory("prefetch");
+        List<File> files = new ArrayList<File>();
+        List<byte[]> contents = new ArrayList<byte[]>();
+        int [] sizes = {FilePrefetcher.CHUNK_SIZE * 2 + 100, 10, FilePrefetcher.CHUNK_SIZE + 1};
+        for(int i = 0; i < sizes.length; i++){
+            byte [] data = new byte[sizes[i]];
+            for(int j = 0; j < data.length; j++) data[j] = (byte)(j * 31 + i);
+            File f = new File(input, "f" + i + ".txt");
+            FileOutputStream out = new FileOutputStream(f);
+            try{
+                out.write(data);
+            }finally{
+                out.close();
+            }
+            files.add(f);
+            contents.add(data);
+        }
+        
+        //With a single chunk the next file is only read ahead once the
+        //chunk of the previous file is handed back
+        FilePrefetcher prefetcher = new FilePrefetcher(files, 1, FilePrefetcher.CHUNK_SIZE);
+        try{
+            for(int i = 0; i < files.size(); i++){
+                InputStream in = prefetcher.open(files.get(i).getPath());
+                assertTrue(in != null);
+                try{
+                    assertTrue(Arrays.equals(contents.get(i), readBytes(in)));
+                }finally{
+                    in.close();
+                }
+            }
+            assertNull(prefetcher.open(files.get(0).getPath()));
+        }finally{
+            prefetcher.close();
+        }
+        
+        //Files opened out of order are not prefetched and are read from
+        //disk by the caller
+        prefetcher = new FilePrefetcher(files, 2, 2L * FilePrefetcher.CHUNK_SIZE);
+        try{
+            assertNull(prefetcher.open(files.get(1).getPath()));
+            InputStream in = prefetcher.open(files.get(0).getPath());
+            assertTrue(in != null);
+            in.close();
+            assertNull(prefetcher.open(files.get(2).getPath()));
+            in = prefetcher.open(files.get(1).getPath());
+            try{
+                assertTrue(Arrays.equals(contents.get(1), readBytes(in)));
+            }finally{
+                in.close();
+            }
+        }finally{
+            prefetcher.close();
+        }
+    }
+    
+    private static byte[] readBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [] buffer = new byte[4096];
+        for(int n; (n = in.read(buffer, 0, buffer.length)) >= 0; ) out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+    public void testPartitionWriterPool() throws Exception {
+        File output = newTestDirectory("partition");
+        File root = new File(output, "GCELL");
+        File may = new File(new File(root, "date=20190501"), "bscid=100");
+        File june = new File(new File(root, "date=20190601"), "bscid=100");
+        File other = new File(new File(root, "date=20180101"), "bscid=100");
+        may.mkdirs();
+        other.mkdirs();
+        writeLines(new File(may, "part-00007.csv"), "stale");
+        writeLines(new File(other, "part-00000.csv"), "kept");
+        
+        //With one open file each switch of partition starts a new part file
+        OutputTarget target = OutputTarget.toDirectory(output.getPath());
+        target.setPartitioned(1);
+        String header = "FILENAME,DATETIME,BSCID,CELLID";
+        PrintWriter pw = target.open("GCELL", false);
+        pw.println(header);
+        pw.println("f0.txt,2019-05-01 10:00:00,100,1");
+        pw.println("f0.txt,2019-05-01 10:00:00,100,2");
+        pw.println("f1.txt,2019-06-01 10:00:00,100,3");
+        pw.println("f0.txt,2019-05-01 10:00:00,100,4");
+        pw.println("f2.txt,null,\"a/b\",5");
+        
+        PrintWriter side = target.open("MV_BITMASK", false);
+        side.println("MO,PARAMETER,BIT,CHILD");
+        side.println("GCELL,HOSWITCH,0,A");
+        pw.close();
+        side.close();
+        target.close();
+        assertFalse(pw.checkError());
+        
+        assertEquals(Arrays.asList(header, "f0.txt,2019-05-01 10:00:00,100,1", "f0.txt,2019-05-01 10:00:00,100,2"), 
+                readLines(new File(may, "part-00000.csv")));
+        assertEquals(Arrays.asList(header, "f0.txt,2019-05-01 10:00:00,100,4"), 
+                readLines(new File(may, "part-00001.csv")));
+        assertEquals(Arrays.asList("part-00000.csv", "part-00001.csv"), Arrays.asList(sortedNames(may)));
+        assertEquals(Arrays.asList(header, "f1.txt,2019-06-01 10:00:00,100,3"), 
+                readLines(new File(june, "part-00000.csv")));
+        assertEquals(Arrays.asList(header, "f2.txt,null,\"a/b\",5"), 
+                readLines(new File(root, "date=unknown" + File.separator + "bscid=a_b" + File.separator + "part-00000.csv")));
+        
+        //Partitions not written in the run are left as they are
+        assertEquals(Arrays.asList("kept"), readLines(new File(other, "part-00000.csv")));
+        
+        //Outputs without the meta fields are written to a single file
+        assertEquals(Arrays.asList("MO,PARAMETER,BIT,CHILD", "GCELL,HOSWITCH,0,A"), 
+                readLines(new File(output, "MV_BITMASK.csv")));
+        assertFalse(new File(output, "MV_BITMASK").exists());
+    }
+    
+    private static String[] sortedNames(File directory){
+        String [] names = directory.list();
+        Arrays.sort(names);
+        return names;
+    }
 }